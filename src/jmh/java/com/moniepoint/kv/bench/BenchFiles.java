@@ -0,0 +1,22 @@
+package com.moniepoint.kv.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+final class BenchFiles {
+
+	private BenchFiles() {
+	}
+
+	static void deleteRecursively(Path dir) throws IOException {
+		if (dir == null || !Files.exists(dir))
+			return;
+		try (Stream<Path> s = Files.walk(dir)) {
+			for (Path p : s.sorted(Comparator.reverseOrder()).toList())
+				Files.deleteIfExists(p);
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package com.moniepoint.kv.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.moniepoint.kv.util.BitcaskStore;
+import com.moniepoint.kv.util.KvStore;
+import com.moniepoint.kv.util.StoreOptions;
+
+/**
+ * Burst of {@link #REQUESTS} concurrent blocking writes, as the HTTP layer
+ * would run them: on a pool sized like Tomcat's default ({@code PLATFORM}, 200
+ * threads) versus one virtual thread per request ({@code VIRTUAL}, what
+ * {@code spring.threads.virtual.enabled=true} gives). Under GROUP sync the
+ * pool caps a commit group at its thread count; virtual threads let every
+ * waiting request join the next fsync. {@code VIRTUAL} needs a Java 21 JVM
+ * ({@code -Djmh.args="-jvm /path/to/jdk21/bin/java ConcurrencyBenchmark"}).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConcurrencyBenchmark {
+
+	static final int REQUESTS = 2000;
+	static final int TOMCAT_MAX_THREADS = 200;
+
+	public enum Threads {
+		PLATFORM, VIRTUAL
+	}
+
+	@Param({ "PLATFORM", "VIRTUAL" })
+	public Threads threads;
+
+	@Param({ "GROUP", "ALWAYS" })
+	public BitcaskStore.SyncMode syncMode;
+
+	@Param({ "1" })
+	public int shards;
+
+	private Path dir;
+	private KvStore store;
+	private ExecutorService executor;
+	private final Future<?>[] pending = new Future<?>[REQUESTS];
+	private byte[] value;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		executor = threads == Threads.PLATFORM ? Executors.newFixedThreadPool(TOMCAT_MAX_THREADS)
+				: newVirtualThreadPerTaskExecutor();
+		dir = Files.createTempDirectory("kv-concurrency-bench-");
+		store = KvStore.open(dir, new StoreOptions().syncMode(syncMode).shards(shards));
+		value = new byte[256];
+		ThreadLocalRandom.current().nextBytes(value);
+	}
+
+	/** Java 21 API, looked up reflectively so the benchmarks still build on 17. */
+	private static ExecutorService newVirtualThreadPerTaskExecutor() throws Exception {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (NoSuchMethodException e) {
+			throw new IllegalStateException("virtual threads need Java 21+, running on " + Runtime.version(), e);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		if (executor != null)
+			executor.shutdownNow();
+		if (store != null)
+			store.close();
+		BenchFiles.deleteRecursively(dir);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(REQUESTS)
+	public void burstOfPuts() throws Exception {
+		for (int i = 0; i < REQUESTS; i++) {
+			String key = StoreBenchmark.key(ThreadLocalRandom.current().nextInt(100_000));
+			pending[i] = executor.submit(() -> {
+				store.put(key, value);
+				return null;
+			});
+		}
+		for (Future<?> f : pending)
+			f.get();
+	}
+}
@@ -0,0 +1,113 @@
+package com.moniepoint.kv.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.moniepoint.kv.model.KvPair;
+import com.moniepoint.kv.util.BitcaskStore;
+import com.moniepoint.kv.util.StoreOptions;
+
+/**
+ * Startup time: opening a store over an existing data directory, with and
+ * without hint files, on one or several recovery threads. The directory is
+ * written once per trial; scale it with {@code -p dataMb=4096} for multi-GB
+ * runs.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RecoveryBenchmark {
+
+	@Param({ "256" })
+	public int dataMb;
+
+	@Param({ "1024" })
+	public int valueSize;
+
+	@Param({ "true", "false" })
+	public boolean hints;
+
+	@Param({ "HASH" })
+	public BitcaskStore.IndexType indexType;
+
+	@Param({ "1", "4" })
+	public int recoveryThreads;
+
+	private Path dir;
+	private BitcaskStore opened;
+
+	@Setup(Level.Trial)
+	public void writeDataDir() throws IOException {
+		dir = Files.createTempDirectory("kv-recovery-bench-");
+		byte[] value = new byte[valueSize];
+		ThreadLocalRandom.current().nextBytes(value);
+		long records = (long) dataMb * 1024 * 1024 / (valueSize + 27); // header + "key%010d"
+		StoreOptions opts = new StoreOptions().syncMode(BitcaskStore.SyncMode.EVERY_N).batchSyncEvery(10_000)
+				.maxSegmentBytes(64L * 1024 * 1024);
+		try (BitcaskStore s = new BitcaskStore(dir, opts)) {
+			List<KvPair> batch = new ArrayList<>(1000);
+			for (long i = 0; i < records; i++) {
+				batch.add(new KvPair(StoreBenchmark.key((int) i), value));
+				if (batch.size() == 1000) {
+					s.batchPut(batch);
+					batch.clear();
+				}
+			}
+			if (!batch.isEmpty())
+				s.batchPut(batch);
+		} // close waits for the hint files of the sealed segments
+	}
+
+	@Setup(Level.Iteration)
+	public void prepare() throws IOException {
+		if (hints)
+			return;
+		// the previous open rewrote them in the background
+		try (Stream<Path> s = Files.list(dir)) {
+			for (Path p : s.filter(p -> p.getFileName().toString().endsWith(".hint")).toList())
+				Files.delete(p);
+		}
+	}
+
+	@Benchmark
+	public BitcaskStore open() throws IOException {
+		opened = new BitcaskStore(dir, new StoreOptions().indexType(indexType).recoveryThreads(recoveryThreads));
+		return opened;
+	}
+
+	@TearDown(Level.Iteration)
+	public void closeStore() throws IOException {
+		if (opened != null) {
+			opened.close();
+			opened = null;
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteDataDir() throws IOException {
+		BenchFiles.deleteRecursively(dir);
+	}
+}
@@ -0,0 +1,151 @@
+package com.moniepoint.kv.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.moniepoint.kv.model.KvPair;
+import com.moniepoint.kv.util.BitcaskStore;
+import com.moniepoint.kv.util.KvStore;
+import com.moniepoint.kv.util.StoreOptions;
+
+/**
+ * Public store API against a pre-loaded data directory. Thread count comes
+ * from the command line ({@code -t N}); the store is shared by all threads.
+ * Compare write scaling across cores with {@code -p shards=1,4}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StoreBenchmark {
+
+	static final int BATCH_SIZE = 100;
+	static final int RANGE_SIZE = 100;
+
+	@Param({ "ALWAYS", "EVERY_N", "GROUP", "INTERVAL" })
+	public BitcaskStore.SyncMode syncMode;
+
+	@Param({ "128", "4096" })
+	public int valueSize;
+
+	@Param({ "10000", "100000" })
+	public int keyCount;
+
+	@Param({ "HASH" })
+	public BitcaskStore.IndexType indexType;
+
+	@Param({ "1" })
+	public int shards;
+
+	@Param({ "0" })
+	public long valueCacheBytes;
+
+	private Path dir;
+	private KvStore store;
+	private byte[] value;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("kv-bench-");
+		store = KvStore.open(dir, new StoreOptions().syncMode(syncMode).indexType(indexType).shards(shards)
+				.valueCacheBytes(valueCacheBytes));
+		value = new byte[valueSize];
+		ThreadLocalRandom.current().nextBytes(value);
+
+		List<KvPair> batch = new ArrayList<>(1000);
+		for (int i = 0; i < keyCount; i++) {
+			batch.add(new KvPair(key(i), value));
+			if (batch.size() == 1000) {
+				store.batchPut(batch);
+				batch.clear();
+			}
+		}
+		if (!batch.isEmpty())
+			store.batchPut(batch);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		store.close();
+		BenchFiles.deleteRecursively(dir);
+	}
+
+	static String key(int i) {
+		return String.format("key%010d", i);
+	}
+
+	private int randomKey() {
+		return ThreadLocalRandom.current().nextInt(keyCount);
+	}
+
+	@Benchmark
+	public void put() throws IOException {
+		store.put(key(randomKey()), value);
+	}
+
+	@Benchmark
+	public Optional<byte[]> get() throws IOException {
+		return store.get(key(randomKey()));
+	}
+
+	/** Delete and re-insert, so the key population stays constant across iterations. */
+	@Benchmark
+	public void deleteThenPut() throws IOException {
+		String k = key(randomKey());
+		store.delete(k);
+		store.put(k, value);
+	}
+
+	@Benchmark
+	public void batchPut() throws IOException {
+		int first = ThreadLocalRandom.current().nextInt(Math.max(1, keyCount - BATCH_SIZE));
+		List<KvPair> batch = new ArrayList<>(BATCH_SIZE);
+		for (int i = 0; i < BATCH_SIZE; i++)
+			batch.add(new KvPair(key(first + i), value));
+		store.batchPut(batch);
+	}
+
+	/** {@link #RANGE_SIZE} random keys in one call; compare with as many {@link #get()}s. */
+	@Benchmark
+	public long multiGet(Blackhole bh) throws IOException {
+		List<String> keys = new ArrayList<>(RANGE_SIZE);
+		for (int i = 0; i < RANGE_SIZE; i++)
+			keys.add(key(randomKey()));
+		return store.multiGet(keys, (k, v) -> {
+			bh.consume(v);
+			return true;
+		});
+	}
+
+	@Benchmark
+	public long getRange(Blackhole bh) throws IOException {
+		int first = ThreadLocalRandom.current().nextInt(Math.max(1, keyCount - RANGE_SIZE));
+		return store.scanRange(key(first), key(first + RANGE_SIZE - 1), (k, v) -> {
+			bh.consume(v);
+			return true;
+		});
+	}
+}
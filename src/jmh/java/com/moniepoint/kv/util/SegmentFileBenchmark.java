@@ -0,0 +1,109 @@
+package com.moniepoint.kv.util;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Raw segment I/O below the store: page-cache appends (no fsync) and random
+ * value reads through the channel or a read-only mapping.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SegmentFileBenchmark {
+
+	static final int RECORDS = 100_000;
+	static final long MAX_APPEND_BYTES = 1L << 30; // start a fresh file past this
+
+	@Param({ "128", "4096", "131072" })
+	public int valueSize;
+
+	@Param({ "false", "true" })
+	public boolean mmap;
+
+	private Path dir;
+	private byte[] key;
+	private byte[] value;
+	private SegmentFile appendSeg;
+	private SegmentFile readSeg;
+	private long[] offsets;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("kv-segment-bench-");
+		key = "key0000000000".getBytes();
+		value = new byte[valueSize];
+		ThreadLocalRandom.current().nextBytes(value);
+
+		int n = (int) Math.min(RECORDS, (512L << 20) / (valueSize + key.length + SegmentFile.HEADER_SIZE));
+		offsets = new long[n];
+		try (SegmentFile w = new SegmentFile(1, dir.resolve("read.log"), CREATE, READ, WRITE)) {
+			for (int i = 0; i < n; i++)
+				offsets[i] = w.append(key, value, false);
+		}
+		readSeg = new SegmentFile(1, dir.resolve("read.log"), READ);
+		readSeg.markSealed();
+		if (mmap)
+			readSeg.mapReadOnly();
+		newAppendSegment();
+	}
+
+	private void newAppendSegment() throws IOException {
+		if (appendSeg != null) {
+			appendSeg.close();
+			Files.delete(appendSeg.path());
+		}
+		appendSeg = new SegmentFile(2, dir.resolve("append.log"), CREATE, READ, WRITE);
+	}
+
+	@Setup(Level.Iteration)
+	public void bound() throws IOException {
+		if (appendSeg.size() > MAX_APPEND_BYTES)
+			newAppendSegment();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		appendSeg.close();
+		readSeg.close();
+		try (var s = Files.list(dir)) {
+			for (Path p : s.toList())
+				Files.delete(p);
+		}
+		Files.delete(dir);
+	}
+
+	@Benchmark
+	public long append() throws IOException {
+		return appendSeg.append(key, value, false);
+	}
+
+	@Benchmark
+	public byte[] readValueAt() throws IOException {
+		return readSeg.readValueAt(offsets[ThreadLocalRandom.current().nextInt(offsets.length)]);
+	}
+}
@@ -0,0 +1,91 @@
+package com.moniepoint.kv.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * CPU cost per record of value compression: encoding one value on the write
+ * path and inflating it on the read path. {@code RANDOM} values do not
+ * compress, so their encode time is the price of finding that out. The
+ * compression ratio of each setup is printed once per trial.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ValueCodecBenchmark {
+
+	public enum Content {
+		JSON, RANDOM
+	}
+
+	@Param({ "512", "4096", "65536" })
+	public int valueSize;
+
+	@Param({ "JSON", "RANDOM" })
+	public Content content;
+
+	private ValueCodec codec;
+	private byte[] value;
+	private byte[] stored;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		codec = new ValueCodec(BitcaskStore.Compression.DEFLATE, 0, StoreMetrics.NOOP);
+		value = content == Content.JSON ? json(valueSize) : random(valueSize);
+		stored = codec.encode(value);
+		System.out.printf("%n# %s %d bytes: stored as %d (ratio %.2f)%n", content, valueSize,
+				stored == null ? valueSize : stored.length,
+				stored == null ? 1.0 : (double) valueSize / stored.length);
+	}
+	/** Orders as an API would return them, cut to {@code size} bytes. */
+	/** DROP, cut to {@code size} bytes. */
+	static byte[] json(int size) {
+		StringBuilder sb = new StringBuilder("[");
+		ThreadLocalRandom r = ThreadLocalRandom.current();
+		for (int i = 0; sb.length() < size; i++) {
+			sb.append(i == 0 ? "" : ",").append("{\"orderId\":").append(r.nextInt(1_000_000_000))
+					.append(",\"status\":\"").append(r.nextBoolean() ? "SETTLED" : "PENDING")
+					.append("\",\"channel\":\"pos\",\"currency\":\"NGN\",\"amount\":").append(r.nextInt(1_000_000))
+					.append(",\"terminal\":\"T").append(r.nextInt(100_000))
+					.append("\",\"merchant\":{\"city\":\"Lagos\",\"country\":\"NG\"}}");
+		}
+		byte[] b = sb.toString().getBytes(StandardCharsets.UTF_8);
+		return Arrays.copyOf(b, size);
+	}
+
+	static byte[] random(int size) {
+		byte[] b = new byte[size];
+		ThreadLocalRandom.current().nextBytes(b);
+		return b;
+	}
+
+	@Benchmark
+	public byte[] encode() {
+		return codec.encode(value);
+	}
+
+	@Benchmark
+	public byte[] decode() throws IOException {
+		return stored == null ? value : ValueCodec.decode(ByteBuffer.wrap(stored), StoreMetrics.NOOP);
+	}
+}
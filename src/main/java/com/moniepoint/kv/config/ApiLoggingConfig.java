@@ -0,0 +1,28 @@
+package com.moniepoint.kv.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.moniepoint.kv.filter.AccessLogFilter;
+
+@Configuration
+@EnableConfigurationProperties(ApiLoggingProperties.class)
+public class ApiLoggingConfig {
+	private static final Logger log = LoggerFactory.getLogger(ApiLoggingConfig.class);
+
+	@Bean
+	@ConditionalOnProperty(prefix = "app.api.logging", name = "enable", havingValue = "true", matchIfMissing = true)
+	public FilterRegistrationBean<AccessLogFilter> accessLogFilter(ApiLoggingProperties props) {
+		log.info("Access log enabled: urlPatterns={} sampleRate={}", props.getUrlPatterns(), props.getSampleRate());
+
+		FilterRegistrationBean<AccessLogFilter> reg = new FilterRegistrationBean<>(
+				new AccessLogFilter(props.getSampleRate()));
+		reg.setUrlPatterns(props.getUrlPatterns());
+		return reg;
+	}
+}
@@ -0,0 +1,38 @@
+package com.moniepoint.kv.config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@ConfigurationProperties(prefix = "app.api.logging")
+public class ApiLoggingProperties {
+	private boolean enable = true;
+	private List<String> urlPatterns = new ArrayList<>(List.of("/kv/*"));
+	private double sampleRate = 0.01;
+
+	public boolean isEnable() {
+		return enable;
+	}
+
+	public void setEnable(boolean enable) {
+		this.enable = enable;
+	}
+
+	public List<String> getUrlPatterns() {
+		return urlPatterns;
+	}
+
+	public void setUrlPatterns(List<String> urlPatterns) {
+		this.urlPatterns = urlPatterns;
+	}
+
+	public double getSampleRate() {
+		return sampleRate;
+	}
+
+	public void setSampleRate(double sampleRate) {
+		this.sampleRate = sampleRate;
+	}
+
+}
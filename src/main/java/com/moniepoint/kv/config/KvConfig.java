@@ -1,15 +1,24 @@
 package com.moniepoint.kv.config;
 
 import java.io.IOException;
+import java.net.URI;
 import java.nio.file.Path;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 import com.moniepoint.kv.util.BitcaskStore;
+import com.moniepoint.kv.util.KvStore;
+import com.moniepoint.kv.util.ReplicationFollower;
+import com.moniepoint.kv.util.StoreOptions;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 
 @Configuration
 @EnableConfigurationProperties(KvProperties.class)
@@ -23,16 +32,37 @@ public class KvConfig {
 	}
 
 	@Bean(destroyMethod = "close") // ensures close() called on shutdown
-	public BitcaskStore store() throws IOException {
+	public KvStore store(MeterRegistry meterRegistry) throws IOException {
 		log.info(
-				"Booting KV store with config: dataDir='{}', syncMode='{}', batchSyncEvery={}, syncIntervalMs={}, compactThresholdBytes={}",
+				"Booting KV store with config: dataDir='{}', syncMode='{}', batchSyncEvery={}, syncIntervalMs={}, compactThresholdBytes={}, maxSegmentBytes={}, shards={}",
 				props.getDataDir(), props.getSyncMode(), props.getBatchSyncEvery(), props.getSyncIntervalMs(),
-				props.getCompactThresholdBytes());
+				props.getCompactThresholdBytes(), props.getMaxSegmentBytes(), props.getShards());
+
+		boolean follower = props.getReplicaOf() != null && !props.getReplicaOf().isBlank();
+		// a follower must be able to take over as leader, and only an unsharded store ships its log
+		if (follower && props.getShards() > 1)
+			throw new IllegalStateException("kv.replica-of needs kv.shards=1, configured " + props.getShards());
+		// the follower saves its cursor right after applying a chunk, so the chunk must be on disk by then
+		if (follower && props.getSyncMode() != BitcaskStore.SyncMode.ALWAYS
+				&& props.getSyncMode() != BitcaskStore.SyncMode.GROUP)
+			throw new IllegalStateException(
+					"kv.replica-of needs kv.sync-mode ALWAYS or GROUP, configured " + props.getSyncMode());
 
 		try {
-			BitcaskStore s = new BitcaskStore(Path.of(props.getDataDir()),
-					BitcaskStore.SyncMode.valueOf(props.getSyncMode().toString().trim().toUpperCase()),
-					props.getBatchSyncEvery(), props.getSyncIntervalMs(), props.getCompactThresholdBytes());
+			StoreOptions opts = new StoreOptions()
+					.syncMode(BitcaskStore.SyncMode.valueOf(props.getSyncMode().toString().trim().toUpperCase()))
+					.batchSyncEvery(props.getBatchSyncEvery()).syncIntervalMs(props.getSyncIntervalMs())
+					.compactThresholdBytes(props.getCompactThresholdBytes())
+					.compactRateBytesPerSec(props.getCompactRateBytesPerSec())
+					.compactIntervalMs(props.getCompactIntervalMs()).maxSegmentBytes(props.getMaxSegmentBytes())
+					.mmapSealedSegments(props.isMmapSealedSegments()).indexType(props.getIndexType())
+					.rangeIndex(props.getRangeIndex()).shards(props.getShards()).valueCacheBytes(props.getValueCacheBytes())
+					.recoveryThreads(props.getRecoveryThreads()).readVerify(props.getReadVerify())
+					.readVerifySampleRate(props.getReadVerifySampleRate())
+					.expirySweepIntervalMs(props.getExpirySweepIntervalMs())
+					.compression(props.getCompression()).compressMinBytes(props.getCompressMinBytes())
+					.metrics(new MicrometerStoreMetrics(meterRegistry));
+			KvStore s = KvStore.open(Path.of(props.getDataDir()), opts);
 			log.info("KV store bean created: store@{}", System.identityHashCode(s));
 			return s;
 		} catch (IllegalArgumentException e) {
@@ -44,4 +74,26 @@ public class KvConfig {
 			throw ioe; // keep behavior
 		}
 	}
+
+	/**
+	 * Follower mode ({@code kv.replica-of} set): tail the leader's log into the
+	 * local store. The service refuses client writes in this mode.
+	 */
+	@Bean(destroyMethod = "close")
+	@ConditionalOnExpression("!'${kv.replica-of:}'.isBlank()")
+	public ReplicationFollower replicationFollower(KvStore store, MeterRegistry meterRegistry) throws IOException {
+		String leader = props.getReplicaOf().endsWith("/") ? props.getReplicaOf() : props.getReplicaOf() + "/";
+		log.info("Starting as read-only follower of {}", leader);
+		ReplicationFollower f = new ReplicationFollower(store, ReplicationFollower.http(URI.create(leader)),
+				Path.of(props.getDataDir()).resolve("REPLICA"), props.getReplicaPollIntervalMs());
+		Gauge.builder("kv.replication.lag.bytes", f, ReplicationFollower::lagBytes).baseUnit("bytes")
+				.description("Leader log bytes not yet applied (-1 before the first poll)").register(meterRegistry);
+		Gauge.builder("kv.replication.lag", f, r -> r.lagMillis() / 1000.0).baseUnit("seconds")
+				.description("Time since the follower last reached the end of the leader's log")
+				.register(meterRegistry);
+		FunctionCounter.builder("kv.replication.records", f, ReplicationFollower::appliedRecords)
+				.description("Records applied from the leader's log").register(meterRegistry);
+		f.start();
+		return f;
+	}
 }
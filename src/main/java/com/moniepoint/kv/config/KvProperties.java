@@ -3,6 +3,7 @@ package com.moniepoint.kv.config;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
 import com.moniepoint.kv.util.BitcaskStore;
+import com.moniepoint.kv.util.StoreOptions;
 
 @ConfigurationProperties(prefix = "kv")
 public class KvProperties {
@@ -11,6 +12,22 @@ public class KvProperties {
 	private int batchSyncEvery = 100;
 	private long syncIntervalMs = 50;
 	private long compactThresholdBytes = 0;
+	private long compactRateBytesPerSec = 32L * 1024 * 1024;
+	private long compactIntervalMs = 60_000L;
+	private long maxSegmentBytes = StoreOptions.DEFAULT_MAX_SEGMENT_BYTES;
+	private boolean mmapSealedSegments = false;
+	private BitcaskStore.IndexType indexType = BitcaskStore.IndexType.HASH;
+	private BitcaskStore.RangeIndex rangeIndex = BitcaskStore.RangeIndex.MEMORY;
+	private int shards = 1;
+	private long valueCacheBytes = 0;
+	private int recoveryThreads = 0;
+	private BitcaskStore.ReadVerify readVerify = BitcaskStore.ReadVerify.SAMPLED;
+	private double readVerifySampleRate = 0.01;
+	private long expirySweepIntervalMs = 1_000L;
+	private BitcaskStore.Compression compression = BitcaskStore.Compression.NONE;
+	private int compressMinBytes = 256;
+	private String replicaOf = "";
+	private long replicaPollIntervalMs = 100;
 
 	public String getDataDir() {
 		return dataDir;
@@ -52,4 +69,131 @@ public class KvProperties {
 		this.compactThresholdBytes = compactThresholdBytes;
 	}
 
+	public long getMaxSegmentBytes() {
+		return maxSegmentBytes;
+	}
+
+	public void setMaxSegmentBytes(long maxSegmentBytes) {
+		this.maxSegmentBytes = maxSegmentBytes;
+	}
+
+	public long getCompactRateBytesPerSec() {
+		return compactRateBytesPerSec;
+	}
+
+	public void setCompactRateBytesPerSec(long compactRateBytesPerSec) {
+		this.compactRateBytesPerSec = compactRateBytesPerSec;
+	}
+
+	public long getCompactIntervalMs() {
+		return compactIntervalMs;
+	}
+
+	public void setCompactIntervalMs(long compactIntervalMs) {
+		this.compactIntervalMs = compactIntervalMs;
+	}
+
+	public boolean isMmapSealedSegments() {
+		return mmapSealedSegments;
+	}
+
+	public void setMmapSealedSegments(boolean mmapSealedSegments) {
+		this.mmapSealedSegments = mmapSealedSegments;
+	}
+
+	public BitcaskStore.IndexType getIndexType() {
+		return indexType;
+	}
+
+	public void setIndexType(BitcaskStore.IndexType indexType) {
+		this.indexType = indexType;
+	}
+
+	public BitcaskStore.RangeIndex getRangeIndex() {
+		return rangeIndex;
+	}
+
+	public void setRangeIndex(BitcaskStore.RangeIndex rangeIndex) {
+		this.rangeIndex = rangeIndex;
+	}
+
+	public int getShards() {
+		return shards;
+	}
+
+	public void setShards(int shards) {
+		this.shards = shards;
+	}
+
+	public long getValueCacheBytes() {
+		return valueCacheBytes;
+	}
+
+	public void setValueCacheBytes(long valueCacheBytes) {
+		this.valueCacheBytes = valueCacheBytes;
+	}
+
+	public int getRecoveryThreads() {
+		return recoveryThreads;
+	}
+
+	public void setRecoveryThreads(int recoveryThreads) {
+		this.recoveryThreads = recoveryThreads;
+	}
+
+	public BitcaskStore.ReadVerify getReadVerify() {
+		return readVerify;
+	}
+
+	public void setReadVerify(BitcaskStore.ReadVerify readVerify) {
+		this.readVerify = readVerify;
+	}
+
+	public double getReadVerifySampleRate() {
+		return readVerifySampleRate;
+	}
+
+	public void setReadVerifySampleRate(double readVerifySampleRate) {
+		this.readVerifySampleRate = readVerifySampleRate;
+	}
+
+	public long getExpirySweepIntervalMs() {
+		return expirySweepIntervalMs;
+	}
+
+	public void setExpirySweepIntervalMs(long expirySweepIntervalMs) {
+		this.expirySweepIntervalMs = expirySweepIntervalMs;
+	}
+
+	public BitcaskStore.Compression getCompression() {
+		return compression;
+	}
+
+	public void setCompression(BitcaskStore.Compression compression) {
+		this.compression = compression;
+	}
+
+	public int getCompressMinBytes() {
+		return compressMinBytes;
+	}
+
+	public void setCompressMinBytes(int compressMinBytes) {
+		this.compressMinBytes = compressMinBytes;
+	}
+
+	public String getReplicaOf() {
+		return replicaOf;
+	}
+
+	public void setReplicaOf(String replicaOf) {
+		this.replicaOf = replicaOf;
+	}
+
+	public long getReplicaPollIntervalMs() {
+		return replicaPollIntervalMs;
+	}
+
+	public void setReplicaPollIntervalMs(long replicaPollIntervalMs) {
+		this.replicaPollIntervalMs = replicaPollIntervalMs;
+	}
 }
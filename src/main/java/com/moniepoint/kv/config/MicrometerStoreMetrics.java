@@ -0,0 +1,149 @@
+package com.moniepoint.kv.config;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import com.moniepoint.kv.util.KvStore;
+import com.moniepoint.kv.util.StoreMetrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * {@link StoreMetrics} on Micrometer. Every meter is registered up front, so a
+ * recording is a lookup in a final field or array plus the meter's own
+ * lock-free update: nothing is allocated per operation.
+ */
+public class MicrometerStoreMetrics implements StoreMetrics {
+
+	private final MeterRegistry registry;
+	private final Timer[] ops = new Timer[Op.values().length];
+	private final Timer append;
+	private final Counter appendBytes;
+	private final Timer fsync;
+	private final Timer readChannel;
+	private final Timer readMapped;
+	private final Timer recovery;
+	private final Counter cacheHits;
+	private final Counter cacheMisses;
+	private final Counter cacheEvictions;
+	private final Counter checksumFailures;
+	private final Counter expired;
+	private final Timer compress;
+	private final Counter compressRawBytes;
+	private final Counter compressStoredBytes;
+	private final Timer decompress;
+
+	public MicrometerStoreMetrics(MeterRegistry registry) {
+		this.registry = registry;
+		for (Op op : Op.values()) {
+			ops[op.ordinal()] = Timer.builder("kv.store.op").description("Store operation latency, end to end")
+					.tag("op", op.name().toLowerCase(Locale.ROOT)).publishPercentileHistogram().register(registry);
+		}
+		this.append = Timer.builder("kv.segment.append").description("Segment append (one record or a packed batch)")
+				.publishPercentileHistogram().register(registry);
+		this.appendBytes = Counter.builder("kv.segment.append.bytes").baseUnit("bytes")
+				.description("Bytes appended to segments").register(registry);
+		this.fsync = Timer.builder("kv.segment.fsync").description("Segment fsync").publishPercentileHistogram()
+				.register(registry);
+		this.readChannel = Timer.builder("kv.segment.read").description("Value read from a segment")
+				.tag("mmap", "false").publishPercentileHistogram().register(registry);
+		this.readMapped = Timer.builder("kv.segment.read").description("Value read from a segment")
+				.tag("mmap", "true").publishPercentileHistogram().register(registry);
+		this.recovery = Timer.builder("kv.recovery").description("Index rebuild at startup").register(registry);
+		this.cacheHits = Counter.builder("kv.cache.requests").description("Point reads that consulted the value cache")
+				.tag("result", "hit").register(registry);
+		this.cacheMisses = Counter.builder("kv.cache.requests")
+				.description("Point reads that consulted the value cache").tag("result", "miss").register(registry);
+		this.cacheEvictions = Counter.builder("kv.cache.evictions").description("Values evicted from the value cache")
+				.register(registry);
+		this.checksumFailures = Counter.builder("kv.read.checksum.failures")
+				.description("Value reads rejected because the record checksum did not match").register(registry);
+		this.expired = Counter.builder("kv.expired.keys").description("Keys dropped by the expiry sweep")
+				.register(registry);
+		this.compress = Timer.builder("kv.compression").description("Value offered to the codec on write")
+				.publishPercentileHistogram().register(registry);
+		this.compressRawBytes = Counter.builder("kv.compression.raw.bytes").baseUnit("bytes")
+				.description("Bytes of values offered to the codec").register(registry);
+		this.compressStoredBytes = Counter.builder("kv.compression.stored.bytes").baseUnit("bytes")
+				.description("Bytes those values were stored as").register(registry);
+		this.decompress = Timer.builder("kv.decompression").description("Compressed value inflated on read")
+				.publishPercentileHistogram().register(registry);
+	}
+
+	@Override
+	public void bind(KvStore store) {
+		Gauge.builder("kv.segments", store, KvStore::segmentCount).description("Segment files")
+				.register(registry);
+		Gauge.builder("kv.bytes.total", store, KvStore::totalBytes).baseUnit("bytes")
+				.description("Bytes on disk across all segments").register(registry);
+		Gauge.builder("kv.bytes.dead", store, KvStore::deadBytes).baseUnit("bytes")
+				.description("Bytes of overwritten/deleted records and tombstones").register(registry);
+		Gauge.builder("kv.index.entries", store, KvStore::indexSize)
+				.description("Index entries, tombstones included").register(registry);
+		Gauge.builder("kv.index.tombstones", store, KvStore::tombstoneCount)
+				.description("Index entries that are tombstones").register(registry);
+		Gauge.builder("kv.cache.bytes", store, KvStore::cacheBytes).baseUnit("bytes")
+				.description("Heap held by the value cache").register(registry);
+	}
+
+	@Override
+	public void recordOp(Op op, long nanos) {
+		ops[op.ordinal()].record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public void recordAppend(long nanos, long bytes) {
+		append.record(nanos, TimeUnit.NANOSECONDS);
+		appendBytes.increment(bytes);
+	}
+
+	@Override
+	public void recordFsync(long nanos) {
+		fsync.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public void recordRead(long nanos, boolean mapped) {
+		(mapped ? readMapped : readChannel).record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public void recordCacheAccess(boolean hit) {
+		(hit ? cacheHits : cacheMisses).increment();
+	}
+
+	@Override
+	public void recordCacheEviction() {
+		cacheEvictions.increment();
+	}
+
+	@Override
+	public void recordChecksumFailure() {
+		checksumFailures.increment();
+	}
+
+	@Override
+	public void recordCompression(int rawBytes, int storedBytes, long nanos) {
+		compress.record(nanos, TimeUnit.NANOSECONDS);
+		compressRawBytes.increment(rawBytes);
+		compressStoredBytes.increment(storedBytes);
+	}
+
+	@Override
+	public void recordDecompression(long nanos) {
+		decompress.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public void recordExpired(int keys) {
+		expired.increment(keys);
+	}
+
+	@Override
+	public void recordRecovery(long nanos) {
+		recovery.record(nanos, TimeUnit.NANOSECONDS);
+	}
+}
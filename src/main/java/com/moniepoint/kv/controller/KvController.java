@@ -1,14 +1,18 @@
 package com.moniepoint.kv.controller;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
 import java.util.Optional;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -17,9 +21,12 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import com.moniepoint.kv.model.KvEntry;
 import com.moniepoint.kv.service.KvService;
+import com.moniepoint.kv.util.CorruptRecordException;
+import com.moniepoint.kv.util.ReplicationFollower;
 import com.moniepoint.kv.util.Utils;
 
 import io.swagger.v3.oas.annotations.Operation;
@@ -54,28 +61,36 @@ public class KvController {
 	@Operation(summary = "Put/overwrite value for key", requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(required = true, content = {
 			@Content(mediaType = MediaType.TEXT_PLAIN_VALUE, schema = @Schema(type = "string")) }), responses = {
 					@ApiResponse(responseCode = "204", description = "Stored"),
-					@ApiResponse(responseCode = "400", description = "Invalid key", content = @Content),
+					@ApiResponse(responseCode = "400", description = "Invalid key, or TTL not in [1, "
+							+ KvService.MAX_TTL_SECONDS + "]", content = @Content),
 					@ApiResponse(responseCode = "413", description = "Value too large", content = @Content) })
 	@PutMapping(value = "/{key}", consumes = MediaType.TEXT_PLAIN_VALUE)
 	public ResponseEntity<Void> put(@Parameter(description = "Key (ASCII; reasonable length)") @PathVariable String key,
-			@io.swagger.v3.oas.annotations.parameters.RequestBody(description = "Raw value bytes (text/plain)") @RequestBody(required = false) byte[] value)
+			@io.swagger.v3.oas.annotations.parameters.RequestBody(description = "Raw value bytes (text/plain)") @RequestBody(required = false) byte[] value,
+			@Parameter(description = "Seconds until the key expires, at most " + KvService.MAX_TTL_SECONDS
+					+ " (omit for no expiry)") @RequestParam(required = false) Long ttlSeconds)
 			throws Exception {
-		log.info("[API] PUT key='{}'", key);
+		log.debug("[API] PUT key='{}' ttlSeconds={}", key, ttlSeconds);
 
 		if (!utils.sanitize(key) || !utils.sanitize(String.valueOf(value))) {
 			log.warn("[API] PUT invalid input (null/empty)");
 			throw new IllegalArgumentException("key/value can not be null/empty");
 		}
+		if (ttlSeconds != null && (ttlSeconds <= 0 || ttlSeconds > KvService.MAX_TTL_SECONDS)) {
+			log.warn("[API] PUT invalid ttlSeconds={}", ttlSeconds);
+			return ResponseEntity.badRequest().build();
+		}
 
-		return kvService.put(key, value);
+		return kvService.put(key, value, ttlSeconds);
 	}
 
 	@Operation(summary = "Read value by key", responses = {
 			@ApiResponse(responseCode = "200", description = "Value as plain text", content = @Content(mediaType = MediaType.TEXT_PLAIN_VALUE, schema = @Schema(type = "string"))),
-			@ApiResponse(responseCode = "404", description = "Not found", content = @Content) })
+			@ApiResponse(responseCode = "404", description = "Not found", content = @Content),
+			@ApiResponse(responseCode = "500", description = "Stored record failed its checksum", content = @Content) })
 	@GetMapping(value = "/{key}", produces = MediaType.TEXT_PLAIN_VALUE)
 	public ResponseEntity<byte[]> read(@PathVariable String key) throws Exception {
-		log.info("[API] READ key='{}'", key);
+		log.debug("[API] READ key='{}'", key);
 
 		if (!utils.sanitize(key)) {
 			log.warn("[API] READ invalid input (null/empty)");
@@ -83,41 +98,77 @@ public class KvController {
 		}
 
 		Optional<byte[]> v = kvService.read(key);
-		log.debug("[API] READ key='{}' -> 200 ({} bytes)", key, v.map(b -> b.length).orElse(0));
+		if (log.isDebugEnabled())
+			log.debug("[API] READ key='{}' -> 200 ({} bytes)", key, v.map(b -> b.length).orElse(0));
 
 		return v.map(ResponseEntity::ok).orElseGet(() -> ResponseEntity.notFound().build());
 
 	}
 
-	@Operation(summary = "Read key/value pairs in (start, end)", description = "Returns lines of 'key=value' (UTF-8). End is exclusive.", responses = @ApiResponse(responseCode = "200", content = @Content(mediaType = MediaType.TEXT_PLAIN_VALUE, schema = @Schema(type = "string"))))
+	@Operation(summary = "Read key/value pairs in [start, end]", description = "Streams lines of 'key=value' (UTF-8). Both ends are inclusive. "
+			+ "With 'limit', at most that many pairs are returned and, if more remain, the "
+			+ KvService.CONTINUATION_HEADER
+			+ " response header carries the token for the next page. Values are never buffered; with "
+			+ "kv.index-type=PACKED and kv.range-index=memory the keys of the range are collected and sorted on "
+			+ "heap first.", responses = {
+					@ApiResponse(responseCode = "200", content = @Content(mediaType = MediaType.TEXT_PLAIN_VALUE, schema = @Schema(type = "string"))),
+					@ApiResponse(responseCode = "400", description = "Limit not positive, or invalid continuation token", content = @Content) })
 	@GetMapping(value = "/range", produces = MediaType.TEXT_PLAIN_VALUE)
-	public ResponseEntity<String> readKeyRange(
+	public ResponseEntity<StreamingResponseBody> readKeyRange(
 			@Parameter(description = "Inclusive start key") @RequestParam String start,
-			@Parameter(description = "Exclusive end key") @RequestParam String end) throws IOException {
-		log.info("[API] READKEYRANGE start='{}' end='{}'", start, end);
+			@Parameter(description = "Inclusive end key") @RequestParam String end,
+			@Parameter(description = "Max pairs in this page") @RequestParam(required = false) Integer limit,
+			@Parameter(description = "Token from the previous page's " + KvService.CONTINUATION_HEADER
+					+ " header") @RequestParam(required = false) String continuationToken)
+			throws IOException {
+		if (log.isDebugEnabled())
+			log.debug("[API] READKEYRANGE start='{}' end='{}' limit={} continued={}", start, end, limit,
+					continuationToken != null);
 
 		if (!utils.sanitize(start) || !utils.sanitize(String.valueOf(end))) {
 			log.warn("[API] READKEYRANGE invalid input (null/empty)");
 			throw new IllegalArgumentException("start/end can not be null/empty");
 		}
+		if (limit != null && limit <= 0) {
+			log.warn("[API] READKEYRANGE invalid limit={}", limit);
+			return ResponseEntity.badRequest().build();
+		}
 
-		StringBuilder sb = kvService.readKeyRange(start, end);
-		log.debug("[API] RANGE start='{}' end='{}' -> 200 ({} pairs)", start, end,
-				sb.toString() == null ? 0 : sb.toString().length());
+		return kvService.readKeyRange(start, end, continuationToken, limit);
+	}
 
-		return ResponseEntity.ok().contentType(MediaType.TEXT_PLAIN).body(sb.toString());
+	@Operation(summary = "Read many keys in one request", description = "Accepts a JSON array of keys (at most "
+			+ KvService.MAX_MULTI_GET_KEYS
+			+ ") and streams back one frame per distinct key: 'int32 keyLen | key (UTF-8) | int32 valueLen | value', "
+			+ "lengths big-endian. Found keys come first, in on-disk order; missing keys follow with valueLen -1.", requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(required = true, content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, examples = @ExampleObject(name = "Sample keys", value = "[\"k1\", \"k2\", \"k3\"]"))), responses = {
+					@ApiResponse(responseCode = "200", content = @Content(mediaType = MediaType.APPLICATION_OCTET_STREAM_VALUE, schema = @Schema(type = "string", format = "binary"))),
+					@ApiResponse(responseCode = "400", description = "Invalid input", content = @Content) })
+	@PostMapping(value = "/multiGet", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+	public ResponseEntity<StreamingResponseBody> multiGet(@RequestBody List<String> keys) {
+		if (log.isDebugEnabled())
+			log.debug("[API] MULTIGET keys={}", keys == null ? 0 : keys.size());
+
+		if (keys == null || keys.isEmpty() || keys.size() > KvService.MAX_MULTI_GET_KEYS
+				|| keys.stream().anyMatch(k -> !utils.sanitize(k))) {
+			log.warn("[API] MULTIGET invalid input (null/empty/too many keys)");
+			return ResponseEntity.badRequest().build();
+		}
 
+		return kvService.multiGet(keys);
 	}
 
-	@Operation(summary = "Batch put values for keys", description = "Accepts a JSON array of {key, value} objects and stores them atomically for this request.", requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(required = true, content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, examples = @ExampleObject(name = "Sample batch", value = "[\n"
+	@Operation(summary = "Batch put values for keys", description = "Accepts a JSON array of {key, value} objects and stores them atomically for this request. "
+			+ "An entry with 'ttlSeconds' (at most " + KvService.MAX_TTL_SECONDS
+			+ ") expires that many seconds after the write.", requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(required = true, content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, examples = @ExampleObject(name = "Sample batch", value = "[\n"
 			+ "  {\"key\":\"k1\",\"value\":\"v1\"},\n" + "  {\"key\":\"k2\",\"value\":\"v2\"},\n"
-			+ "  {\"key\":\"k3\",\"value\":\"v3\"}\n" + "]"))), responses = {
+			+ "  {\"key\":\"session:42\",\"value\":\"v3\",\"ttlSeconds\":1800}\n" + "]"))), responses = {
 					@ApiResponse(responseCode = "204", description = "Stored"),
 					@ApiResponse(responseCode = "400", description = "Invalid input", content = @Content) })
 	@PostMapping(value = "/batchPut", consumes = MediaType.APPLICATION_JSON_VALUE)
 	public ResponseEntity<Void> batchPut(
 			@org.springframework.web.bind.annotation.RequestBody java.util.List<KvEntry> entries) throws Exception {
-		log.info("[API] BATCHPUT entries={}", entries == null ? 0 : entries.size());
+		if (log.isDebugEnabled())
+			log.debug("[API] BATCHPUT entries={}", entries == null ? 0 : entries.size());
 
 		if (entries == null || entries.isEmpty()) {
 			log.warn("[API] BATCHPUT invalid input (null/empty)");
@@ -127,12 +178,45 @@ public class KvController {
 		return kvService.batchPut(entries);
 	}
 
+	@Operation(summary = "Bulk load binary key/value frames", description = "Body is a sequence of frames "
+			+ "'int32 keyLen | key (UTF-8) | int32 valueLen | value', lengths big-endian. Values are arbitrary bytes. "
+			+ "Frames are decoded as they arrive and stored in large chunks, one sync per chunk. The "
+			+ KvService.STORED_COUNT_HEADER
+			+ " response header holds the number of entries stored.", requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(required = true, content = @Content(mediaType = MediaType.APPLICATION_OCTET_STREAM_VALUE, schema = @Schema(type = "string", format = "binary"))), responses = {
+					@ApiResponse(responseCode = "204", description = "Stored"),
+					@ApiResponse(responseCode = "400", description = "Malformed frame; earlier entries are stored", content = @Content) })
+	@PostMapping(value = "/bulk", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+	public ResponseEntity<Void> bulkPut(InputStream body) throws IOException {
+		log.debug("[API] BULK");
+
+		return kvService.bulkPut(body);
+	}
+
+	@Operation(summary = "Replication: read the log from a cursor", description = "Serves followers. The body is a run "
+			+ "of whole raw records starting at the position in the " + ReplicationFollower.FILE_ID_HEADER + " and "
+			+ ReplicationFollower.OFFSET_HEADER + " headers; " + ReplicationFollower.RESET_HEADER
+			+ " true means the cursor was invalidated and the follower must replay the whole log. Pass generation -1 "
+			+ "to start from scratch.", responses = {
+					@ApiResponse(responseCode = "200", content = @Content(mediaType = MediaType.APPLICATION_OCTET_STREAM_VALUE, schema = @Schema(type = "string", format = "binary"))),
+					@ApiResponse(responseCode = "501", description = "Store is sharded (kv.shards > 1) and cannot lead", content = @Content) })
+	@GetMapping(value = "/replication/log", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+	public ResponseEntity<byte[]> readLog(@RequestParam(defaultValue = "-1") long generation,
+			@RequestParam(defaultValue = "0") int fileId, @RequestParam(defaultValue = "0") long offset,
+			@RequestParam(defaultValue = "4194304") int maxBytes) throws IOException {
+		log.debug("[API] REPLICATION generation={} fileId={} offset={}", generation, fileId, offset);
+
+		if (fileId < 0 || offset < 0 || maxBytes <= 0)
+			return ResponseEntity.badRequest().build();
+
+		return kvService.readLog(generation, fileId, offset, maxBytes);
+	}
+
 	@Operation(summary = "Delete a key", responses = {
 			@ApiResponse(responseCode = "204", description = "Deleted (idempotent)"),
 			@ApiResponse(responseCode = "400", description = "Invalid input", content = @Content) })
 	@DeleteMapping("/{key}")
 	public ResponseEntity<Void> delete(@PathVariable String key) throws IOException {
-		log.info("[API] DELETE key='{}'", key);
+		log.debug("[API] DELETE key='{}'", key);
 
 		if (!utils.sanitize(key)) {
 			log.warn("[API] DELETE invalid input (null/empty)");
@@ -142,4 +226,15 @@ public class KvController {
 		return kvService.delete(key);
 
 	}
+
+	/**
+	 * A verified read hit a damaged record: fail the request rather than serve
+	 * the bytes. Streamed responses that are already committed just abort.
+	 */
+	@ExceptionHandler(CorruptRecordException.class)
+	public ResponseEntity<String> corruptRecord(CorruptRecordException e) {
+		log.error("[API] corrupt record: {}", e.getMessage());
+		return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).contentType(MediaType.TEXT_PLAIN)
+				.body("corrupt record in segment " + e.fileId() + " at offset " + e.offset());
+	}
 }
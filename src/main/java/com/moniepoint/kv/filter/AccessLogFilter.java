@@ -0,0 +1,85 @@
+package com.moniepoint.kv.filter;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Sampled access log: one logfmt line per sampled request on the
+ * {@code kv.access} logger, e.g.
+ *
+ * <pre>
+ * method=PUT path=/kv/v1/k1 status=204 ms=0.412 bytesIn=5
+ * </pre>
+ *
+ * Requests that are not sampled only pay for a random draw, no allocation.
+ * Turn it off with {@code app.api.logging.enable=false} or
+ * {@code logging.level.kv.access=OFF}.
+ */
+public class AccessLogFilter extends OncePerRequestFilter {
+
+	private static final Logger access = LoggerFactory.getLogger("kv.access");
+
+	private final double sampleRate;
+
+	public AccessLogFilter(double sampleRate) {
+		this.sampleRate = Math.max(0, Math.min(1, sampleRate));
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+			throws ServletException, IOException {
+		if (sampleRate <= 0 || !access.isInfoEnabled()
+				|| (sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate)) {
+			chain.doFilter(request, response);
+			return;
+		}
+
+		long t0 = System.nanoTime();
+		try {
+			chain.doFilter(request, response);
+		} finally {
+			if (request.isAsyncStarted()) {
+				// streamed responses (range) finish after this thread returns
+				request.getAsyncContext().addListener(new AsyncListener() {
+					@Override
+					public void onComplete(AsyncEvent event) {
+						log(request, response, t0);
+					}
+
+					@Override
+					public void onTimeout(AsyncEvent event) {
+					}
+
+					@Override
+					public void onError(AsyncEvent event) {
+					}
+
+					@Override
+					public void onStartAsync(AsyncEvent event) {
+					}
+				});
+			} else {
+				log(request, response, t0);
+			}
+		}
+	}
+
+	private static void log(HttpServletRequest request, HttpServletResponse response, long t0) {
+		long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - t0);
+		access.info("method={} path={} status={} ms={}.{} bytesIn={}", request.getMethod(), request.getRequestURI(),
+				response.getStatus(), micros / 1000, String.format("%03d", micros % 1000),
+				request.getContentLengthLong());
+	}
+}
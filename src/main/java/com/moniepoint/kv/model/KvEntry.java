@@ -4,6 +4,7 @@ public class KvEntry {
 
 	private String key;
 	private String value;
+	private Long ttlSeconds; // optional
 
 	public KvEntry() {
 		// default constructor needed by Jackson
@@ -29,4 +30,12 @@ public class KvEntry {
 	public void setValue(String value) {
 		this.value = value;
 	}
+
+	public Long getTtlSeconds() {
+		return ttlSeconds;
+	}
+
+	public void setTtlSeconds(Long ttlSeconds) {
+		this.ttlSeconds = ttlSeconds;
+	}
 }
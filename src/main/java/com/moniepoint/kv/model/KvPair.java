@@ -6,10 +6,16 @@ import java.util.Objects;
 public final class KvPair {
 	private final String key;
 	private final byte[] value;
+	private final long expiresAt; // epoch millis, Position.NO_EXPIRY = never
 
 	public KvPair(String key, byte[] value) {
+		this(key, value, Position.NO_EXPIRY);
+	}
+
+	public KvPair(String key, byte[] value, long expiresAt) {
 		this.key = Objects.requireNonNull(key, "key");
 		this.value = Objects.requireNonNull(value, "value");
+		this.expiresAt = expiresAt;
 	}
 
 	public String key() {
@@ -20,6 +26,11 @@ public final class KvPair {
 		return value;
 	}
 
+	/** When a batchPut entry stops being readable; {@link Position#NO_EXPIRY} for no TTL. */
+	public long expiresAt() {
+		return expiresAt;
+	}
+
 	@Override
 	public boolean equals(Object o) {
 		if (this == o)
@@ -27,18 +38,20 @@ public final class KvPair {
 		if (!(o instanceof KvPair))
 			return false;
 		KvPair that = (KvPair) o;
-		return key.equals(that.key) && Arrays.equals(value, that.value);
+		return key.equals(that.key) && Arrays.equals(value, that.value) && expiresAt == that.expiresAt;
 	}
 
 	@Override
 	public int hashCode() {
 		int result = key.hashCode();
 		result = 31 * result + Arrays.hashCode(value);
+		result = 31 * result + Long.hashCode(expiresAt);
 		return result;
 	}
 
 	@Override
 	public String toString() {
-		return "KvPair{key='" + key + "', valueLen=" + value.length + "}";
+		return "KvPair{key='" + key + "', valueLen=" + value.length
+				+ (expiresAt != Position.NO_EXPIRY ? ", expiresAt=" + expiresAt : "") + "}";
 	}
 }
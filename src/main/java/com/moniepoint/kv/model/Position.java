@@ -1,15 +1,56 @@
 package com.moniepoint.kv.model;
 
 public final class Position {
+	/** {@link #expiresAt} of a record without a TTL. */
+	public static final long NO_EXPIRY = 0L;
+
 	public final int fileId;
 	public final long offset;
 	public final int valueLen;
 	public final boolean tombstone;
+	public final long expiresAt; // epoch millis, NO_EXPIRY = never
 
 	public Position(int fileId, long offset, int valueLen, boolean tombstone) {
+		this(fileId, offset, valueLen, tombstone, NO_EXPIRY);
+	}
+
+	public Position(int fileId, long offset, int valueLen, boolean tombstone, long expiresAt) {
 		this.fileId = fileId;
 		this.offset = offset;
 		this.valueLen = valueLen;
 		this.tombstone = tombstone;
+		this.expiresAt = expiresAt;
+	}
+
+	/** true if the record has a TTL that ran out by {@code nowMillis}. */
+	public boolean expiredAt(long nowMillis) {
+		return expiresAt != NO_EXPIRY && expiresAt <= nowMillis;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o)
+			return true;
+		if (!(o instanceof Position))
+			return false;
+		Position that = (Position) o;
+		return fileId == that.fileId && offset == that.offset && valueLen == that.valueLen
+				&& tombstone == that.tombstone && expiresAt == that.expiresAt;
+	}
+
+	@Override
+	public int hashCode() {
+		int result = fileId;
+		result = 31 * result + Long.hashCode(offset);
+		result = 31 * result + valueLen;
+		result = 31 * result + (tombstone ? 1 : 0);
+		result = 31 * result + Long.hashCode(expiresAt);
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return "Position{fileId=" + fileId + ", offset=" + offset + ", valueLen=" + valueLen + ", tombstone="
+				+ tombstone + (expiresAt != NO_EXPIRY ? ", expiresAt=" + expiresAt : "") + "}";
 	}
 }
@@ -1,23 +1,48 @@
 package com.moniepoint.kv.service;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 import java.util.Optional;
 
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import com.moniepoint.kv.model.KvEntry;
 
 public interface KvService {
 
-	ResponseEntity<Void> put(String key, byte[] value) throws IOException;
+	/** Response header carrying the token for the next page of a limited range. */
+	String CONTINUATION_HEADER = "X-Continuation-Token";
+
+	/** Response header of a bulk load: entries stored, also when the body turned out malformed. */
+	String STORED_COUNT_HEADER = "X-Stored-Count";
+
+	/** Upper bound of keys in one multiGet request. */
+	int MAX_MULTI_GET_KEYS = 10_000;
+
+	/** Upper bound of a TTL (100 years), so the absolute expiry cannot overflow. */
+	long MAX_TTL_SECONDS = 100L * 365 * 24 * 3600;
+
+	/** Upper bound of one replication chunk. */
+	int MAX_REPLICATION_CHUNK_BYTES = 16 * 1024 * 1024;
+
+	/** @param ttlSeconds seconds until the key expires, null for no expiry */
+	ResponseEntity<Void> put(String key, byte[] value, Long ttlSeconds) throws IOException;
 
 	Optional<byte[]> read(String key) throws IOException;
 
-	StringBuilder readKeyRange(String start, String end) throws IOException;
+	ResponseEntity<StreamingResponseBody> readKeyRange(String start, String end, String continuationToken,
+			Integer limit) throws IOException;
+
+	ResponseEntity<StreamingResponseBody> multiGet(List<String> keys);
 
 	ResponseEntity<Void> batchPut(List<KvEntry> oentries) throws IOException;
 
+	ResponseEntity<Void> bulkPut(InputStream body) throws IOException;
+
 	ResponseEntity<Void> delete(String key) throws IOException;
 
+	ResponseEntity<byte[]> readLog(long generation, int fileId, long offset, int maxBytes) throws IOException;
+
 }
@@ -1,33 +1,69 @@
 package com.moniepoint.kv.service.impl;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import com.moniepoint.kv.model.KvEntry;
 import com.moniepoint.kv.model.KvPair;
+import com.moniepoint.kv.model.Position;
 import com.moniepoint.kv.service.KvService;
 import com.moniepoint.kv.util.BitcaskStore;
+import com.moniepoint.kv.util.KvStore;
+import com.moniepoint.kv.util.LogChunk;
+import com.moniepoint.kv.util.ReplicationFollower;
+import com.moniepoint.kv.util.Utils;
 
 @Service
 public class KvServiceImpl implements KvService {
 
 	private static final Logger log = LoggerFactory.getLogger(KvServiceImpl.class);
 
+	/** Decoded bulk frames are handed to the store once they add up to this much. */
+	static final int BULK_CHUNK_BYTES = 8 * 1024 * 1024;
+	static final int MAX_BULK_KEY_BYTES = 64 * 1024;
+	static final int MAX_BULK_VALUE_BYTES = 64 * 1024 * 1024;
+
+	@Autowired
+	private KvStore store;
+
 	@Autowired
-	private BitcaskStore store;
+	private Utils utils;
+
+	// leader URL when this node is a read-only follower
+	@Value("${kv.replica-of:}")
+	private String replicaOf;
 
 	@Override
-	public ResponseEntity<Void> put(String key, byte[] value) throws IOException {
-		store.put(key, value == null ? new byte[0] : value);
+	public ResponseEntity<Void> put(String key, byte[] value, Long ttlSeconds) throws IOException {
+		if (isFollower())
+			return readOnly();
+		store.put(key, value == null ? new byte[0] : value, expiresAt(ttlSeconds));
 
 		log.debug("[API] PUT key='{}' -> 204", key);
 		return ResponseEntity.noContent().build();
@@ -39,26 +75,124 @@ public class KvServiceImpl implements KvService {
 		return v;
 	}
 
+	/**
+	 * Streams {@code key=value} lines of {@code [start, end]} straight from the
+	 * store into the response; values are never buffered. Keys are walked in
+	 * order, except that a PACKED index without kv.range-index=disk has no
+	 * ordered structure and collects and sorts the range's keys per call (see
+	 * PackedKeyIndex). With a {@code limit}, the page end is found first (keys
+	 * only) so the continuation token can go out as a header before the body
+	 * starts.
+	 */
 	@Override
-	public StringBuilder readKeyRange(String start, String end) throws IOException {
-		List<KvPair> pairs = store.getRange(start, end);
-		StringBuilder sb = new StringBuilder();
-		for (KvPair p : pairs) {
-			sb.append(p.key()).append("=").append(new String(p.value(), StandardCharsets.UTF_8)).append("\n");
+	public ResponseEntity<StreamingResponseBody> readKeyRange(String start, String end, String continuationToken,
+			Integer limit) throws IOException {
+		String lo = start.compareTo(end) <= 0 ? start : end;
+		String hi = start.compareTo(end) <= 0 ? end : start;
+		if (continuationToken != null && !continuationToken.isEmpty()) {
+			String last = decodeToken(continuationToken);
+			if (last == null) {
+				log.warn("[API] RANGE invalid continuationToken");
+				return ResponseEntity.badRequest().build();
+			}
+			String after = last + '\0'; // smallest key greater than the token
+			if (after.compareTo(lo) > 0)
+				lo = after;
+		}
+		if (lo.compareTo(hi) > 0) {
+			return ResponseEntity.ok().contentType(MediaType.TEXT_PLAIN).body(out -> {
+			});
+		}
+
+		if (limit != null && limit <= 0)
+			return ResponseEntity.badRequest().build(); // in case validation is off
+
+		ResponseEntity.BodyBuilder rsp = ResponseEntity.ok().contentType(MediaType.TEXT_PLAIN);
+		if (limit != null) {
+			String pageEnd = store.rangePageEnd(lo, hi, limit);
+			if (pageEnd != null) {
+				hi = pageEnd;
+				rsp.header(CONTINUATION_HEADER, encodeToken(pageEnd));
+			}
+		}
+
+		String from = lo, to = hi;
+		return rsp.body(out -> {
+			long n = store.scanRange(from, to, (k, v) -> {
+				out.write(k.getBytes(StandardCharsets.UTF_8));
+				out.write('=');
+				out.write(v);
+				out.write('\n');
+				return true;
+			});
+			log.debug("[API] RANGE start='{}' end='{}' -> {} pairs streamed", from, to, n);
+		});
+	}
+
+	/**
+	 * Streams one frame per requested key, in the bulk-load format. Found keys
+	 * come first, in the order the store read them (on-disk order); missing keys
+	 * follow with a value length of -1.
+	 */
+	@Override
+	public ResponseEntity<StreamingResponseBody> multiGet(List<String> keys) {
+		return ResponseEntity.ok().contentType(MediaType.APPLICATION_OCTET_STREAM).body(out -> {
+			DataOutputStream frames = new DataOutputStream(out);
+			Set<String> found = new HashSet<>();
+			long n = store.multiGet(keys, (k, v) -> {
+				writeFrame(frames, k, v);
+				found.add(k);
+				return true;
+			});
+			for (String k : new LinkedHashSet<>(keys)) {
+				if (!found.contains(k))
+					writeFrame(frames, k, null);
+			}
+			frames.flush();
+			log.debug("[API] MULTIGET keys={} -> {} found", keys.size(), n);
+		});
+	}
+
+	private static void writeFrame(DataOutputStream out, String key, byte[] value) throws IOException {
+		byte[] k = key.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(k.length);
+		out.write(k);
+		if (value == null) {
+			out.writeInt(-1);
+		} else {
+			out.writeInt(value.length);
+			out.write(value);
+		}
+	}
+
+	/** Opaque to clients: the last key of the previous page, URL-safe. */
+	private static String encodeToken(String lastKey) {
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(lastKey.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/** @return the key the token stands for, or null if it is not one of ours */
+	private static String decodeToken(String token) {
+		try {
+			return new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+		} catch (IllegalArgumentException e) {
+			return null;
 		}
-		return sb;
 	}
 
 	@Override
 	public ResponseEntity<Void> batchPut(List<KvEntry> entries) throws IOException {
+		if (isFollower())
+			return readOnly();
 
 		List<KvPair> items = new ArrayList<>(entries.size());
 		for (KvEntry e : entries) {
 			// Additional defensive checks (in case validation is off)
-			if (e == null || e.getKey() == null || e.getKey().isBlank() || e.getValue() == null) {
+			if (e == null || e.getKey() == null || e.getKey().isBlank() || e.getValue() == null
+					|| (e.getTtlSeconds() != null && (e.getTtlSeconds() <= 0 || e.getTtlSeconds() > MAX_TTL_SECONDS))) {
 				return ResponseEntity.badRequest().build();
 			}
-			items.add(new KvPair(e.getKey(), e.getValue().getBytes(StandardCharsets.UTF_8)));
+			items.add(new KvPair(e.getKey(), e.getValue().getBytes(StandardCharsets.UTF_8),
+					expiresAt(e.getTtlSeconds())));
 		}
 
 		store.batchPut(items);
@@ -67,12 +201,123 @@ public class KvServiceImpl implements KvService {
 		return ResponseEntity.noContent().build();
 	}
 
+	/**
+	 * Binary bulk load. The body is a sequence of frames, each
+	 * {@code int32 keyLen | key (UTF-8) | int32 valueLen | value}, with big-endian
+	 * lengths. Frames are decoded as they arrive and handed to the store in
+	 * chunks of about {@link #BULK_CHUNK_BYTES}. Each chunk is one append pass and
+	 * one sync, so memory stays bounded and ingest runs at disk bandwidth. A
+	 * malformed frame, or a key a single PUT would reject, ends the load with
+	 * 400. Frames before it stay stored, and
+	 * {@link KvService#STORED_COUNT_HEADER} says how many entries made it.
+	 */
+	@Override
+	public ResponseEntity<Void> bulkPut(InputStream body) throws IOException {
+		if (isFollower())
+			return readOnly();
+		DataInputStream in = new DataInputStream(new BufferedInputStream(body, 64 * 1024));
+		CharsetDecoder utf8 = StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPORT)
+				.onUnmappableCharacter(CodingErrorAction.REPORT);
+		List<KvPair> chunk = new ArrayList<>();
+		long chunkBytes = 0;
+		long stored = 0;
+		try {
+			for (;;) {
+				int keyLen;
+				try {
+					keyLen = in.readInt();
+				} catch (EOFException eof) {
+					break; // clean end between frames
+				}
+				if (keyLen < 0 || keyLen > MAX_BULK_KEY_BYTES)
+					throw new IllegalArgumentException("bad key length " + keyLen);
+				byte[] k = in.readNBytes(keyLen);
+				if (k.length < keyLen)
+					throw new EOFException();
+				String key = utf8.decode(ByteBuffer.wrap(k)).toString();
+				if (!utils.sanitize(key))
+					throw new IllegalArgumentException("invalid key (null/empty)");
+				int valLen = in.readInt();
+				if (valLen < 0 || valLen > MAX_BULK_VALUE_BYTES)
+					throw new IllegalArgumentException("bad value length " + valLen + " for key '" + key + "'");
+				byte[] v = in.readNBytes(valLen);
+				if (v.length < valLen)
+					throw new EOFException();
+
+				chunk.add(new KvPair(key, v));
+				chunkBytes += keyLen + valLen;
+				if (chunkBytes >= BULK_CHUNK_BYTES) {
+					store.batchPut(chunk);
+					stored += chunk.size();
+					chunk = new ArrayList<>();
+					chunkBytes = 0;
+				}
+			}
+		} catch (EOFException | CharacterCodingException | IllegalArgumentException e) {
+			log.warn("[API] BULK malformed frame after {} entries: {}", stored + chunk.size(),
+					e instanceof EOFException ? "truncated frame" : e.getMessage());
+			// the frames decoded so far are intact; keep them so the count is exact
+			store.batchPut(chunk);
+			stored += chunk.size();
+			return ResponseEntity.badRequest().header(STORED_COUNT_HEADER, Long.toString(stored)).build();
+		}
+		store.batchPut(chunk);
+		stored += chunk.size();
+
+		log.debug("[API] BULK stored {} entries -> 204", stored);
+		return ResponseEntity.noContent().header(STORED_COUNT_HEADER, Long.toString(stored)).build();
+	}
+
 	@Override
 	public ResponseEntity<Void> delete(String key) throws IOException {
+		if (isFollower())
+			return readOnly();
 		store.delete(key);
 
 		log.debug("[API] DELETE key='{}' -> 204", key);
 		return ResponseEntity.noContent().build();
 	}
 
+	/**
+	 * One chunk of this node's log for a follower: raw records as the body, the
+	 * chunk's position and the remaining lag in headers. A sharded store has no
+	 * single log to ship and answers 501.
+	 */
+	@Override
+	public ResponseEntity<byte[]> readLog(long generation, int fileId, long offset, int maxBytes)
+			throws IOException {
+		if (!(store instanceof BitcaskStore leader)) {
+			log.warn("[API] REPLICATION refused: a sharded store cannot be a leader");
+			return ResponseEntity.status(HttpStatus.NOT_IMPLEMENTED).build();
+		}
+		LogChunk c = leader.readLog(generation, fileId, offset, Math.min(maxBytes, MAX_REPLICATION_CHUNK_BYTES));
+		log.debug("[API] REPLICATION {}", c);
+		return ResponseEntity.ok().contentType(MediaType.APPLICATION_OCTET_STREAM)
+				.header(ReplicationFollower.GENERATION_HEADER, Long.toString(c.generation))
+				.header(ReplicationFollower.FILE_ID_HEADER, Integer.toString(c.fileId))
+				.header(ReplicationFollower.OFFSET_HEADER, Long.toString(c.offset))
+				.header(ReplicationFollower.RESET_HEADER, Boolean.toString(c.reset))
+				.header(ReplicationFollower.LAG_BYTES_HEADER, Long.toString(c.lagBytes)).body(c.bytes);
+	}
+
+	/**
+	 * Absolute expiry for a TTL in seconds; the store keeps epoch millis so
+	 * followers expire keys in step. Callers cap the TTL at MAX_TTL_SECONDS, so
+	 * the sum stays far from overflowing.
+	 */
+	private static long expiresAt(Long ttlSeconds) {
+		if (ttlSeconds == null)
+			return Position.NO_EXPIRY;
+		return System.currentTimeMillis() + ttlSeconds * 1000L;
+	}
+
+	private boolean isFollower() {
+		return replicaOf != null && !replicaOf.isBlank();
+	}
+
+	private static ResponseEntity<Void> readOnly() {
+		log.debug("[API] write refused: read-only follower -> 403");
+		return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+	}
+
 }
@@ -2,10 +2,14 @@ package com.moniepoint.kv.util;
 
 import static java.nio.ByteOrder.LITTLE_ENDIAN;
 import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
 import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
 import static java.nio.file.StandardOpenOption.WRITE;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
@@ -13,64 +17,158 @@ import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.TreeMap;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentNavigableMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
-import com.moniepoint.kv.model.Crc32s;
 import com.moniepoint.kv.model.KvPair;
 import com.moniepoint.kv.model.Position;
 
 /**
- * Bitcask-like KV store with a per-record CRC32 (key||value). Record layout
- * (little-endian): int keyLen int valLen byte flags (bit 0 = tombstone) int
- * crc32 (over key||value) byte[keyLen] key (UTF-8) byte[valLen] value
+ * Bitcask-like KV store with a per-record checksum. Record layout
+ * (little-endian): int keyLen int valLen byte flags (bit 0 = tombstone, bit 1
+ * = CRC32C, bit 2 = expires, bit 3 = compressed) int crc (CRC32C over
+ * everything after the header; CRC32 if bit 1 is clear) [long expiresAt, epoch
+ * millis, if bit 2 is set] byte[keyLen] key (UTF-8) byte[valLen] value (in
+ * {@link ValueCodec}'s format if bit 3 is set; valLen is the stored length)
  */
 @Component
-public final class BitcaskStore implements AutoCloseable {
+public final class BitcaskStore implements KvStore {
 
 	private static final Logger log = LoggerFactory.getLogger(BitcaskStore.class);
 
 	// --- Sync mode ---
 	public enum SyncMode {
-		ALWAYS, EVERY_N // (batch)
+		ALWAYS, EVERY_N, // (batch)
+		GROUP, // group commit: one fsync per group of concurrent writers
+		INTERVAL // background fsync every syncIntervalMs
+	}
+
+	// --- Index implementation ---
+	public enum IndexType {
+		HASH, // ConcurrentHashMap of Position objects + sorted key set
+		PACKED // primitive-array hash table, keys as UTF-8; ranges scan the table
+	}
+
+	// --- Checksum verification of value reads ---
+	public enum ReadVerify {
+		OFF, // trust the disk; only recovery and compaction verify
+		SAMPLED, // verify a readVerifySampleRate fraction of reads
+		ALWAYS
+	}
+
+	// --- Value compression ---
+	public enum Compression {
+		NONE, // values stored as written
+		DEFLATE // JDK Deflater at BEST_SPEED, for values of at least compressMinBytes
+	}
+
+	// --- Where ranges find their keys ---
+	public enum RangeIndex {
+		MEMORY, // the index's sorted key set (HASH) or a scan of the table (PACKED)
+		DISK // a sorted key file per sealed segment, merged with the recent keys on heap
 	}
 
 	// --- Constants ---
 	private static final byte FLAG_TOMBSTONE = 0x1;
-	private static final int HEADER_SIZE = 13; // 4 + 4 + 1 + 4
+	private static final int HEADER_SIZE = SegmentFile.HEADER_SIZE; // 4 + 4 + 1 + 4
+	private static final String COMPACT_SUFFIX = ".compact";
+	// multiGet: read across holes up to this size rather than issue another read
+	private static final int COALESCE_GAP_BYTES = 16 * 1024;
+	private static final int COALESCE_MAX_BYTES = 1024 * 1024;
+	private static final int SCAN_BUF_SIZE = 1024 * 1024;
+	// kv.range-index=disk: keys whose values one range step reads like a multiGet
+	private static final int RANGE_BATCH_KEYS = 256;
+	// expired keys dropped per writer task, so a mass expiry does not stall writes
+	private static final int EXPIRY_SWEEP_BATCH = 4096;
+	private static final long AWAIT_LAYOUT_PARK_NANOS = 50_000;
 
 	// --- State ---
 	private final Path dataDir;
 	private final SyncMode syncMode;
 	private final int batchSyncEvery;
 	private final long syncIntervalMs;
-	private final long compactThresholdBytes; // (reserved; not used yet)
+	private final long compactThresholdBytes; // 0 = compaction disabled
+	private final long compactRateBytesPerSec;
+	private final long compactIntervalMs;
+	private final long maxSegmentBytes;
+	private final boolean mmapSealedSegments;
+	private final int recoveryThreads;
+	private final ReadVerify readVerify;
+	private final double readVerifySampleRate;
+	private final long expirySweepIntervalMs;
+
+	// Appends, rotation, index updates and the compaction swap all run on the
+	// writer thread (see SingleWriter), so the write side needs no lock. Readers
+	// never lock either: they pin segments by reference count and validate
+	// against layoutSeq (see readCurrent).
+	// seqlock over the fileId -> segment layout: odd while a compaction swap is in progress
+	private volatile long layoutSeq;
+	// replication: generations are layoutSeq on top of a per-process epoch, so a
+	// cursor from before a restart never matches; segments up to compactedThrough
+	// may have been rewritten since (at startup: all but the active one)
+	private final long logEpoch = ThreadLocalRandom.current().nextLong(1L << 30) << 32;
+	private volatile int compactedThrough;
+	// fileId -> segment; concurrent so a rotation can publish the next segment while readers look up theirs
+	private final ConcurrentNavigableMap<Integer, SegmentFile> segments = new ConcurrentSkipListMap<>();
+	private volatile SegmentFile active; // volatile: read by the interval flusher without the lock
 
-	private final ReentrantReadWriteLock rw = new ReentrantReadWriteLock();
-	private final TreeMap<Integer, SegmentFile> segments = new TreeMap<>(); // fileId -> segment
-	private SegmentFile active;
+	// key -> latest record; also serves ranges unless sortedKeys does
+	private final KeyIndex index;
+	private final SortedKeys sortedKeys; // null unless kv.range-index=disk
+	// entries of the index that are tombstones; written by the writer thread only
+	private volatile long tombstones;
+	private final StoreMetrics metrics;
+	private final FileMover fileMover; // moves merge outputs into place
+	private final ValueCache cache; // null = no value cache
+	private final ValueCodec codec;
 
-	// fast point lookup
-	private final Map<String, Position> index = new ConcurrentHashMap<>();
-	// sorted key set for ranges
-	private final ConcurrentSkipListMap<String, Boolean> keySet = new ConcurrentSkipListMap<>();
+	// keys with a TTL by expiry time, for the sweep; writer thread only (recovery
+	// fills it before the writer starts). Entries of keys rewritten since are
+	// skipped when they come due.
+	private final PriorityQueue<Expiry> expiries = new PriorityQueue<>();
+	private volatile long nextExpiry = Long.MAX_VALUE; // head of expiries, for a lock-free "anything due?"
 
-	// counters for sync strategies
+	// counters for sync strategies; writer thread only
 	private long writesSinceLastSync = 0;
 	private ScheduledThreadPoolExecutor intervalFlusher;
+	// the single writer thread and its queue (null only for the no-arg bean)
+	private SingleWriter writer;
+	// background jobs: hint files for sealed segments, compaction (if compactThresholdBytes > 0)
+	private final ScheduledThreadPoolExecutor maintenance;
+	private final ReentrantLock compactionLock = new ReentrantLock();
+	private volatile boolean closing;
 
 	// --- Constructors ---
 
@@ -80,6 +178,21 @@ public final class BitcaskStore implements AutoCloseable {
 		this.batchSyncEvery = 100;
 		this.syncIntervalMs = 50L;
 		this.compactThresholdBytes = 0L;
+		this.compactRateBytesPerSec = 0L;
+		this.compactIntervalMs = 0L;
+		this.maxSegmentBytes = StoreOptions.DEFAULT_MAX_SEGMENT_BYTES;
+		this.mmapSealedSegments = false;
+		this.recoveryThreads = 1;
+		this.readVerify = ReadVerify.OFF;
+		this.readVerifySampleRate = 0;
+		this.expirySweepIntervalMs = 0;
+		this.index = KeyIndex.create(IndexType.HASH, true);
+		this.sortedKeys = null;
+		this.metrics = StoreMetrics.NOOP;
+		this.fileMover = FileMover.ATOMIC;
+		this.cache = null;
+		this.codec = new ValueCodec(Compression.NONE, 0, metrics);
+		this.maintenance = null;
 	}
 
 	public BitcaskStore(Path dataDir) throws IOException {
@@ -88,186 +201,1294 @@ public final class BitcaskStore implements AutoCloseable {
 
 	public BitcaskStore(Path dataDir, SyncMode syncMode, int batchSyncEvery, long syncIntervalMs,
 			long compactThresholdBytes) throws IOException {
+		this(dataDir, new StoreOptions().syncMode(syncMode).batchSyncEvery(batchSyncEvery)
+				.syncIntervalMs(syncIntervalMs).compactThresholdBytes(compactThresholdBytes));
+	}
+
+	public BitcaskStore(Path dataDir, StoreOptions opts) throws IOException {
+		Objects.requireNonNull(opts, "opts");
 		this.dataDir = Objects.requireNonNull(dataDir, "dataDir");
-		this.syncMode = Objects.requireNonNull(syncMode, "syncMode");
-		this.batchSyncEvery = batchSyncEvery <= 0 ? 100 : batchSyncEvery;
-		this.syncIntervalMs = syncIntervalMs < 0 ? 0 : syncIntervalMs;
-		this.compactThresholdBytes = Math.max(0, compactThresholdBytes);
+		this.syncMode = opts.syncMode();
+		this.batchSyncEvery = opts.batchSyncEvery();
+		this.syncIntervalMs = opts.syncIntervalMs();
+		this.compactThresholdBytes = opts.compactThresholdBytes();
+		this.compactRateBytesPerSec = opts.compactRateBytesPerSec();
+		this.compactIntervalMs = opts.compactIntervalMs();
+		this.maxSegmentBytes = opts.maxSegmentBytes();
+		this.mmapSealedSegments = opts.mmapSealedSegments();
+		this.recoveryThreads = opts.recoveryThreads();
+		this.readVerify = opts.readVerify();
+		this.readVerifySampleRate = opts.readVerifySampleRate();
+		this.expirySweepIntervalMs = opts.expirySweepIntervalMs();
+		this.sortedKeys = opts.rangeIndex() == RangeIndex.DISK ? new SortedKeys() : null;
+		this.index = KeyIndex.create(opts.indexType(), sortedKeys == null);
+		this.metrics = opts.metrics();
+		this.fileMover = opts.fileMover();
+		this.cache = opts.valueCacheBytes() > 0 ? new ValueCache(opts.valueCacheBytes(), metrics) : null;
+		this.codec = new ValueCodec(opts.compression(), opts.compressMinBytes(), metrics);
 
-		log.info("[STORE] init dataDir={} syncMode={} batchSyncEvery={} syncIntervalMs={} compactThresholdBytes={}",
-				dataDir.toAbsolutePath(), syncMode, this.batchSyncEvery, this.syncIntervalMs,
-				this.compactThresholdBytes);
+		log.info("[STORE] init dataDir={} {}", dataDir.toAbsolutePath(), opts);
 
+		this.maintenance = new ScheduledThreadPoolExecutor(1, r -> {
+			Thread t = new Thread(r, "kv-maintenance");
+			t.setDaemon(true);
+			t.setPriority(Thread.MIN_PRIORITY);
+			return t;
+		});
+		long t0 = System.nanoTime();
 		initOrRecover(this.dataDir);
+		metrics.recordRecovery(System.nanoTime() - t0);
 
 		if (this.syncMode == SyncMode.EVERY_N) {
 			log.debug("[STORE] using EVERY_N mode (n={})", this.batchSyncEvery);
 		}
-
+		if (this.syncMode == SyncMode.INTERVAL) {
+			startIntervalFlusher();
+		}
+		// ALWAYS keeps its fsync per write; every other mode lets concurrent writes share a group
+		int maxGroup = this.syncMode == SyncMode.ALWAYS ? 1 : SingleWriter.MAX_GROUP_REQUESTS;
+		this.writer = new SingleWriter("kv-writer", maxGroup, this::commitGroup);
+		log.debug("[STORE] single writer started (maxGroupRequests={})", maxGroup);
+		if (this.compactThresholdBytes > 0) {
+			startCompactor();
+		}
+		if (this.expirySweepIntervalMs > 0) {
+			maintenance.scheduleWithFixedDelay(this::sweepExpired, expirySweepIntervalMs, expirySweepIntervalMs,
+					TimeUnit.MILLISECONDS);
+		}
+		metrics.bind(this);
 	}
 
 	// --- Public API ---
 
+	@Override
 	public void put(String key, byte[] value) throws IOException {
+		put(key, value, Position.NO_EXPIRY);
+	}
+
+	@Override
+	public void put(String key, byte[] value, long expiresAt) throws IOException {
 		Objects.requireNonNull(key, "key");
 		Objects.requireNonNull(value, "value");
-		log.info("[STORE.put] key='{}' bytes={}", key, value.length);
+		if (log.isDebugEnabled())
+			log.debug("[STORE.put] key='{}' bytes={} expiresAt={}", key, value.length, expiresAt);
 
 		byte[] k = key.getBytes(StandardCharsets.UTF_8);
+		long t0 = System.nanoTime();
 
-		rw.writeLock().lock();
 		try {
-			long off = active.append(k, value, false);
-			index.put(key, new Position(active.fileId(), off, value.length, false));
-			keySet.put(key, Boolean.TRUE);
-			if (log.isDebugEnabled())
-				log.debug("[INDEX] upsert key='{}' -> {}:{}", key, active.fileId(), off);
-
-			postWriteSync();
+			writer.submit(List.of(putMutation(key, k, value, expiresAt)));
 		} catch (IOException ioe) {
 			log.error("[STORE.put] failed key='{}'", key, ioe);
 			throw ioe;
 		} finally {
-			rw.writeLock().unlock();
+			metrics.recordOp(StoreMetrics.Op.PUT, System.nanoTime() - t0);
 		}
 	}
 
+	/**
+	 * The record of a put. Compression runs here, on the caller's thread, so the
+	 * writer thread only ever copies bytes.
+	 */
+	private Mutation putMutation(String key, byte[] keyBytes, byte[] value, long expiresAt) {
+		byte[] stored = codec.encode(value);
+		if (stored == null)
+			return new Mutation(key, keyBytes, value, false, expiresAt);
+		return new Mutation(key, keyBytes, stored, false, expiresAt, true);
+	}
+
+	@Override
 	public Optional<byte[]> get(String key) throws IOException {
 		Objects.requireNonNull(key, "key");
-		log.info("[STORE.get] key='{}'", key);
+		log.trace("[STORE.get] key='{}'", key);
 
-		rw.readLock().lock();
+		long t0 = System.nanoTime();
 		try {
-			Position p = index.get(key);
-			if (p == null || p.tombstone) {
-				log.debug("[STORE.get] miss key='{}'", key);
-				return Optional.empty();
-			}
-			SegmentFile sf = segments.get(p.fileId);
-			if (sf == null) {
-				log.warn("[STORE.get] segment missing: fileId={} for key='{}'", p.fileId, key);
-				return Optional.empty();
-			}
-			byte[] val = sf.readValueAt(p.offset);
-
-			log.debug("[STORE.get] hit key='{}' size={}B", key, val == null ? -1 : val.length);
+			byte[] val = readCurrent(key, cache != null);
+			if (log.isDebugEnabled())
+				log.debug("[STORE.get] {} key='{}' size={}B", val == null ? "miss" : "hit", key,
+						val == null ? -1 : val.length);
 			return Optional.ofNullable(val);
 		} catch (IOException ioe) {
 			log.error("[STORE.get] failed key='{}'", key, ioe);
 			throw ioe;
 		} finally {
-			rw.readLock().unlock();
+			metrics.recordOp(StoreMetrics.Op.GET, System.nanoTime() - t0);
+		}
+	}
+
+	/**
+	 * Resolve every key against one layout, then read in (fileId, offset) order.
+	 * Records of the same segment that lie within {@link #COALESCE_GAP_BYTES} of
+	 * each other are fetched with a single read of up to
+	 * {@link #COALESCE_MAX_BYTES}, and their values are cut out of it. The
+	 * segments involved are pinned for the whole call, like a point read pins
+	 * one.
+	 */
+	@Override
+	public long multiGet(Collection<String> keys, RangeVisitor visitor) throws IOException {
+		Objects.requireNonNull(keys, "keys");
+		Objects.requireNonNull(visitor, "visitor");
+		log.debug("[STORE.multiGet] keys={}", keys.size());
+
+		long t0 = System.nanoTime();
+		try {
+			return readMany(keys, visitor);
+		} finally {
+			metrics.recordOp(StoreMetrics.Op.MULTI_GET, System.nanoTime() - t0);
+		}
+	}
+
+	private long readMany(Collection<String> keys, RangeVisitor visitor) throws IOException {
+		for (;;) {
+			long seq = layoutSeq;
+			if ((seq & 1) != 0) {
+				awaitLayout(seq);
+				continue;
+			}
+			List<Located> hits = new ArrayList<>(keys.size());
+			Set<String> seen = new HashSet<>();
+			for (String k : keys) {
+				Position p = index.get(k);
+				if (p != null && !p.tombstone && !expired(p) && seen.add(k))
+					hits.add(new Located(k, p));
+			}
+			hits.sort(Located.DISK_ORDER);
+
+			List<SegmentFile> pinned = new ArrayList<>();
+			try {
+				SegmentFile sf = null;
+				for (Located l : hits) {
+					if (sf == null || sf.fileId() != l.pos.fileId) {
+						sf = segments.get(l.pos.fileId);
+						if (sf != null && sf.tryAcquire())
+							pinned.add(sf);
+						else
+							sf = null;
+					}
+					l.segment = sf;
+				}
+				if (layoutSeq != seq)
+					continue; // a swap ran while we resolved; the finally unpins
+				return readCoalesced(hits, visitor);
+			} finally {
+				for (SegmentFile p : pinned)
+					p.release();
+			}
+		}
+	}
+
+	private long readCoalesced(List<Located> hits, RangeVisitor visitor) throws IOException {
+		long n = 0;
+		int i = 0;
+		while (i < hits.size()) {
+			Located first = hits.get(i);
+			SegmentFile sf = first.segment;
+			if (sf == null) {
+				log.warn("[STORE.multiGet] segment missing: fileId={} for key='{}'", first.pos.fileId, first.key);
+				i++;
+				continue;
+			}
+			long start = first.pos.offset;
+			long end = first.end;
+			int j = i + 1;
+			while (j < hits.size()) {
+				Located next = hits.get(j);
+				if (next.segment != sf || next.pos.offset - end > COALESCE_GAP_BYTES
+						|| next.end - start > COALESCE_MAX_BYTES)
+					break;
+				end = Math.max(end, next.end);
+				j++;
+			}
+
+			ByteBuffer span = ByteBuffer.wrap(sf.readBytes(start, (int) (end - start))).order(LITTLE_ENDIAN);
+			for (; i < j; i++) {
+				Located l = hits.get(i);
+				int rel = (int) (l.pos.offset - start);
+				int keyLen = span.getInt(rel);
+				int valLen = span.getInt(rel + 4);
+				byte flags = span.get(rel + 8);
+				if ((flags & FLAG_TOMBSTONE) != 0)
+					continue;
+				int valAt = rel + SegmentFile.keyOffset(flags) + keyLen;
+				if (verifyRead()) {
+					Checksum crc = SegmentFile.checksumFor(flags);
+					crc.update(span.array(), rel + HEADER_SIZE, valAt - rel - HEADER_SIZE + valLen);
+					sf.check(l.pos.offset, span.getInt(rel + 9), crc);
+				}
+				byte[] value;
+				if ((flags & SegmentFile.FLAG_COMPRESSED) != 0) {
+					value = ValueCodec.decode(span.slice(valAt, valLen), metrics);
+				} else {
+					value = new byte[valLen];
+					span.get(valAt, value);
+				}
+				n++;
+				if (!visitor.accept(l.key, value))
+					return n;
+			}
+		}
+		return n;
+	}
+
+	/** A key with its position and, once pinned, its segment (multiGet, key-ordered merges). */
+	private static final class Located {
+		static final Comparator<Located> DISK_ORDER = Comparator.<Located>comparingInt(l -> l.pos.fileId)
+				.thenComparingLong(l -> l.pos.offset);
+
+		final String key;
+		final Position pos;
+		final long end; // offset just past the record
+		SegmentFile segment;
+
+		Located(String key, Position pos) {
+			this.key = key;
+			this.pos = pos;
+			this.end = pos.offset + recordSize(key.getBytes(StandardCharsets.UTF_8).length, pos);
 		}
 	}
 
+	/**
+	 * Replication source: whole records of the log from {@code (fileId, offset)},
+	 * at most {@code maxBytes} unless the first record alone is larger. See
+	 * {@link LogChunk} for the cursor rules. Only an unsharded store has a single
+	 * log to ship, so this is not part of {@link KvStore}.
+	 *
+	 * A cursor stays valid while no compaction since its generation rewrote its
+	 * segment; otherwise the chunk restarts at the oldest segment with
+	 * {@code reset} set. Sealed segments that are fully shipped are skipped, and
+	 * the active segment ships up to what is fsynced in ALWAYS and GROUP mode
+	 * (what was appended otherwise), so a follower never holds a write the
+	 * leader could still lose.
+	 */
+	public LogChunk readLog(long generation, int fileId, long offset, int maxBytes) throws IOException {
+		if (maxBytes <= 0)
+			throw new IllegalArgumentException("maxBytes must be > 0");
+		for (;;) {
+			long seq = layoutSeq;
+			if ((seq & 1) != 0) {
+				awaitLayout(seq);
+				continue;
+			}
+			long gen = logEpoch + seq;
+			boolean reset = generation != gen && (generation == LogChunk.NO_GENERATION || fileId <= compactedThrough);
+			Map.Entry<Integer, SegmentFile> e = reset ? null : segments.floorEntry(fileId);
+			if (e == null || e.getKey() != fileId || offset > shippableEnd(e.getValue())) {
+				reset = true; // unknown segment, or the follower is past what we hold
+				e = segments.firstEntry();
+				offset = 0;
+			}
+			// skip segments the follower has fully shipped
+			while (e.getValue().isSealed() && offset >= e.getValue().size()) {
+				Map.Entry<Integer, SegmentFile> next = segments.higherEntry(e.getKey());
+				if (next == null)
+					break;
+				e = next;
+				offset = 0;
+			}
+			SegmentFile sf = e.getValue();
+			if (!sf.tryAcquire()) {
+				if (layoutSeq != seq)
+					continue; // merged away: re-resolve
+				throw new IOException("segment " + sf.fileId() + " is closed");
+			}
+			try {
+				if (layoutSeq != seq)
+					continue;
+				byte[] bytes = wholeRecords(sf, offset, shippableEnd(sf), maxBytes);
+				long lag = shippableEnd(sf) - offset - bytes.length;
+				for (SegmentFile later : segments.tailMap(sf.fileId(), false).values())
+					lag += shippableEnd(later);
+				if (log.isDebugEnabled())
+					log.debug("[STORE.readLog] fileId={} off={} bytes={} reset={} lag={}", sf.fileId(), offset,
+							bytes.length, reset, lag);
+				return new LogChunk(gen, sf.fileId(), offset, reset, bytes, lag);
+			} finally {
+				sf.release();
+			}
+		}
+	}
+
+	private long shippableEnd(SegmentFile sf) {
+		if (sf.isSealed() || (syncMode != SyncMode.ALWAYS && syncMode != SyncMode.GROUP))
+			return sf.size();
+		return sf.syncedSize();
+	}
+
+	/** The records in {@code [offset, end)} that fit {@code maxBytes}, or the first one if it alone is larger. */
+	private static byte[] wholeRecords(SegmentFile sf, long offset, long end, int maxBytes) throws IOException {
+		if (end - offset < HEADER_SIZE)
+			return new byte[0];
+		byte[] span = sf.readBytes(offset, (int) Math.min(end - offset, Math.max(maxBytes, HEADER_SIZE)));
+		ByteBuffer b = ByteBuffer.wrap(span).order(LITTLE_ENDIAN);
+		int cut = 0;
+		while (cut + HEADER_SIZE <= span.length) {
+			long size = recordSize(b.get(cut + 8), b.getInt(cut), b.getInt(cut + 4));
+			if (cut + size > span.length) {
+				if (cut == 0 && offset + size <= end)
+					return sf.readBytes(offset, (int) size);
+				break;
+			}
+			cut += size;
+		}
+		return cut == span.length ? span : Arrays.copyOf(span, cut);
+	}
+
+	@Override
 	public void delete(String key) throws IOException {
 		Objects.requireNonNull(key, "key");
-		log.info("[STORE.del] key='{}'", key);
+		log.debug("[STORE.del] key='{}'", key);
 
 		byte[] k = key.getBytes(StandardCharsets.UTF_8);
-		rw.writeLock().lock();
-		try {
-			long off = active.append(k, new byte[0], true);
-			index.put(key, new Position(active.fileId(), off, 0, true));
-			keySet.remove(key);
-			log.debug("[INDEX] tombstone key='{}' -> {}:{}", key, active.fileId(), off);
+		long t0 = System.nanoTime();
 
-			postWriteSync();
+		try {
+			writer.submit(List.of(new Mutation(key, k, new byte[0], true)));
 		} catch (IOException ioe) {
 			log.error("[STORE.del] failed key='{}'", key, ioe);
 			throw ioe;
 		} finally {
-			rw.writeLock().unlock();
+			metrics.recordOp(StoreMetrics.Op.DELETE, System.nanoTime() - t0);
 		}
 	}
 
+	@Override
 	public void batchPut(List<KvPair> items) throws IOException {
 		if (items == null || items.isEmpty())
 			return;
 
-		log.info("[STORE.batchPut] key size='{}'", items.size());
-		rw.writeLock().lock();
+		if (log.isDebugEnabled())
+			log.debug("[STORE.batchPut] key size='{}'", items.size());
+
+		long t0 = System.nanoTime();
+		List<Mutation> muts = new ArrayList<>(items.size());
+		for (KvPair kv : items) {
+			muts.add(putMutation(kv.key(), kv.key().getBytes(StandardCharsets.UTF_8), kv.value(), kv.expiresAt()));
+		}
+
 		try {
-			for (KvPair kv : items) {
-				String key = kv.key();
-				byte[] value = kv.value();
-				byte[] k = key.getBytes(StandardCharsets.UTF_8);
-				long off = active.append(k, value, false);
-				index.put(key, new Position(active.fileId(), off, value.length, false));
-				keySet.put(key, Boolean.TRUE);
-				postWriteSync();
-			}
+			writer.submit(muts);
 		} finally {
-			rw.writeLock().unlock();
+			metrics.recordOp(StoreMetrics.Op.BATCH_PUT, System.nanoTime() - t0);
 		}
 	}
 
+	@Override
 	public List<KvPair> getRange(String start, String end) throws IOException {
+		List<KvPair> out = new ArrayList<>();
+		scanRange(start, end, (k, v) -> out.add(new KvPair(k, v)));
+		return out;
+	}
+
+	/**
+	 * Visit the live pairs in {@code [start, end]} in key order without
+	 * materializing the range: one value is read at a time and handed to the
+	 * visitor, so memory stays flat however wide the range is. Weakly consistent,
+	 * like the index iteration underneath. With kv.range-index=disk values are
+	 * read a batch at a time instead, see {@link #scanSortedKeys}.
+	 *
+	 * @return number of pairs visited
+	 */
+	@Override
+	public long scanRange(String start, String end, RangeVisitor visitor) throws IOException {
 		Objects.requireNonNull(start, "start");
 		Objects.requireNonNull(end, "end");
+		Objects.requireNonNull(visitor, "visitor");
 		if (start.compareTo(end) > 0) {
 			String t = start;
 			start = end;
 			end = t;
 		}
-		List<KvPair> out = new ArrayList<>();
-		log.info("[STORE.range] start='{}' end='{}' count={}", start, end, out.size());
+		log.debug("[STORE.range] start='{}' end='{}'", start, end);
 
-		rw.readLock().lock();
+		long t0 = System.nanoTime();
+		long n = 0;
 		try {
-			for (Map.Entry<String, Boolean> e : keySet.subMap(start, true, end, true).entrySet()) {
-				String k = e.getKey();
-				Position p = index.get(k);
-				if (p == null || p.tombstone)
-					continue;
-				SegmentFile sf = segments.get(p.fileId);
-				if (sf == null)
-					continue;
-				byte[] v = sf.readValueAt(p.offset);
-				if (v != null)
-					out.add(new KvPair(k, v));
+			if (sortedKeys != null)
+				return scanSortedKeys(start, end, visitor);
+			for (String k : index.keys(start, end)) {
+				byte[] v = readCurrent(k);
+				if (v == null)
+					continue; // deleted since the key was listed
+				n++;
+				if (!visitor.accept(k, v))
+					break;
 			}
 		} finally {
-			rw.readLock().unlock();
+			metrics.recordOp(StoreMetrics.Op.RANGE, System.nanoTime() - t0);
+		}
+		return n;
+	}
+
+	/**
+	 * Last key of a page holding the first {@code limit} live keys of
+	 * {@code [start, end]}; walks keys only, no values are read.
+	 *
+	 * @return that key, or null if the whole range fits in one page
+	 */
+	@Override
+	public String rangePageEnd(String start, String end, int limit) {
+		if (limit <= 0)
+			throw new IllegalArgumentException("limit must be > 0");
+		if (start.compareTo(end) > 0) {
+			String t = start;
+			start = end;
+			end = t;
+		}
+		int n = 0;
+		String last = null;
+		for (String k : rangeKeys(start, end)) {
+			if (n == limit)
+				return last; // at least one more key follows
+			last = k;
+			n++;
+		}
+		return null;
+	}
+
+	/** Live-or-tombstoned keys of {@code [start, end]} in order, for merging shards. */
+	Iterator<String> keyIterator(String start, String end) {
+		return rangeKeys(start, end).iterator();
+	}
+
+	/** Keys of {@code [start, end]} in order, from the index or, with kv.range-index=disk, the key files. */
+	private Iterable<String> rangeKeys(String start, String end) {
+		if (sortedKeys == null)
+			return index.keys(start, end);
+		return () -> sortedKeys.keys(start, end, this::isLive);
+	}
+
+	private boolean isLive(String key) {
+		Position p = index.get(key);
+		return p != null && !p.tombstone && !expired(p);
+	}
+
+	/**
+	 * Range over the sorted key runs: keys are taken in batches of up to
+	 * {@link #RANGE_BATCH_KEYS} (or {@link #COALESCE_MAX_BYTES} of values), each
+	 * batch is read like a multiGet, in disk order with coalesced reads, and then
+	 * handed out in key order. Compaction writes records in key order, so over
+	 * merged segments a range turns into a few large sequential reads.
+	 */
+	private long scanSortedKeys(String start, String end, RangeVisitor visitor) throws IOException {
+		Iterator<String> keys = sortedKeys.keys(start, end, this::isLive);
+		List<String> batch = new ArrayList<>(RANGE_BATCH_KEYS);
+		Map<String, byte[]> values = new HashMap<>();
+		long n = 0;
+		try {
+			while (keys.hasNext()) {
+				batch.clear();
+				long bytes = 0;
+				while (batch.size() < RANGE_BATCH_KEYS && bytes < COALESCE_MAX_BYTES && keys.hasNext()) {
+					String k = keys.next();
+					Position p = index.get(k);
+					bytes += p == null ? 0 : p.valueLen;
+					batch.add(k);
+				}
+				values.clear();
+				readMany(batch, (k, v) -> values.put(k, v) == null);
+				for (String k : batch) {
+					byte[] v = values.get(k);
+					if (v == null)
+						continue; // deleted since the key was listed
+					n++;
+					if (!visitor.accept(k, v))
+						return n;
+				}
+			}
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		return n;
+	}
+
+	/** Current value of a key without timing it as an operation, or null. */
+	byte[] read(String key) throws IOException {
+		return readCurrent(key);
+	}
+
+	@Override
+	public long cacheBytes() {
+		return cache == null ? 0 : cache.bytes();
+	}
+
+	/** The segment appends go to; tests read its sync state. */
+	SegmentFile activeSegment() {
+		return active;
+	}
+
+	@Override
+	public int segmentCount() {
+		return segments.size();
+	}
+
+	@Override
+	public long indexSize() {
+		return index.size();
+	}
+
+	@Override
+	public long tombstoneCount() {
+		return tombstones;
+	}
+
+	@Override
+	public long totalBytes() {
+		long n = 0;
+		for (SegmentFile sf : segments.values())
+			n += sf.size();
+		return n;
+	}
+
+	@Override
+	public long deadBytes() {
+		long n = 0;
+		for (SegmentFile sf : segments.values())
+			n += sf.deadBytes();
+		return n;
+	}
+
+	/**
+	 * Merge all sealed segments: live records are copied into fresh segment
+	 * files, which then replace the originals on the writer thread. Tombstones
+	 * and records whose TTL ran out are dropped, since every older record of
+	 * their key is part of the same merge. The active segment is never touched.
+	 *
+	 * @return bytes reclaimed, or 0 if there was nothing to do
+	 */
+	@Override
+	public long compact() throws IOException {
+		if (!compactionLock.tryLock())
+			return 0; // another compaction is running
+		try {
+			return doCompact();
+		} finally {
+			compactionLock.unlock();
 		}
-		return out;
 	}
 
 	@Override
 	public void close() throws IOException {
-		rw.writeLock().lock();
+		// let queued groups finish before the segments go away
+		if (writer != null) {
+			writer.close();
+		}
+		// queued hint writes are allowed to finish; a running compaction aborts at its
+		// next record (or at its swap, which the closed writer refuses)
+		closing = true;
+		if (maintenance != null) {
+			maintenance.shutdown();
+			try {
+				maintenance.awaitTermination(30, TimeUnit.SECONDS);
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (intervalFlusher != null) {
+			intervalFlusher.shutdownNow();
+			try {
+				intervalFlusher.awaitTermination(1, TimeUnit.SECONDS);
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		for (SegmentFile sf : segments.values()) {
+			try {
+				sf.force();
+			} catch (Exception ignored) {
+			}
+			sf.close();
+		}
+		segments.clear();
+		if (sortedKeys != null)
+			sortedKeys.close();
+		active = null;
+	}
+
+	// --- Internals ---
+
+	/**
+	 * Lock-free point read. The index entry and the segment it names must come
+	 * from the same layout, because a compaction swap reuses fileIds: layoutSeq is
+	 * sampled before and re-checked after pinning the segment, and the lookup is
+	 * retried if a swap ran in between. Once pinned, a segment stays readable even
+	 * if it is merged away or the store closes.
+	 *
+	 * Only point reads go through the value cache; ranges and multiGet read past
+	 * it so one wide scan cannot flush the hot set. A hit must also pass the
+	 * layoutSeq check, and an admission is dropped if a swap cleared the cache
+	 * after its epoch was taken.
+	 *
+	 * @return the value, or null for a missing or deleted key
+	 */
+	private byte[] readCurrent(String key) throws IOException {
+		return readCurrent(key, false);
+	}
+
+	private byte[] readCurrent(String key, boolean cached) throws IOException {
+		for (;;) {
+			long seq = layoutSeq;
+			if ((seq & 1) != 0) {
+				awaitLayout(seq);
+				continue;
+			}
+			long epoch = cached ? cache.epoch() : 0;
+			Position p = index.get(key);
+			if (p == null || p.tombstone || expired(p))
+				return null;
+			if (cached) {
+				byte[] v = cache.get(key, p);
+				if (v != null) {
+					if (layoutSeq != seq)
+						continue;
+					return v;
+				}
+			}
+			SegmentFile sf = segments.get(p.fileId);
+			if (sf == null || !sf.tryAcquire()) {
+				if (layoutSeq != seq)
+					continue;
+				log.warn("[STORE.get] segment missing: fileId={} for key='{}'", p.fileId, key);
+				return null;
+			}
+			try {
+				if (layoutSeq != seq)
+					continue;
+				byte[] v = sf.readValueAt(p.offset, verifyRead());
+				if (cached && v != null)
+					cache.admit(key, p, v, epoch);
+				return v;
+			} finally {
+				sf.release();
+			}
+		}
+	}
+
+	/** Whether this value read checks the record checksum, per {@link ReadVerify}. */
+	private boolean verifyRead() {
+		return switch (readVerify) {
+		case OFF -> false;
+		case ALWAYS -> true;
+		case SAMPLED -> ThreadLocalRandom.current().nextDouble() < readVerifySampleRate;
+		};
+	}
+
+	/**
+	 * Wait out the compaction swap that made layoutSeq odd: spin briefly, then
+	 * yield, then back off in short parks. A swap is a few renames and index
+	 * updates, so readers are rarely past the spin.
+	 */
+	private void awaitLayout(long seq) {
+		for (int spins = 0; layoutSeq == seq; spins++) {
+			if (spins < 64)
+				Thread.onSpinWait();
+			else if (spins < 128)
+				Thread.yield();
+			else
+				LockSupport.parkNanos(AWAIT_LAYOUT_PARK_NANOS);
+		}
+	}
+
+	private static long recordSize(int keyLen, int valLen) {
+		return HEADER_SIZE + (long) keyLen + valLen;
+	}
+
+	private static long recordSize(byte flags, int keyLen, int valLen) {
+		return SegmentFile.keyOffset(flags) + (long) keyLen + valLen;
+	}
+
+	/** Size of the record at {@code p}, whose key is {@code keyLen} bytes. */
+	private static long recordSize(int keyLen, Position p) {
+		return SegmentFile.keyOffset(p.expiresAt) + (long) keyLen + p.valueLen;
+	}
+
+	/**
+	 * Whether the TTL of the record at {@code p} ran out. Only records with a TTL
+	 * read the clock, so plain keys pay nothing for expiry support.
+	 */
+	private static boolean expired(Position p) {
+		return p.expiresAt != Position.NO_EXPIRY && p.expiredAt(System.currentTimeMillis());
+	}
+
+	/**
+	 * Point the index at a freshly written record and account the bytes it makes
+	 * obsolete: the previous record of the key and, for deletes, the tombstone
+	 * itself (it only exists to shadow older records until the next merge).
+	 */
+	private void publish(String key, int keyLen, Position p) {
+		if (cache != null)
+			cache.invalidate(key);
+		Position old = index.put(key, p);
+		if (old != null && !old.tombstone)
+			markDead(old.fileId, recordSize(keyLen, old));
+		if (old != null && old.tombstone)
+			tombstones--;
+		if (p.tombstone) {
+			tombstones++;
+			markDead(p.fileId, recordSize(keyLen, 0));
+		}
+		if (p.expiresAt != Position.NO_EXPIRY) {
+			expiries.add(new Expiry(p.expiresAt, key));
+			nextExpiry = expiries.peek().at;
+		}
+	}
+
+	/** A key whose record at the time expires at {@code at}. */
+	private record Expiry(long at, String key) implements Comparable<Expiry> {
+		@Override
+		public int compareTo(Expiry o) {
+			return Long.compare(at, o.at);
+		}
+	}
+
+	/** Maintenance tick: drop expired keys in writer-sized batches until none is due. */
+	private void sweepExpired() {
+		try {
+			while (nextExpiry <= System.currentTimeMillis() && !closing) {
+				if (!writer.call(() -> expireDue(System.currentTimeMillis())))
+					break;
+			}
+		} catch (Exception e) {
+			// keep the schedule alive; the next tick retries
+			log.warn("[EXPIRE] sweep failed", e);
+		}
+	}
+
+	/**
+	 * Writer thread only: remove up to {@link #EXPIRY_SWEEP_BATCH} keys whose TTL
+	 * ran out by {@code now} from the index. No tombstone is written; the expired
+	 * record itself keeps shadowing older ones until compaction drops it with
+	 * them, and recovery finds it expired again.
+	 *
+	 * @return true if more keys are due
+	 */
+	private boolean expireDue(long now) {
+		int dropped = 0;
 		try {
-			if (intervalFlusher != null) {
-				intervalFlusher.shutdownNow();
+			Expiry e;
+			while ((e = expiries.peek()) != null && e.at() <= now) {
+				if (dropped == EXPIRY_SWEEP_BATCH)
+					return true;
+				expiries.poll();
+				Position p = index.get(e.key());
+				if (p == null || p.expiresAt != e.at() || !index.remove(e.key(), p))
+					continue; // rewritten, deleted or merged away since
+				if (cache != null)
+					cache.invalidate(e.key());
+				markDead(p.fileId, recordSize(utf8Length(e.key()), p));
+				dropped++;
+			}
+			return false;
+		} finally {
+			Expiry head = expiries.peek();
+			nextExpiry = head == null ? Long.MAX_VALUE : head.at();
+			if (dropped > 0) {
+				metrics.recordExpired(dropped);
+				log.debug("[EXPIRE] dropped keys={}", dropped);
 			}
+		}
+	}
+
+	private void markDead(int fileId, long bytes) {
+		SegmentFile sf = segments.get(fileId);
+		if (sf != null)
+			sf.addDeadBytes(bytes);
+	}
+
+	private void startCompactor() {
+		maintenance.scheduleWithFixedDelay(this::maybeCompact, compactIntervalMs, compactIntervalMs,
+				TimeUnit.MILLISECONDS);
+		log.debug("[COMPACT] enabled thresholdBytes={} rateBytesPerSec={} intervalMs={}", compactThresholdBytes,
+				compactRateBytesPerSec, compactIntervalMs);
+	}
+
+	private void maybeCompact() {
+		try {
+			long dead = 0;
+			SegmentFile cur = active;
 			for (SegmentFile sf : segments.values()) {
+				if (sf != cur)
+					dead += sf.deadBytes();
+			}
+			log.debug("[COMPACT] sealed deadBytes={} ratio={}", dead, String.format("%.3f", deadByteRatio()));
+			if (dead >= compactThresholdBytes)
+				compact();
+		} catch (Exception e) {
+			// keep the schedule alive; the next tick retries
+			log.warn("[COMPACT] failed", e);
+		}
+	}
+
+	/** One live record copied by a merge: index entry to swap from -> to. */
+	private record Move(String key, int keyLen, Position from, Position to) {
+	}
+
+	private long doCompact() throws IOException {
+		// chosen between two groups: a segment sealed mid-group still has unpublished
+		// records, which the scan would take for garbage and the merge would lose
+		List<SegmentFile> inputs = writer.call(() -> active == null ? List.of()
+				: new ArrayList<>(segments.headMap(active.fileId()).values()));
+		if (inputs.isEmpty())
+			return 0;
+		if (MergeManifest.exists(dataDir))
+			throw new IOException("an earlier merge is only partly installed; the next start completes it");
+
+		long before = 0;
+		for (SegmentFile sf : inputs)
+			before += sf.size();
+		log.info("[COMPACT] start inputs={} bytes={} deadBytes={}", inputs.size(), before,
+				inputs.stream().mapToLong(SegmentFile::deadBytes).sum());
+
+		MergeOutputs outputs = new MergeOutputs(inputs);
+		List<Move> dropped = new ArrayList<>(); // tombstones and expired records
+		// kv.range-index=disk: live records are collected first and copied in key order
+		List<Located> sorted = sortedKeys != null ? new ArrayList<>() : null;
+		long now = System.currentTimeMillis();
+		RateLimiter throttle = new RateLimiter(compactRateBytesPerSec);
+
+		try {
+			for (SegmentFile in : inputs) {
+				scanSegment(in, (off, key, view, flags, expiresAt) -> {
+					if (closing)
+						throw new InterruptedIOException("store is closing");
+					throttle.acquire(recordSize(flags, key.length, view.remaining()));
+					String k = new String(key, StandardCharsets.UTF_8);
+					Position p = index.get(k);
+					if (p == null || p.fileId != in.fileId() || p.offset != off)
+						return; // superseded
+					if (p.tombstone || p.expiredAt(now)) {
+						dropped.add(new Move(k, key.length, p, null));
+						return;
+					}
+					if (sorted != null) {
+						Located l = new Located(k, p);
+						l.segment = in;
+						sorted.add(l);
+						return;
+					}
+					byte[] value = new byte[view.remaining()];
+					view.get(value);
+					outputs.copy(k, key, value, (flags & SegmentFile.FLAG_COMPRESSED) != 0, p);
+				});
+			}
+			if (sorted != null) {
+				// a second, random-order pass over the inputs buys sequential range reads afterwards
+				sorted.sort(Comparator.comparing((Located l) -> l.key));
+				for (Located l : sorted) {
+					if (closing)
+						throw new InterruptedIOException("store is closing");
+					int size = (int) (l.end - l.pos.offset);
+					throttle.acquire(size);
+					byte[] rec = l.segment.readBytes(l.pos.offset, size);
+					byte flags = rec[8];
+					int keyAt = SegmentFile.keyOffset(flags);
+					int valAt = size - l.pos.valueLen;
+					outputs.copy(l.key, Arrays.copyOfRange(rec, keyAt, valAt), Arrays.copyOfRange(rec, valAt, size),
+							(flags & SegmentFile.FLAG_COMPRESSED) != 0, l.pos);
+				}
+			}
+			outputs.commit();
+			// the commit point: from here on a restart installs the outputs
+			outputs.manifest().write(dataDir);
+		} catch (IOException | RuntimeException e) {
+			MergeManifest.delete(dataDir); // before the staged files it names
+			outputs.abort();
+			throw e;
+		}
+
+		// refused once the store is closing; the next start then installs the outputs
+		long after;
+		try {
+			after = writer.call(() -> swap(inputs, outputs, dropped));
+		} catch (IOException | RuntimeException e) {
+			for (KeyFile kf : outputs.keyFiles)
+				kf.close();
+			throw e;
+		}
+		MergeManifest.delete(dataDir);
+		log.info("[COMPACT] done inputs={} outputs={} live={} dropped={} bytes {} -> {}", inputs.size(),
+				outputs.segments.size(), outputs.moves.size(), dropped.size(), before, after);
+		return before - after;
+	}
+
+	/**
+	 * Segments a merge writes, staged under a temp name until the swap, each with
+	 * its hint and, with kv.range-index=disk, its key file. Outputs reuse the
+	 * input fileIds in ascending order, so recovery replays them before any newer
+	 * segment. There are never more outputs than inputs: the last one takes
+	 * whatever does not fit below maxSegmentBytes.
+	 */
+	private final class MergeOutputs {
+		final List<SegmentFile> inputs;
+		final List<SegmentFile> segments = new ArrayList<>();
+		final List<HintFile.Writer> hints = new ArrayList<>();
+		final List<KeyFile.Writer> keyWriters = new ArrayList<>();
+		final List<KeyFile> keyFiles = new ArrayList<>(); // opened by commit
+		final List<Move> moves = new ArrayList<>();
+
+		MergeOutputs(List<SegmentFile> inputs) {
+			this.inputs = inputs;
+		}
+
+		/**
+		 * Append one live record. Compressed records are copied as stored; raw ones
+		 * are compressed if the codec takes them.
+		 */
+		void copy(String k, byte[] key, byte[] value, boolean compressed, Position p) throws IOException {
+			if (!compressed) {
+				byte[] stored = codec.encode(value);
+				if (stored != null) {
+					value = stored;
+					compressed = true;
+				}
+			}
+			SegmentFile out = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+			if (out == null || (out.size() >= maxSegmentBytes && segments.size() < inputs.size())) {
+				if (out != null)
+					out.seal();
+				int id = inputs.get(segments.size()).fileId();
+				out = new SegmentFile(id, compactPath(dataDir, id), CREATE, TRUNCATE_EXISTING, READ, WRITE);
+				segments.add(out);
+				hints.add(new HintFile.Writer(compactPath(hintPath(dataDir, id)), id));
+				if (sortedKeys != null)
+					keyWriters.add(new KeyFile.Writer(compactPath(keyPath(dataDir, id)), id));
+			}
+			long off = out.append(key, value, false, p.expiresAt, compressed);
+			hints.get(hints.size() - 1).add(key, off, value.length,
+					(byte) ((p.expiresAt != Position.NO_EXPIRY ? SegmentFile.FLAG_EXPIRES : 0)
+							| (compressed ? SegmentFile.FLAG_COMPRESSED : 0)),
+					p.expiresAt);
+			if (sortedKeys != null)
+				keyWriters.get(keyWriters.size() - 1).add(key); // records come in key order
+			moves.add(new Move(k, key.length, p, new Position(out.fileId(), off, value.length, false, p.expiresAt)));
+		}
+
+		void commit() throws IOException {
+			for (int i = 0; i < segments.size(); i++) {
+				SegmentFile out = segments.get(i);
+				out.seal();
+				out.close();
+				hints.get(i).commit(out.size());
+				if (sortedKeys != null) {
+					keyWriters.get(i).commit(out.size());
+					Path path = compactPath(keyPath(dataDir, out.fileId()));
+					KeyFile kf = KeyFile.open(path, out.fileId(), out.size());
+					if (kf == null)
+						throw new IOException("key file " + path + " does not read back");
+					keyFiles.add(kf);
+				}
+			}
+		}
+
+		MergeManifest manifest() {
+			return new MergeManifest(segments.stream().map(SegmentFile::fileId).toList(),
+					inputs.stream().map(SegmentFile::fileId).toList());
+		}
+
+		/** Delete everything staged; the inputs are untouched. */
+		void abort() throws IOException {
+			for (KeyFile kf : keyFiles)
+				kf.close();
+			for (int i = 0; i < segments.size(); i++) {
+				SegmentFile out = segments.get(i);
 				try {
-					sf.force();
-				} catch (Exception ignored) {
+					out.close();
+					hints.get(i).close();
+					if (sortedKeys != null)
+						keyWriters.get(i).close();
+				} catch (IOException ignored) {
 				}
-				sf.close();
+				Files.deleteIfExists(out.path());
+				Files.deleteIfExists(compactPath(hintPath(dataDir, out.fileId())));
+				Files.deleteIfExists(compactPath(keyPath(dataDir, out.fileId())));
+			}
+		}
+	}
+
+	/**
+	 * Put the merge outputs in place of the inputs and repoint the index.
+	 * Writer thread only, so no write interleaves. The files are installed
+	 * first, while readers carry on: they hold open channels, which the renames
+	 * do not touch. Readers only wait on the odd layoutSeq for the in-memory
+	 * switch. Runs after the merge's manifest is written, so a crash during the
+	 * install is finished by the next start.
+	 *
+	 * @return bytes of the installed outputs
+	 */
+	private long swap(List<SegmentFile> inputs, MergeOutputs merged, List<Move> dropped) throws IOException {
+		installMerge(dataDir, merged.manifest());
+		long after = 0;
+		layoutSeq++; // odd: readers wait for the swap to finish
+		try {
+			compactedThrough = Math.max(compactedThrough, inputs.get(inputs.size() - 1).fileId());
+			for (SegmentFile out : merged.segments) {
+				SegmentFile sf = new SegmentFile(out.fileId(), filePath(dataDir, out.fileId()), metrics, READ);
+				sf.markSealed();
+				mapIfEnabled(sf);
+				segments.put(sf.fileId(), sf);
+				after += sf.size();
+			}
+			for (int i = merged.segments.size(); i < inputs.size(); i++)
+				segments.remove(inputs.get(i).fileId());
+
+			for (Move m : merged.moves) {
+				// a concurrent put/delete wins; the copy we just wrote is then garbage
+				if (!index.replace(m.key(), m.from(), m.to()))
+					markDead(m.to().fileId, recordSize(m.keyLen(), m.to()));
+			}
+			for (Move m : dropped) {
+				if (index.remove(m.key(), m.from()) && m.from().tombstone)
+					tombstones--;
+			}
+			if (cache != null)
+				cache.clear(); // merged records got new positions, and fileIds are reused
+			if (sortedKeys != null)
+				sortedKeys.replace(inputs.stream().map(SegmentFile::fileId).toList(), merged.keyFiles);
+
+			for (SegmentFile in : inputs) {
+				in.close(); // in-flight readers keep it open until they release
 			}
-			segments.clear();
-			active = null;
 		} finally {
-			rw.writeLock().unlock();
+			layoutSeq++;
 		}
+		return after;
 	}
 
-	// --- Internals ---
+	/**
+	 * Move the staged outputs of a merge over their fileIds, then delete the
+	 * inputs no output reuses, each with its hint and key file. Every step can be
+	 * repeated, so recovery redoes the whole install after a crash part-way
+	 * through it. Ends with a directory fsync: the caller retires the manifest
+	 * only once all of it is durable.
+	 */
+	private void installMerge(Path dir, MergeManifest merge) throws IOException {
+		for (int id : merge.outputs()) {
+			installStaged(filePath(dir, id));
+			installStaged(hintPath(dir, id));
+			if (!installStaged(keyPath(dir, id)))
+				Files.deleteIfExists(keyPath(dir, id)); // describes the input; rebuilt if needed
+		}
+		Set<Integer> reused = new HashSet<>(merge.outputs());
+		for (int id : merge.inputs()) {
+			if (reused.contains(id))
+				continue;
+			Files.deleteIfExists(hintPath(dir, id));
+			Files.deleteIfExists(keyPath(dir, id));
+			Files.deleteIfExists(filePath(dir, id));
+		}
+		MergeManifest.syncDir(dir);
+	}
+
+	/** @return false if there was nothing staged, e.g. an earlier install attempt moved it already */
+	private boolean installStaged(Path target) throws IOException {
+		Path staged = compactPath(target);
+		if (!Files.exists(staged))
+			return false;
+		fileMover.move(staged, target);
+		return true;
+	}
+
+	/**
+	 * INTERVAL mode: fsync the active segment every syncIntervalMs from a
+	 * background thread. The flusher never takes the store lock, so writers only
+	 * pay for the page-cache write and a stalled fsync cannot hold them up.
+	 */
+	private void startIntervalFlusher() {
+		long period = Math.max(1L, syncIntervalMs);
+		intervalFlusher = new ScheduledThreadPoolExecutor(1, r -> {
+			Thread t = new Thread(r, "kv-interval-flusher");
+			t.setDaemon(true);
+			return t;
+		});
+		intervalFlusher.scheduleWithFixedDelay(this::flushActive, period, period, TimeUnit.MILLISECONDS);
+		log.debug("[STORE] using INTERVAL mode (syncIntervalMs={})", period);
+	}
 
-	private void postWriteSync() throws IOException {
-		writesSinceLastSync++;
+	private void flushActive() {
+		SegmentFile sf = active;
+		if (sf == null || !sf.isDirty())
+			return;
+		try {
+			sf.force();
+		} catch (Exception e) {
+			// keep the schedule alive; the next tick retries
+			log.warn("[SYNC] interval fsync failed fileId={}", sf.fileId(), e);
+		}
+	}
+
+	/**
+	 * Writer sink: append the whole group, apply the sync policy, then publish
+	 * the new positions in one pass, so in ALWAYS and GROUP mode readers never
+	 * observe a record that is not yet durable.
+	 */
+	private void commitGroup(List<Mutation> group) throws IOException {
+		Position[] positions = appendAll(group); // a segment sealed by rotation is fsynced right there
+		syncAfterAppend(positions.length);
+		for (int i = 0; i < positions.length; i++) {
+			Mutation m = group.get(i);
+			publish(m.key, m.keyBytes.length, positions[i]);
+		}
+		if (log.isDebugEnabled())
+			log.debug("[SYNC] group committed records={} fileId={}", positions.length, active.fileId());
+	}
+
+	/**
+	 * Append records in as few writes as possible, rolling the active segment at
+	 * the same record boundaries one-by-one appends would. Writer thread only;
+	 * nothing is published to the index here.
+	 */
+	private Position[] appendAll(List<Mutation> muts) throws IOException {
+		Position[] positions = new Position[muts.size()];
+		int i = 0;
+		while (i < positions.length) {
+			rollIfNeeded();
+			SegmentFile seg = active;
+			// take records while the segment is still below the limit before each one
+			long projected = seg.size();
+			int j = i;
+			do {
+				projected += muts.get(j++).recordSize();
+			} while (j < positions.length && projected < maxSegmentBytes);
+
+			long[] offs = seg.appendBatch(muts, i, j);
+			for (int k = i; k < j; k++) {
+				Mutation m = muts.get(k);
+				positions[k] = new Position(seg.fileId(), offs[k - i], m.value.length, m.tombstone, m.expiresAt);
+				if (sortedKeys != null && !m.tombstone)
+					sortedKeys.added(seg.fileId(), m.key); // before the seal, so the key file sees it
+			}
+			i = j;
+		}
+		return positions;
+	}
+
+	/** Apply the sync policy after {@code n} records went out in one append. */
+	private void syncAfterAppend(int n) throws IOException {
+		writesSinceLastSync += n;
 
 		log.debug("[SYNC] mode: {}", syncMode);
 		switch (syncMode) {
-		case ALWAYS -> active.force();
+		case ALWAYS, GROUP -> active.force();
 		case EVERY_N -> {
 			if (writesSinceLastSync >= batchSyncEvery) {
 				active.force();
 				writesSinceLastSync = 0;
 			}
 		}
+		case INTERVAL -> {
+			// flushed by intervalFlusher
+		}
+		}
+	}
+
+	/**
+	 * Size-based rotation; writer thread only. The full segment is
+	 * fsynced and sealed read-only, then the next segment-NNNNNN.log is published
+	 * as active. Readers resolve fileIds through the concurrent segments map, so
+	 * they keep reading the sealed file without interruption.
+	 */
+	private void rollIfNeeded() throws IOException {
+		SegmentFile cur = active;
+		if (cur.size() < maxSegmentBytes)
+			return;
+
+		int nextId = cur.fileId() + 1;
+		SegmentFile next = new SegmentFile(nextId, filePath(dataDir, nextId), metrics, CREATE_NEW, READ, WRITE);
+		cur.seal();
+		mapIfEnabled(cur);
+		if (sortedKeys != null)
+			sortedKeys.track(nextId);
+		segments.put(nextId, next);
+		active = next;
+		writesSinceLastSync = 0;
+		log.info("[ROTATE] sealed fileId={} size={}B, active fileId={}", cur.fileId(), cur.size(), nextId);
+		scheduleHint(cur);
+		scheduleKeyFile(cur);
+	}
+
+	/**
+	 * Switch a sealed segment to the memory-mapped read path (kv.mmap-sealed-segments).
+	 * The active segment always reads through its FileChannel. Mapping failures
+	 * (e.g. address space exhausted) are not fatal: the channel path keeps working.
+	 */
+	private void mapIfEnabled(SegmentFile sf) {
+		if (!mmapSealedSegments)
+			return;
+		try {
+			sf.mapReadOnly();
+		} catch (IOException | RuntimeException e) {
+			log.warn("[MMAP] could not map fileId={}, falling back to FileChannel reads", sf.fileId(), e);
+		}
+	}
+
+	private void scheduleHint(SegmentFile sf) {
+		try {
+			maintenance.execute(() -> writeHint(sf));
+		} catch (RejectedExecutionException e) {
+			// shutting down; the segment is simply scanned on the next start
+		}
+	}
+
+	/**
+	 * Build the hint file of a sealed segment from a sequential scan. Runs on the
+	 * maintenance thread, serialized with compaction so a merge cannot swap the
+	 * segment out underneath it.
+	 */
+	private void writeHint(SegmentFile sf) {
+		compactionLock.lock();
+		try {
+			if (segments.get(sf.fileId()) != sf)
+				return; // merged away in the meantime
+			try (HintFile.Writer w = new HintFile.Writer(hintPath(dataDir, sf.fileId()), sf.fileId())) {
+				scanSegment(sf, (off, key, value, flags, expiresAt) -> w.add(key, off, value.remaining(), flags,
+						expiresAt));
+				w.commit(sf.size());
+			}
+			log.debug("[HINT] written fileId={}", sf.fileId());
+		} catch (Exception e) {
+			log.warn("[HINT] failed fileId={}; segment will be scanned on next start", sf.fileId(), e);
+		} finally {
+			compactionLock.unlock();
+		}
+	}
+
+	private void scheduleKeyFile(SegmentFile sf) {
+		if (sortedKeys == null)
+			return;
+		try {
+			maintenance.execute(() -> writeKeyFile(sf));
+		} catch (RejectedExecutionException e) {
+			// shutting down; the file is built on the next start
+		}
+	}
+
+	/**
+	 * kv.range-index=disk: write the keys a sealed segment collected on heap to
+	 * its key file, then let the file replace them. No scan is needed, as every
+	 * put was added before the segment was sealed. Serialized with compaction
+	 * like {@link #writeHint}.
+	 */
+	private void writeKeyFile(SegmentFile sf) {
+		compactionLock.lock();
+		try {
+			NavigableSet<String> keys = sortedKeys.pending(sf.fileId());
+			if (segments.get(sf.fileId()) != sf || keys == null)
+				return; // merged away in the meantime
+			Path path = keyPath(dataDir, sf.fileId());
+			try (KeyFile.Writer w = new KeyFile.Writer(path, sf.fileId())) {
+				for (String k : keys)
+					w.add(k.getBytes(StandardCharsets.UTF_8));
+				w.commit(sf.size());
+			}
+			KeyFile kf = KeyFile.open(path, sf.fileId(), sf.size());
+			if (kf == null)
+				throw new IOException("key file " + path + " does not read back");
+			sortedKeys.publish(kf);
+			log.debug("[KEYS] written fileId={} keys={} blocks={}", sf.fileId(), kf.count(), kf.blocks());
+		} catch (Exception e) {
+			log.warn("[KEYS] failed fileId={}; its keys stay on heap until the next start", sf.fileId(), e);
+		} finally {
+			compactionLock.unlock();
 		}
 	}
 
@@ -277,6 +1498,14 @@ public final class BitcaskStore implements AutoCloseable {
 		if (!Files.exists(dir))
 			Files.createDirectories(dir);
 
+		MergeManifest merge = MergeManifest.read(dir);
+		if (merge != null) {
+			log.warn("[RECOVER] completing the install of an interrupted merge outputs={} inputs={}",
+					merge.outputs(), merge.inputs());
+			installMerge(dir, merge);
+			MergeManifest.delete(dir);
+		}
+
 		// Discover all segment files with numeric names (with or without extension).
 		List<Path> segs = new ArrayList<>();
 		try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
@@ -286,6 +1515,11 @@ public final class BitcaskStore implements AutoCloseable {
 				String n = p.getFileName().toString();
 				if (n.startsWith("segment-") && n.endsWith(".log")) {
 					segs.add(p);
+				} else if (n.startsWith("segment-") && (n.endsWith(COMPACT_SUFFIX) || n.endsWith(".tmp"))) {
+					// leftover of a merge that never wrote its manifest, or of a hint write;
+					// the originals are still in place
+					log.warn("[RECOVER] removing incomplete file {}", n);
+					Files.delete(p);
 				}
 			}
 		}
@@ -294,25 +1528,85 @@ public final class BitcaskStore implements AutoCloseable {
 		Collections.sort(segs, Comparator.comparingInt(BitcaskStore::parseFileId));
 
 		// Open segments and recover index
-		for (Path p : segs) {
+		for (int i = 0; i < segs.size(); i++) {
+			Path p = segs.get(i);
 			int fid = parseFileId(p);
-			SegmentFile sf = new SegmentFile(fid, p, READ, WRITE); // open RW; last one becomes active
+			SegmentFile sf;
+			if (i == segs.size() - 1) {
+				sf = new SegmentFile(fid, p, metrics, READ, WRITE); // last one becomes active
+			} else {
+				sf = new SegmentFile(fid, p, metrics, READ);
+				sf.markSealed();
+				mapIfEnabled(sf);
+			}
 			segments.put(fid, sf);
 		}
 
 		if (segments.isEmpty()) {
-			// create first segment file "1.data"
+			// create first segment file "segment-000001.log"
 			int fid = 1;
 			Path p = filePath(dir, fid);
-			SegmentFile sf = new SegmentFile(fid, p, CREATE, READ, WRITE);
+			SegmentFile sf = new SegmentFile(fid, p, metrics, CREATE_NEW, READ, WRITE);
 			segments.put(fid, sf);
+			if (sortedKeys != null)
+				sortedKeys.track(fid);
 			active = sf;
 		} else {
-			// recover all, then set active = last
-			for (SegmentFile sf : segments.values()) {
-				recoverSegment(sf);
+			// every segment is read into a partial index off-thread (sealed ones from
+			// their hint if valid); partials are merged in fileId order so newer wins
+			SegmentFile last = segments.get(segments.lastKey());
+			RecoveryProgress progress = new RecoveryProgress(segments.values());
+			List<SegmentFile> all = new ArrayList<>(segments.values());
+			int threads = Math.max(1, Math.min(recoveryThreads, all.size()));
+			ExecutorService pool = threads == 1 ? null : Executors.newFixedThreadPool(threads, r -> {
+				Thread t = new Thread(r, "kv-recover");
+				t.setDaemon(true);
+				return t;
+			});
+			int hinted = 0;
+			long validEnd = 0;
+			try {
+				// bounded look-ahead keeps at most a few unmerged partials in memory
+				int window = threads * 2;
+				List<Future<SegmentIndex>> pending = new ArrayList<>(all.size());
+				for (int i = 0; i < all.size(); i++) {
+					for (int j = pending.size(); j < Math.min(all.size(), i + window); j++) {
+						SegmentFile sf = all.get(j);
+						boolean useHint = sf != last;
+						pending.add(pool == null ? CompletableFuture.completedFuture(readSegmentIndex(sf, useHint))
+								: pool.submit(() -> readSegmentIndex(sf, useHint)));
+					}
+					SegmentIndex part = awaitRecovery(pending.get(i));
+					pending.set(i, null);
+					boolean buildKeys = sortedKeys != null && !loadKeyFile(part.segment, part.segment == last);
+					merge(part);
+					if (buildKeys && part.segment != last)
+						scheduleKeyFile(part.segment);
+					if (part.fromHint)
+						hinted++;
+					else if (part.segment != last)
+						scheduleHint(part.segment);
+					else
+						validEnd = part.validEnd;
+					progress.segmentDone(part.segment);
+				}
+			} finally {
+				if (pool != null)
+					pool.shutdownNow();
 			}
-			active = segments.get(segments.lastKey());
+
+			// active segment: drop a torn tail so new appends stay reachable
+			if (validEnd < last.size()) {
+				log.warn("[RECOVER] truncating torn tail of fileId={} from {} to {} bytes", last.fileId(), last.size(),
+						validEnd);
+				last.truncate(validEnd);
+			}
+			active = last;
+			compactedThrough = last.fileId() - 1;
+			long ms = progress.elapsedMillis();
+			log.info("[RECOVER] done segments={} fromHints={} bytes={} keys={} threads={} in {} ms ({} MB/s)",
+					segments.size(), hinted, progress.totalBytes, index.size(), threads, ms,
+					String.format("%.1f", progress.totalBytes / 1048576.0 / Math.max(ms, 1) * 1000));
 		}
 
 	}
@@ -331,94 +1625,282 @@ public final class BitcaskStore implements AutoCloseable {
 		return dir.resolve(formatSegmentName(id));
 	}
 
+	/** Staging name for a merge output; never picked up by recovery. */
+	private static Path compactPath(Path dir, int id) {
+		return compactPath(filePath(dir, id));
+	}
+
+	private static Path compactPath(Path p) {
+		return p.resolveSibling(p.getFileName() + COMPACT_SUFFIX);
+	}
+
+	private static Path hintPath(Path dir, int id) {
+		return dir.resolve(String.format("segment-%06d", id) + HintFile.SUFFIX);
+	}
+
+	private static Path keyPath(Path dir, int id) {
+		return dir.resolve(String.format("segment-%06d", id) + KeyFile.SUFFIX);
+	}
+
 	private static String formatSegmentName(int id) {
 		return String.format("segment-%06d.log", id);
 	}
 
-	private void recoverSegment(SegmentFile sf) throws IOException {
+	/**
+	 * Latest record of every key in one segment, built on a recovery thread. Keys
+	 * overwritten or deleted inside the segment are already resolved here, and
+	 * the bytes they occupy are accounted as dead.
+	 */
+	private static final class SegmentIndex {
+		final SegmentFile segment;
+		final HashMap<String, Position> latest = new HashMap<>();
+		long deadBytes;
+		boolean fromHint;
+		long validEnd; // scanned segments: offset just past the last valid record
+
+		SegmentIndex(SegmentFile segment) {
+			this.segment = segment;
+		}
+
+		void add(byte[] key, long offset, int valueLen, byte flags, long expiresAt) {
+			boolean tombstone = (flags & FLAG_TOMBSTONE) != 0;
+			Position p = new Position(segment.fileId(), offset, tombstone ? 0 : valueLen, tombstone, expiresAt);
+			Position old = latest.put(new String(key, StandardCharsets.UTF_8), p);
+			if (old != null)
+				deadBytes += recordSize(key.length, old);
+		}
+	}
+
+	/** Read a segment's records from its hint if that is valid, else by scanning it. */
+	private SegmentIndex readSegmentIndex(SegmentFile sf, boolean useHint) throws IOException {
+		SegmentIndex part = new SegmentIndex(sf);
+		if (useHint) {
+			try {
+				part.fromHint = HintFile.load(hintPath(dataDir, sf.fileId()), sf.fileId(), sf.size(), part::add);
+			} catch (IOException e) {
+				log.warn("[RECOVER] unreadable hint for fileId={}, scanning segment", sf.fileId(), e);
+			}
+			if (part.fromHint)
+				return part;
+		}
+		// a fresh partial: drop anything a failed replay left behind
+		SegmentIndex scanned = new SegmentIndex(sf);
+		scanned.validEnd = scanSegment(sf,
+				(off, key, value, flags, expiresAt) -> scanned.add(key, off, value.remaining(), flags, expiresAt));
+		return scanned;
+	}
+
+	private void merge(SegmentIndex part) {
+		for (Map.Entry<String, Position> e : part.latest.entrySet()) {
+			publish(e.getKey(), utf8Length(e.getKey()), e.getValue());
+			if (sortedKeys != null && !e.getValue().tombstone)
+				sortedKeys.added(part.segment.fileId(), e.getKey());
+		}
+		markDead(part.segment.fileId(), part.deadBytes);
+	}
+
+	/**
+	 * kv.range-index=disk at startup: publish the key file of a sealed segment if
+	 * it is valid. Otherwise, and always for the active segment, the segment's
+	 * keys are collected on heap as it is merged into the index.
+	 *
+	 * @return true if the segment's key file was taken
+	 */
+	private boolean loadKeyFile(SegmentFile sf, boolean isActive) throws IOException {
+		Path path = keyPath(dataDir, sf.fileId());
+		KeyFile kf = null;
+		if (isActive) {
+			Files.deleteIfExists(path); // appends would leave it behind
+		} else {
+			try {
+				kf = KeyFile.open(path, sf.fileId(), sf.size());
+			} catch (IOException e) {
+				log.warn("[RECOVER] unreadable key file for fileId={}, rebuilding it", sf.fileId(), e);
+			}
+		}
+		if (kf == null) {
+			sortedKeys.track(sf.fileId());
+			return false;
+		}
+		sortedKeys.publish(kf);
+		return true;
+	}
+
+	private static SegmentIndex awaitRecovery(Future<SegmentIndex> f) throws IOException {
+		try {
+			return f.get();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted during recovery");
+		} catch (ExecutionException ee) {
+			Throwable c = ee.getCause();
+			if (c instanceof IOException ioe)
+				throw ioe;
+			if (c instanceof RuntimeException re)
+				throw re;
+			throw new IOException("recovery failed", c);
+		}
+	}
+
+	private static int utf8Length(String s) {
+		int n = s.length();
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c >= 0x800) {
+				n += Character.isSurrogate(c) ? 1 : 2; // a surrogate pair is 4 bytes in total
+				if (Character.isHighSurrogate(c))
+					i++;
+			} else if (c >= 0x80) {
+				n++;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Startup progress: one INFO summary every few seconds instead of a line per
+	 * record, so a multi-GB recovery stays visible without flooding the log.
+	 */
+	private final class RecoveryProgress {
+		private static final long REPORT_EVERY_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+		final int totalSegments;
+		final long totalBytes;
+		final long startNanos = System.nanoTime();
+		long lastReportNanos = startNanos;
+		int doneSegments;
+		long doneBytes;
+
+		RecoveryProgress(Collection<SegmentFile> all) {
+			long bytes = 0;
+			for (SegmentFile sf : all)
+				bytes += sf.size();
+			this.totalSegments = all.size();
+			this.totalBytes = bytes;
+		}
+
+		void segmentDone(SegmentFile sf) {
+			doneSegments++;
+			doneBytes += sf.size();
+			long now = System.nanoTime();
+			if (now - lastReportNanos >= REPORT_EVERY_NANOS) {
+				lastReportNanos = now;
+				log.info("[RECOVER] progress segments={}/{} bytes={}/{} keys={}", doneSegments, totalSegments, doneBytes,
+						totalBytes, index.size());
+			} else if (log.isDebugEnabled()) {
+				log.debug("[RECOVER] fileId={} bytes={} keys={}", sf.fileId(), sf.size(), index.size());
+			}
+		}
+
+		long elapsedMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+		}
+	}
+
+	/**
+	 * Callback for {@link #scanSegment}: one CRC-verified record. {@code value}
+	 * is a view into the scan buffer and is only valid during the call;
+	 * {@code expiresAt} is {@link Position#NO_EXPIRY} for a record without TTL.
+	 */
+	@FunctionalInterface
+	private interface RecordVisitor {
+		void accept(long offset, byte[] key, ByteBuffer value, byte flags, long expiresAt) throws IOException;
+	}
+
+	/**
+	 * Sequentially read every record of a segment, verifying its CRC. Stops at the
+	 * first torn or corrupt record (classic bitcask behaviour). The file is read
+	 * in {@link #SCAN_BUF_SIZE} chunks into one reused buffer; only the key is
+	 * copied out per record.
+	 *
+	 * @return offset just past the last valid record
+	 */
+	private static long scanSegment(SegmentFile sf, RecordVisitor visitor) throws IOException {
 		// we read the segment using a separate FileChannel on its path
 		try (FileChannel ch = FileChannel.open(sf.path(), READ)) {
-			long pos = 0L;
 			long size = ch.size();
+			ByteBuffer buf = ByteBuffer.allocate((int) Math.min(SCAN_BUF_SIZE, Math.max(size, HEADER_SIZE)))
+					.order(LITTLE_ENDIAN);
+			buf.limit(0);
+			ByteBuffer view = buf.duplicate();
+			CRC32 crc32 = new CRC32();
+			CRC32C crc32c = new CRC32C();
+			long bufStart = 0; // file offset of buf[0]
+			long pos = 0L;
 			while (pos + HEADER_SIZE <= size) {
-				// read header
-				ByteBuffer hdr = ByteBuffer.allocate(HEADER_SIZE).order(LITTLE_ENDIAN);
-				if (!readFully(ch, hdr, pos))
-					break; // truncated
-				hdr.flip();
-
-				int klen = hdr.getInt();
-				int vlen = hdr.getInt();
-				byte flags = hdr.get();
-				int crc = hdr.getInt();
-
-				if (klen < 0 || vlen < 0) {
-					System.err.println("[RECOVER] invalid lens at file=" + sf.fileId() + " off=" + pos);
-					break;
+				int rel = (int) (pos - bufStart);
+				if (buf.limit() - rel < HEADER_SIZE) {
+					if ((buf = fill(ch, buf, pos, HEADER_SIZE)) == null)
+						break; // truncated
+					view = buf.duplicate();
+					bufStart = pos;
+					rel = 0;
 				}
 
-				long keyPos = pos + HEADER_SIZE;
-				long valPos = keyPos + klen;
-				long nextPos = valPos + vlen;
+				int klen = buf.getInt(rel);
+				int vlen = buf.getInt(rel + 4);
+				byte flags = buf.get(rel + 8);
+				int stored = buf.getInt(rel + 9);
 
-				if (nextPos > size) {
-					// torn write at end
-					System.err
-							.println("[RECOVER] torn write at file=" + sf.fileId() + " off=" + pos + " stopping scan");
+				int keyOff = SegmentFile.keyOffset(flags);
+				long nextPos = pos + keyOff + (long) klen + vlen;
+				if (klen < 0 || vlen < 0 || nextPos - pos > Integer.MAX_VALUE) {
+					log.warn("[RECOVER] invalid lens at file={} off={}", sf.fileId(), pos);
 					break;
 				}
-
-				// read key
-				ByteBuffer kb = ByteBuffer.allocate(klen);
-				if (!readFully(ch, kb, keyPos))
+				if (nextPos > size) {
+					log.warn("[RECOVER] torn write at file={} off={}, stopping scan", sf.fileId(), pos);
 					break;
-				kb.flip();
-				byte[] key = new byte[klen];
-				kb.get(key);
-
-				// read value
-				byte[] value = new byte[vlen];
-				if (vlen > 0) {
-					ByteBuffer vb = ByteBuffer.allocate(vlen);
-					if (!readFully(ch, vb, valPos))
+				}
+				if (buf.limit() - rel < nextPos - pos) {
+					if ((buf = fill(ch, buf, pos, (int) (nextPos - pos))) == null)
 						break;
-					vb.flip();
-					vb.get(value);
+					view = buf.duplicate();
+					bufStart = pos;
+					rel = 0;
 				}
 
-				// CRC check
-				int got = Crc32s.of(key, value);
-				if (got != crc) {
-					System.err.println("[RECOVER] CRC mismatch file=" + sf.fileId() + " off=" + pos + " expected=" + crc
-							+ " got=" + got + " stopping scan");
+				// CRC over [expiry||]key||value, straight from the buffer
+				int keyAt = rel + keyOff;
+				Checksum crc = (flags & SegmentFile.FLAG_CRC32C) != 0 ? crc32c : crc32;
+				crc.reset();
+				crc.update(buf.array(), rel + HEADER_SIZE, keyOff - HEADER_SIZE + klen + vlen);
+				int got = (int) crc.getValue();
+				if (got != stored) {
+					log.warn("[RECOVER] CRC mismatch file={} off={} expected={} got={}, stopping scan", sf.fileId(),
+							pos, stored, got);
 					break; // classic bitcask: stop on first corruption
 				}
 
-				String k = new String(key, StandardCharsets.UTF_8);
-				boolean tombstone = (flags & FLAG_TOMBSTONE) != 0;
-				if (tombstone) {
-					index.put(k, new Position(sf.fileId(), pos, 0, true));
-					keySet.remove(k);
-					log.info("[RECOVER] file= {}, off= {}, key= {}, ts=true, vlen= 0", sf.fileId(), pos, k);
-				} else {
-					index.put(k, new Position(sf.fileId(), pos, vlen, false));
-					keySet.put(k, Boolean.TRUE);
-					log.info("[RECOVER] file= {}, off= {}, key= {}, ts=false, vlen= {}", sf.fileId(), pos, k, vlen);
-				}
-
+				byte[] key = Arrays.copyOfRange(buf.array(), keyAt, keyAt + klen);
+				view.clear();
+				view.position(keyAt + klen).limit(keyAt + klen + vlen);
+				long expiresAt = keyOff > HEADER_SIZE ? buf.getLong(rel + HEADER_SIZE) : Position.NO_EXPIRY;
+				visitor.accept(pos, key, view, flags, expiresAt);
 				pos = nextPos;
 			}
+			return pos;
 		}
 	}
 
-	private static boolean readFully(FileChannel ch, ByteBuffer dst, long pos) throws IOException {
+	/**
+	 * Refill the scan buffer from file offset {@code pos}, with at least
+	 * {@code need} bytes; grows the buffer for a record larger than it.
+	 *
+	 * @return the filled buffer (flipped), or null at EOF
+	 */
+	private static ByteBuffer fill(FileChannel ch, ByteBuffer buf, long pos, int need) throws IOException {
+		if (need > buf.capacity())
+			buf = ByteBuffer.allocate(need).order(LITTLE_ENDIAN);
+		buf.clear();
 		long p = pos;
-		while (dst.hasRemaining()) {
-			int n = ch.read(dst, p);
+		while (buf.position() < need) {
+			int n = ch.read(buf, p);
 			if (n < 0)
-				return false;
+				return null;
 			p += n;
 		}
-		return true;
+		buf.flip();
+		return buf;
 	}
 }
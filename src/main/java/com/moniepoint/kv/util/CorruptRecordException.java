@@ -0,0 +1,30 @@
+package com.moniepoint.kv.util;
+
+import java.io.IOException;
+
+/**
+ * A record whose stored checksum does not match its key and value. Thrown by
+ * verified reads instead of returning the damaged value.
+ */
+public class CorruptRecordException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int fileId;
+	private final long offset;
+
+	CorruptRecordException(int fileId, long offset, int expected, int actual) {
+		super(String.format("checksum mismatch in segment %d at offset %d (stored %08x, computed %08x)", fileId,
+				offset, expected, actual));
+		this.fileId = fileId;
+		this.offset = offset;
+	}
+
+	public int fileId() {
+		return fileId;
+	}
+
+	public long offset() {
+		return offset;
+	}
+}
@@ -0,0 +1,21 @@
+package com.moniepoint.kv.util;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * How a merge install moves its staged outputs into place. Only tests swap
+ * it, to fail an install part-way through as a crash there would.
+ */
+@FunctionalInterface
+interface FileMover {
+
+	FileMover ATOMIC = (from, to) -> Files.move(from, to, REPLACE_EXISTING, ATOMIC_MOVE);
+
+	/** Replace {@code to} with {@code from} in one step. */
+	void move(Path from, Path to) throws IOException;
+}
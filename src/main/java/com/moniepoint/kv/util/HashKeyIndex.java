@@ -0,0 +1,68 @@
+package com.moniepoint.kv.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import com.moniepoint.kv.model.Position;
+
+/**
+ * Default index: a concurrent hash map of {@link Position} objects for point
+ * lookups plus a sorted set of live keys for ranges. Simple and fast, at the
+ * price of several heap objects per key. The sorted set is left out when
+ * ranges read key files instead (kv.range-index=disk).
+ */
+final class HashKeyIndex implements KeyIndex {
+
+	// fast point lookup
+	private final Map<String, Position> index = new ConcurrentHashMap<>();
+	// sorted key set for ranges (live keys only); null if ranges do not come from the index
+	private final ConcurrentSkipListMap<String, Boolean> keySet;
+
+	HashKeyIndex(boolean sortedKeys) {
+		this.keySet = sortedKeys ? new ConcurrentSkipListMap<>() : null;
+	}
+
+	@Override
+	public Position get(String key) {
+		return index.get(key);
+	}
+
+	@Override
+	public Position put(String key, Position p) {
+		Position old = index.put(key, p);
+		if (keySet == null)
+			return old;
+		if (p.tombstone)
+			keySet.remove(key);
+		else
+			keySet.put(key, Boolean.TRUE);
+		return old;
+	}
+
+	@Override
+	public boolean replace(String key, Position expected, Position to) {
+		return index.replace(key, expected, to);
+	}
+
+	@Override
+	public boolean remove(String key, Position expected) {
+		if (!index.remove(key, expected))
+			return false;
+		if (keySet != null && !expected.tombstone)
+			keySet.remove(key); // an expired key; tombstones are not in the set
+		return true;
+	}
+
+	@Override
+	public int size() {
+		return index.size();
+	}
+
+	@Override
+	public Iterable<String> keys(String from, String to) {
+		if (keySet == null)
+			throw new UnsupportedOperationException("ranges are served from key files");
+		return keySet.subMap(from, true, to, true).keySet();
+	}
+}
@@ -0,0 +1,199 @@
+package com.moniepoint.kv.util;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import com.moniepoint.kv.model.Position;
+
+/**
+ * Bitcask-style hint file: a compact summary of one sealed segment so startup
+ * can rebuild the index without reading values. Layout (little-endian):
+ *
+ * <pre>
+ * header : int magic, int fileId
+ * entry  : int keyLen, long offset, int valueLen, byte flags,
+ *          [long expiresAt, if flags has SegmentFile.FLAG_EXPIRES], byte[keyLen] key
+ * trailer: long segmentSize, int count, int crc32 (over everything before it)
+ * </pre>
+ *
+ * A hint is only trusted if magic, fileId, segment size, count and CRC all
+ * match; otherwise the caller falls back to scanning the segment.
+ */
+final class HintFile {
+
+	static final String SUFFIX = ".hint";
+
+	private static final int MAGIC = 0x4B564831; // "KVH1"
+	private static final int HEADER_SIZE = 4 + 4;
+	private static final int ENTRY_FIXED = 4 + 8 + 4 + 1;
+	private static final int EXPIRY_SIZE = SegmentFile.EXPIRY_SIZE;
+	private static final int TRAILER_SIZE = 8 + 4 + 4;
+	private static final int BUF_SIZE = 1 << 16;
+
+	private HintFile() {
+	}
+
+	/** Callback for {@link #load}: one indexed record of the segment. */
+	@FunctionalInterface
+	interface EntryVisitor {
+		void accept(byte[] key, long offset, int valueLen, byte flags, long expiresAt);
+	}
+
+	/**
+	 * Replay a hint file. The file is CRC-checked before the first entry is handed
+	 * out, so a corrupt hint never leaves a partially applied index.
+	 *
+	 * @return false if the hint is missing, stale or corrupt
+	 */
+	static boolean load(Path hint, int fileId, long segmentSize, EntryVisitor visitor) throws IOException {
+		if (!Files.isRegularFile(hint))
+			return false;
+		int count = verify(hint, fileId, segmentSize);
+		if (count < 0)
+			return false;
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(hint), BUF_SIZE))) {
+			ByteBuffer fixed = ByteBuffer.allocate(ENTRY_FIXED + EXPIRY_SIZE).order(LITTLE_ENDIAN);
+			in.readFully(fixed.array(), 0, HEADER_SIZE);
+			for (int i = 0; i < count; i++) {
+				in.readFully(fixed.array(), 0, ENTRY_FIXED);
+				fixed.clear();
+				int keyLen = fixed.getInt();
+				long offset = fixed.getLong();
+				int valueLen = fixed.getInt();
+				byte flags = fixed.get();
+				long expiresAt = Position.NO_EXPIRY;
+				if ((flags & SegmentFile.FLAG_EXPIRES) != 0) {
+					in.readFully(fixed.array(), 0, EXPIRY_SIZE);
+					expiresAt = fixed.getLong(0);
+				}
+				byte[] key = new byte[keyLen];
+				in.readFully(key);
+				visitor.accept(key, offset, valueLen, flags, expiresAt);
+			}
+		}
+		return true;
+	}
+
+	/** @return entry count of a valid hint, or -1 */
+	private static int verify(Path hint, int fileId, long segmentSize) throws IOException {
+		try (FileChannel ch = FileChannel.open(hint, StandardOpenOption.READ)) {
+			long len = ch.size();
+			if (len < HEADER_SIZE + TRAILER_SIZE)
+				return -1;
+
+			ByteBuffer hdr = ByteBuffer.allocate(HEADER_SIZE).order(LITTLE_ENDIAN);
+			ByteBuffer trl = ByteBuffer.allocate(TRAILER_SIZE).order(LITTLE_ENDIAN);
+			readFully(ch, hdr, 0);
+			readFully(ch, trl, len - TRAILER_SIZE);
+			hdr.flip();
+			trl.flip();
+			if (hdr.getInt() != MAGIC || hdr.getInt() != fileId || trl.getLong() != segmentSize)
+				return -1;
+			int count = trl.getInt();
+			int stored = trl.getInt();
+
+			CRC32 crc = new CRC32();
+			ByteBuffer chunk = ByteBuffer.allocateDirect(BUF_SIZE);
+			long pos = 0, end = len - 4;
+			while (pos < end) {
+				chunk.clear();
+				if (end - pos < chunk.capacity())
+					chunk.limit((int) (end - pos));
+				int n = ch.read(chunk, pos);
+				if (n < 0)
+					return -1;
+				chunk.flip();
+				crc.update(chunk);
+				pos += n;
+			}
+			return (int) crc.getValue() == stored && count >= 0 ? count : -1;
+		} catch (EOFException e) {
+			return -1;
+		}
+	}
+
+	private static void readFully(FileChannel ch, ByteBuffer dst, long pos) throws IOException {
+		while (dst.hasRemaining()) {
+			int n = ch.read(dst, pos + dst.position());
+			if (n < 0)
+				throw new EOFException();
+		}
+	}
+
+	/**
+	 * Streams entries to a temp file; {@link #commit} appends the trailer, fsyncs
+	 * and atomically moves it into place. Not thread-safe.
+	 */
+	static final class Writer implements AutoCloseable {
+		private final Path target;
+		private final Path tmp;
+		private final CRC32 crc = new CRC32();
+		private final OutputStream out;
+		private final ByteBuffer buf = ByteBuffer.allocate(TRAILER_SIZE + ENTRY_FIXED + EXPIRY_SIZE)
+				.order(LITTLE_ENDIAN);
+		private int count;
+		private boolean closed;
+
+		Writer(Path target, int fileId) throws IOException {
+			this.target = target;
+			this.tmp = target.resolveSibling(target.getFileName() + ".tmp");
+			this.out = new CheckedOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), BUF_SIZE), crc);
+			buf.clear();
+			buf.putInt(MAGIC).putInt(fileId);
+			out.write(buf.array(), 0, HEADER_SIZE);
+		}
+
+		void add(byte[] key, long offset, int valueLen, byte flags, long expiresAt) throws IOException {
+			buf.clear();
+			buf.putInt(key.length).putLong(offset).putInt(valueLen).put(flags);
+			if ((flags & SegmentFile.FLAG_EXPIRES) != 0)
+				buf.putLong(expiresAt);
+			out.write(buf.array(), 0, buf.position());
+			out.write(key);
+			count++;
+		}
+
+		/** Finish the hint for a segment of {@code segmentSize} bytes. */
+		void commit(long segmentSize) throws IOException {
+			buf.clear();
+			buf.putLong(segmentSize).putInt(count);
+			out.write(buf.array(), 0, 12);
+			buf.clear();
+			buf.putInt((int) crc.getValue());
+			out.write(buf.array(), 0, 4);
+			out.close();
+			closed = true;
+
+			try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+				ch.force(true);
+			}
+			Files.move(tmp, target, REPLACE_EXISTING, ATOMIC_MOVE);
+		}
+
+		/** Abandons the hint unless {@link #commit} succeeded. */
+		@Override
+		public void close() throws IOException {
+			if (!closed) {
+				closed = true;
+				out.close();
+			}
+			Files.deleteIfExists(tmp);
+		}
+	}
+}
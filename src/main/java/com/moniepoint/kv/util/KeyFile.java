@@ -0,0 +1,305 @@
+package com.moniepoint.kv.util;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Sorted keys of one sealed segment, so ranges need not hold every key on
+ * heap (kv.range-index=disk). Layout (little-endian):
+ *
+ * <pre>
+ * header : int magic, int fileId
+ * blocks : entries int keyLen, byte[keyLen] key (UTF-8), ascending in String order;
+ *          a new block starts once the current one reaches BLOCK_BYTES
+ * fences : per block: long offset, int keyLen, byte[keyLen] its first key
+ * trailer: long segmentSize, long fencesOffset, int blocks, int count, int crc32 (over everything before it)
+ * </pre>
+ *
+ * Only the fences stay on heap, one key per block. A range binary-searches
+ * them and then reads the blocks it covers in file order. An entry is a key
+ * whose last record in the segment is a put; whether that record is still the
+ * key's latest is for the index to say.
+ *
+ * Like a hint, a key file is only trusted if magic, fileId, segment size and
+ * CRC match; otherwise the store rebuilds it.
+ */
+final class KeyFile {
+
+	static final String SUFFIX = ".keys";
+
+	static final int BLOCK_BYTES = 4 * 1024;
+	private static final int MAGIC = 0x4B564B31; // "KVK1"
+	private static final int HEADER_SIZE = 4 + 4;
+	private static final int TRAILER_SIZE = 8 + 8 + 4 + 4 + 4;
+	private static final int BUF_SIZE = 1 << 16;
+	private static final String[] NO_KEYS = new String[0];
+
+	private final int fileId;
+	private final FileChannel ch;
+	private final String[] fenceKeys; // first key of each block
+	private final long[] fenceOffsets; // start of each block, then the end of the last one
+	private final int count;
+	private final AtomicInteger refs = new AtomicInteger(1); // owner + in-flight block reads
+	private final AtomicBoolean closed = new AtomicBoolean();
+
+	private KeyFile(int fileId, FileChannel ch, String[] fenceKeys, long[] fenceOffsets, int count) {
+		this.fileId = fileId;
+		this.ch = ch;
+		this.fenceKeys = fenceKeys;
+		this.fenceOffsets = fenceOffsets;
+		this.count = count;
+	}
+
+	/**
+	 * Open a key file after checking it end to end and load its fences.
+	 *
+	 * @return null if the file is missing, stale or corrupt
+	 */
+	static KeyFile open(Path path, int fileId, long segmentSize) throws IOException {
+		if (!Files.isRegularFile(path))
+			return null;
+		FileChannel ch = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			KeyFile kf = load(ch, fileId, segmentSize);
+			if (kf != null)
+				return kf;
+		} catch (EOFException | RuntimeException e) {
+			// truncated, or lengths that point outside the file
+		}
+		ch.close();
+		return null;
+	}
+
+	private static KeyFile load(FileChannel ch, int fileId, long segmentSize) throws IOException {
+		long len = ch.size();
+		if (len < HEADER_SIZE + TRAILER_SIZE)
+			return null;
+
+		ByteBuffer hdr = ByteBuffer.allocate(HEADER_SIZE).order(LITTLE_ENDIAN);
+		ByteBuffer trl = ByteBuffer.allocate(TRAILER_SIZE).order(LITTLE_ENDIAN);
+		readFully(ch, hdr, 0);
+		readFully(ch, trl, len - TRAILER_SIZE);
+		hdr.flip();
+		trl.flip();
+		if (hdr.getInt() != MAGIC || hdr.getInt() != fileId || trl.getLong() != segmentSize)
+			return null;
+		long fencesOffset = trl.getLong();
+		int blocks = trl.getInt();
+		int count = trl.getInt();
+		int stored = trl.getInt();
+		if (fencesOffset < HEADER_SIZE || fencesOffset > len - TRAILER_SIZE || blocks < 0 || count < blocks)
+			return null;
+
+		CRC32 crc = new CRC32();
+		ByteBuffer chunk = ByteBuffer.allocateDirect(BUF_SIZE);
+		long pos = 0, end = len - 4;
+		while (pos < end) {
+			chunk.clear();
+			if (end - pos < chunk.capacity())
+				chunk.limit((int) (end - pos));
+			int n = ch.read(chunk, pos);
+			if (n < 0)
+				throw new EOFException();
+			chunk.flip();
+			crc.update(chunk);
+			pos += n;
+		}
+		if ((int) crc.getValue() != stored)
+			return null;
+
+		ByteBuffer f = ByteBuffer.allocate((int) (len - TRAILER_SIZE - fencesOffset)).order(LITTLE_ENDIAN);
+		readFully(ch, f, fencesOffset);
+		f.flip();
+		String[] keys = new String[blocks];
+		long[] offsets = new long[blocks + 1];
+		for (int b = 0; b < blocks; b++) {
+			offsets[b] = f.getLong();
+			byte[] key = new byte[f.getInt()];
+			f.get(key);
+			keys[b] = new String(key, StandardCharsets.UTF_8);
+		}
+		offsets[blocks] = fencesOffset;
+		return new KeyFile(fileId, ch, keys, offsets, count);
+	}
+
+	private static void readFully(FileChannel ch, ByteBuffer dst, long pos) throws IOException {
+		while (dst.hasRemaining()) {
+			int n = ch.read(dst, pos + dst.position());
+			if (n < 0)
+				throw new EOFException();
+		}
+	}
+
+	int fileId() {
+		return fileId;
+	}
+
+	int count() {
+		return count;
+	}
+
+	int blocks() {
+		return fenceKeys.length;
+	}
+
+	/** The block that would hold {@code key}: the last one whose first key is not above it. */
+	int blockOf(String key) {
+		int i = Arrays.binarySearch(fenceKeys, key);
+		return i >= 0 ? i : Math.max(0, -i - 2);
+	}
+
+	/**
+	 * Keys of block {@code b}, ascending.
+	 *
+	 * @return null once the file is closed, i.e. its segment was merged away
+	 */
+	String[] readBlock(int b) throws IOException {
+		if (!tryAcquire())
+			return null;
+		try {
+			ByteBuffer buf = ByteBuffer.allocate((int) (fenceOffsets[b + 1] - fenceOffsets[b])).order(LITTLE_ENDIAN);
+			readFully(ch, buf, fenceOffsets[b]);
+			buf.flip();
+			List<String> keys = new ArrayList<>();
+			while (buf.hasRemaining()) {
+				int keyLen = buf.getInt();
+				keys.add(new String(buf.array(), buf.position(), keyLen, StandardCharsets.UTF_8));
+				buf.position(buf.position() + keyLen);
+			}
+			return keys.toArray(NO_KEYS);
+		} finally {
+			release();
+		}
+	}
+
+	private boolean tryAcquire() {
+		for (;;) {
+			int r = refs.get();
+			if (r <= 0)
+				return false;
+			if (refs.compareAndSet(r, r + 1))
+				return true;
+		}
+	}
+
+	private void release() {
+		if (refs.decrementAndGet() == 0)
+			closeChannel();
+	}
+
+	/** Drop the owner's reference; the last in-flight block read closes the channel. */
+	void close() {
+		if (closed.compareAndSet(false, true) && refs.decrementAndGet() == 0)
+			closeChannel();
+	}
+
+	private void closeChannel() {
+		try {
+			ch.close();
+		} catch (IOException ignored) {
+			// read-only; nothing was buffered
+		}
+	}
+
+	/**
+	 * Streams keys, which must come in ascending String order, to a temp file;
+	 * {@link #commit} appends fences and trailer, fsyncs and atomically moves it
+	 * into place. Not thread-safe.
+	 */
+	static final class Writer implements AutoCloseable {
+		private final Path target;
+		private final Path tmp;
+		private final CRC32 crc = new CRC32();
+		private final OutputStream out;
+		private final ByteBuffer buf = ByteBuffer.allocate(TRAILER_SIZE).order(LITTLE_ENDIAN);
+		private final List<byte[]> fenceKeys = new ArrayList<>();
+		private long[] fenceOffsets = new long[16];
+		private long written;
+		private long blockStart;
+		private int count;
+		private boolean closed;
+
+		Writer(Path target, int fileId) throws IOException {
+			this.target = target;
+			this.tmp = target.resolveSibling(target.getFileName() + ".tmp");
+			this.out = new CheckedOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), BUF_SIZE), crc);
+			buf.clear();
+			buf.putInt(MAGIC).putInt(fileId);
+			write(buf.array(), HEADER_SIZE);
+		}
+
+		void add(byte[] key) throws IOException {
+			if (count == 0 || written - blockStart >= BLOCK_BYTES) {
+				blockStart = written;
+				if (fenceKeys.size() == fenceOffsets.length)
+					fenceOffsets = Arrays.copyOf(fenceOffsets, fenceOffsets.length * 2);
+				fenceOffsets[fenceKeys.size()] = written;
+				fenceKeys.add(key);
+			}
+			buf.clear();
+			buf.putInt(key.length);
+			write(buf.array(), 4);
+			write(key, key.length);
+			count++;
+		}
+
+		private void write(byte[] b, int len) throws IOException {
+			out.write(b, 0, len);
+			written += len;
+		}
+
+		/** Finish the key file for a segment of {@code segmentSize} bytes. */
+		void commit(long segmentSize) throws IOException {
+			long fencesOffset = written;
+			for (int b = 0; b < fenceKeys.size(); b++) {
+				byte[] key = fenceKeys.get(b);
+				buf.clear();
+				buf.putLong(fenceOffsets[b]).putInt(key.length);
+				write(buf.array(), 12);
+				write(key, key.length);
+			}
+			buf.clear();
+			buf.putLong(segmentSize).putLong(fencesOffset).putInt(fenceKeys.size()).putInt(count);
+			write(buf.array(), 24);
+			buf.clear();
+			buf.putInt((int) crc.getValue());
+			write(buf.array(), 4);
+			out.close();
+			closed = true;
+
+			try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+				ch.force(true);
+			}
+			Files.move(tmp, target, REPLACE_EXISTING, ATOMIC_MOVE);
+		}
+
+		/** Abandons the key file unless {@link #commit} succeeded. */
+		@Override
+		public void close() throws IOException {
+			if (!closed) {
+				closed = true;
+				out.close();
+			}
+			Files.deleteIfExists(tmp);
+		}
+	}
+}
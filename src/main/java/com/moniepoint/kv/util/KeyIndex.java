@@ -0,0 +1,48 @@
+package com.moniepoint.kv.util;
+
+import com.moniepoint.kv.model.Position;
+
+/**
+ * Primary index of the store: key -> position of its latest record, tombstones
+ * included until compaction drops them.
+ *
+ * Mutations come from one thread at a time (the store's writer thread, or
+ * the single recovery thread). {@link #get} and {@link #keys} must be safe to call
+ * concurrently with a mutation and never block on it.
+ */
+interface KeyIndex {
+
+	/** @return the latest position of {@code key}, or null */
+	Position get(String key);
+
+	/** Map {@code key} to {@code p}. @return the previous position, or null */
+	Position put(String key, Position p);
+
+	/**
+	 * Swap the entry only if it still equals {@code expected} (compaction moving a
+	 * record that no concurrent write has superseded).
+	 */
+	boolean replace(String key, Position expected, Position to);
+
+	/** Drop the entry only if it still equals {@code expected}. */
+	boolean remove(String key, Position expected);
+
+	/** Entries, tombstones included. */
+	int size();
+
+	/**
+	 * Keys in {@code [from, to]} whose latest record is not a tombstone, ascending.
+	 * Weakly consistent: keys written or removed during the iteration may or may
+	 * not show up. Unsupported by a HASH index created without sorted keys.
+	 */
+	Iterable<String> keys(String from, String to);
+
+	/**
+	 * Index implementation selected by {@code kv.index-type}. Without
+	 * {@code sortedKeys} (ranges served from key files) a HASH index keeps no
+	 * sorted key set.
+	 */
+	static KeyIndex create(BitcaskStore.IndexType type, boolean sortedKeys) {
+		return type == BitcaskStore.IndexType.PACKED ? new PackedKeyIndex() : new HashKeyIndex(sortedKeys);
+	}
+}
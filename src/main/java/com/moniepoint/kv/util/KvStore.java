@@ -0,0 +1,103 @@
+package com.moniepoint.kv.util;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import com.moniepoint.kv.model.KvPair;
+
+/**
+ * The key-value store as seen by the service layer: a single
+ * {@link BitcaskStore}, or a {@link ShardedStore} spreading keys over several.
+ */
+public interface KvStore extends AutoCloseable {
+
+	/** Callback for {@link #scanRange}: one live pair; return false to stop the scan. */
+	@FunctionalInterface
+	interface RangeVisitor {
+		boolean accept(String key, byte[] value) throws IOException;
+	}
+
+	/**
+	 * Open the store in {@code dataDir}: a plain {@link BitcaskStore} for one
+	 * shard, a {@link ShardedStore} otherwise.
+	 */
+	static KvStore open(Path dataDir, StoreOptions opts) throws IOException {
+		if (opts.shards() > 1)
+			return new ShardedStore(dataDir, opts);
+		ShardedStore.checkLayout(dataDir, 1);
+		return new BitcaskStore(dataDir, opts);
+	}
+
+	void put(String key, byte[] value) throws IOException;
+
+	/**
+	 * Put with a TTL: from {@code expiresAt} (epoch millis) on, the key reads as
+	 * missing, and the background sweep or the next compaction drops it.
+	 * {@link com.moniepoint.kv.model.Position#NO_EXPIRY} means no TTL.
+	 */
+	void put(String key, byte[] value, long expiresAt) throws IOException;
+
+	Optional<byte[]> get(String key) throws IOException;
+
+	void delete(String key) throws IOException;
+
+	void batchPut(List<KvPair> items) throws IOException;
+
+	/**
+	 * Look up many keys at once and visit the live ones in on-disk order, so the
+	 * reads run sequentially and neighbouring records share one read. Missing
+	 * keys are not visited; duplicates are visited once.
+	 *
+	 * @return number of pairs visited
+	 */
+	long multiGet(Collection<String> keys, RangeVisitor visitor) throws IOException;
+
+	/** Live pairs in {@code [start, end]}, materialized; prefer {@link #scanRange} for wide ranges. */
+	List<KvPair> getRange(String start, String end) throws IOException;
+
+	/**
+	 * Visit the live pairs in {@code [start, end]} in key order, one at a time.
+	 *
+	 * @return number of pairs visited
+	 */
+	long scanRange(String start, String end, RangeVisitor visitor) throws IOException;
+
+	/**
+	 * Last key of a page holding the first {@code limit} live keys of
+	 * {@code [start, end]}, or null if the whole range fits in one page.
+	 */
+	String rangePageEnd(String start, String end, int limit);
+
+	/** Merge sealed segments; @return bytes reclaimed */
+	long compact() throws IOException;
+
+	/** Segment files, active ones included. */
+	int segmentCount();
+
+	/** Index entries, tombstones included. */
+	long indexSize();
+
+	/** Index entries that are tombstones (dropped by the next compaction). */
+	long tombstoneCount();
+
+	/** Heap held by the value cache, 0 when it is off. */
+	long cacheBytes();
+
+	/** Bytes on disk across all segments. */
+	long totalBytes();
+
+	/** Bytes held by overwritten/deleted records and tombstones (reclaimable). */
+	long deadBytes();
+
+	/** deadBytes / totalBytes, 0 for an empty store. */
+	default double deadByteRatio() {
+		long total = totalBytes();
+		return total == 0 ? 0.0 : (double) deadBytes() / total;
+	}
+
+	@Override
+	void close() throws IOException;
+}
@@ -0,0 +1,40 @@
+package com.moniepoint.kv.util;
+
+/**
+ * A run of whole records shipped from a leader's log, starting at
+ * {@code (fileId, offset)}. The follower's next cursor is
+ * {@code (generation, fileId, offset + bytes.length)}.
+ *
+ * {@code reset} means the cursor the follower asked for is gone (a compaction
+ * rewrote that segment, or the leader restarted without it): the chunk starts
+ * over at the leader's oldest segment, and the follower must replay the whole
+ * log and then drop the keys it did not see.
+ */
+public final class LogChunk {
+
+	/** Cursor of a follower that has never synced. */
+	public static final long NO_GENERATION = -1;
+
+	public final long generation;
+	public final int fileId;
+	public final long offset;
+	public final boolean reset;
+	public final byte[] bytes;
+	/** Shippable bytes of the leader's log after this chunk. */
+	public final long lagBytes;
+
+	public LogChunk(long generation, int fileId, long offset, boolean reset, byte[] bytes, long lagBytes) {
+		this.generation = generation;
+		this.fileId = fileId;
+		this.offset = offset;
+		this.reset = reset;
+		this.bytes = bytes;
+		this.lagBytes = lagBytes;
+	}
+
+	@Override
+	public String toString() {
+		return "LogChunk{generation=" + generation + ", fileId=" + fileId + ", offset=" + offset + ", reset=" + reset
+				+ ", bytes=" + bytes.length + ", lagBytes=" + lagBytes + "}";
+	}
+}
@@ -0,0 +1,90 @@
+package com.moniepoint.kv.util;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Commit point of a compaction. Merge outputs hold live records of any input,
+ * so a merge is only safe to install as a whole. Once every output is staged
+ * and fsynced, the merge writes this file naming outputs and inputs by fileId.
+ * A start that finds it redoes the install (see BitcaskStore#installMerge);
+ * without it, staged outputs are discarded and the inputs stay as they were.
+ * Layout (text):
+ *
+ * <pre>
+ * outputs 1 2
+ * inputs 1 2 3 4
+ * </pre>
+ */
+record MergeManifest(List<Integer> outputs, List<Integer> inputs) {
+
+	static final String FILE = "MERGE";
+
+	/** Write the manifest atomically and make it durable, directory entry included. */
+	void write(Path dir) throws IOException {
+		Path target = dir.resolve(FILE);
+		Path tmp = dir.resolve(FILE + ".tmp");
+		Files.writeString(tmp, "outputs " + join(outputs) + "\ninputs " + join(inputs) + "\n", StandardCharsets.UTF_8);
+		try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+			ch.force(true);
+		}
+		Files.move(tmp, target, REPLACE_EXISTING, ATOMIC_MOVE);
+		syncDir(dir);
+	}
+
+	/** @return the manifest of an uninstalled merge, or null if there is none */
+	static MergeManifest read(Path dir) throws IOException {
+		Files.deleteIfExists(dir.resolve(FILE + ".tmp")); // never got to be the commit point
+		Path path = dir.resolve(FILE);
+		if (!Files.exists(path))
+			return null;
+		List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+		try {
+			return new MergeManifest(parse(lines.get(0), "outputs"), parse(lines.get(1), "inputs"));
+		} catch (RuntimeException e) {
+			// written atomically, so this is not a torn write; guessing could lose either side
+			throw new IOException("unreadable merge manifest " + path, e);
+		}
+	}
+
+	static boolean exists(Path dir) {
+		return Files.exists(dir.resolve(FILE));
+	}
+
+	/** Retire the manifest once its merge is installed, or before its staged outputs are dropped. */
+	static void delete(Path dir) throws IOException {
+		if (Files.deleteIfExists(dir.resolve(FILE)))
+			syncDir(dir);
+	}
+
+	/** fsync a directory, so renames and deletes in it survive a crash. */
+	static void syncDir(Path dir) throws IOException {
+		try (FileChannel ch = FileChannel.open(dir, StandardOpenOption.READ)) {
+			ch.force(true);
+		}
+	}
+
+	private static String join(List<Integer> ids) {
+		return ids.stream().map(String::valueOf).collect(Collectors.joining(" "));
+	}
+
+	private static List<Integer> parse(String line, String name) {
+		String[] f = line.trim().split(" ");
+		if (!f[0].equals(name))
+			throw new IllegalArgumentException("expected " + name + ": " + line);
+		List<Integer> ids = new ArrayList<>(f.length - 1);
+		for (int i = 1; i < f.length; i++)
+			ids.add(Integer.parseInt(f[i]));
+		return ids;
+	}
+}
@@ -0,0 +1,38 @@
+package com.moniepoint.kv.util;
+
+import com.moniepoint.kv.model.Position;
+
+/**
+ * A single record waiting to be appended (put or tombstone), with its key
+ * already encoded to UTF-8.
+ */
+final class Mutation {
+	final String key;
+	final byte[] keyBytes;
+	final byte[] value;
+	final boolean tombstone;
+	final long expiresAt; // epoch millis, Position.NO_EXPIRY = never
+	final boolean compressed; // value is already in ValueCodec's stored form
+
+	Mutation(String key, byte[] keyBytes, byte[] value, boolean tombstone) {
+		this(key, keyBytes, value, tombstone, Position.NO_EXPIRY);
+	}
+
+	Mutation(String key, byte[] keyBytes, byte[] value, boolean tombstone, long expiresAt) {
+		this(key, keyBytes, value, tombstone, expiresAt, false);
+	}
+
+	Mutation(String key, byte[] keyBytes, byte[] value, boolean tombstone, long expiresAt, boolean compressed) {
+		this.key = key;
+		this.keyBytes = keyBytes;
+		this.value = value;
+		this.tombstone = tombstone;
+		this.expiresAt = expiresAt;
+		this.compressed = compressed;
+	}
+
+	/** On-disk size of the record: header (+ expiry) + key + value. */
+	int recordSize() {
+		return SegmentFile.keyOffset(expiresAt) + keyBytes.length + value.length;
+	}
+}
@@ -0,0 +1,321 @@
+package com.moniepoint.kv.util;
+
+import java.lang.invoke.VarHandle;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.moniepoint.kv.model.Position;
+
+/**
+ * Heap-lean index for large key counts: open addressing (linear probing) over
+ * a {@code long[]} with four words per slot, keys stored once as UTF-8 in a
+ * byte arena. The whole index is a handful of primitive arrays, so the GC has
+ * nothing to trace per key and no per-entry objects to allocate or promote.
+ *
+ * <pre>
+ * slot word 0: hash(32) | arena offset(32)   0 = empty, 1 = deleted
+ * slot word 1: fileId(32) | tombstone(1) | valueLen(31)
+ * slot word 2: record offset
+ * slot word 3: expiresAt (0 = no TTL)
+ * arena      : int keyLen, byte[keyLen] key, ...
+ * </pre>
+ *
+ * One writer at a time (see {@link KeyIndex}); readers never lock. They
+ * validate against a sequence counter that is odd while a mutation is in
+ * flight, the same seqlock pattern the store uses for its segment layout.
+ * Growth and cleanup rebuild into a fresh table that is swapped in whole, so
+ * a reader holding the old table still sees a complete (if stale) snapshot.
+ *
+ * Ranges have no ordered structure to walk: {@link #keys} scans the table and
+ * sorts the matches, O(entries) per call.
+ */
+final class PackedKeyIndex implements KeyIndex {
+
+	private static final int SLOT_WORDS = 4;
+	private static final int EMPTY = 0;
+	private static final int DELETED = 1;
+	private static final int ARENA_START = 8; // arena offsets below this are slot markers
+	private static final long TOMBSTONE_BIT = 1L << 31;
+	private static final int MIN_CAPACITY = 1024;
+	private static final int MAX_ARENA = Integer.MAX_VALUE - 8;
+
+	private static final class Table {
+		final long[] slots;
+		final int mask;
+		byte[] arena;
+		int arenaUsed = ARENA_START;
+		int arenaGarbage; // bytes of removed keys, reclaimed by the next rebuild
+		int live; // entries, tombstones included
+		int used; // live + deleted markers
+
+		Table(int capacity, int arenaBytes) {
+			this.slots = new long[capacity * SLOT_WORDS];
+			this.mask = capacity - 1;
+			this.arena = new byte[Math.max(ARENA_START, arenaBytes)];
+		}
+
+		int capacity() {
+			return mask + 1;
+		}
+	}
+
+	private volatile Table table = new Table(MIN_CAPACITY, MIN_CAPACITY * 16);
+	// seqlock: odd while the writer is changing a slot or swapping the table
+	private volatile long seq;
+
+	@Override
+	public Position get(String key) {
+		byte[] kb = key.getBytes(StandardCharsets.UTF_8);
+		int h = hash(kb);
+		for (;;) {
+			long s = seq;
+			if ((s & 1) != 0) {
+				Thread.onSpinWait();
+				continue;
+			}
+			Table t = table;
+			int i = find(t, t.arena, kb, h);
+			Position p = i < 0 ? null : decode(t.slots, i);
+			VarHandle.acquireFence();
+			if (seq == s)
+				return p;
+		}
+	}
+
+	@Override
+	public Position put(String key, Position p) {
+		byte[] kb = key.getBytes(StandardCharsets.UTF_8);
+		int h = hash(kb);
+		Table t = table;
+		int i = find(t, t.arena, kb, h);
+		if (i >= 0) {
+			Position old = decode(t.slots, i);
+			beginWrite();
+			t.slots[i * SLOT_WORDS + 1] = meta(p);
+			t.slots[i * SLOT_WORDS + 2] = p.offset;
+			t.slots[i * SLOT_WORDS + 3] = p.expiresAt;
+			endWrite();
+			return old;
+		}
+
+		if (t.used + 1 > t.capacity() - (t.capacity() >> 2)) // keep load <= 0.75
+			t = rebuild(t.live + 1);
+		int ref = appendKey(t, kb);
+		int slot = h & t.mask;
+		for (;;) {
+			int r = (int) t.slots[slot * SLOT_WORDS];
+			if (r == EMPTY || r == DELETED) {
+				if (r == EMPTY)
+					t.used++;
+				t.live++;
+				beginWrite();
+				t.slots[slot * SLOT_WORDS + 1] = meta(p);
+				t.slots[slot * SLOT_WORDS + 2] = p.offset;
+				t.slots[slot * SLOT_WORDS + 3] = p.expiresAt;
+				t.slots[slot * SLOT_WORDS] = ((long) h << 32) | (ref & 0xFFFFFFFFL);
+				endWrite();
+				return null;
+			}
+			slot = (slot + 1) & t.mask;
+		}
+	}
+
+	@Override
+	public boolean replace(String key, Position expected, Position to) {
+		byte[] kb = key.getBytes(StandardCharsets.UTF_8);
+		Table t = table;
+		int i = find(t, t.arena, kb, hash(kb));
+		if (i < 0 || !decode(t.slots, i).equals(expected))
+			return false;
+		beginWrite();
+		t.slots[i * SLOT_WORDS + 1] = meta(to);
+		t.slots[i * SLOT_WORDS + 2] = to.offset;
+		t.slots[i * SLOT_WORDS + 3] = to.expiresAt;
+		endWrite();
+		return true;
+	}
+
+	@Override
+	public boolean remove(String key, Position expected) {
+		byte[] kb = key.getBytes(StandardCharsets.UTF_8);
+		Table t = table;
+		int i = find(t, t.arena, kb, hash(kb));
+		if (i < 0 || !decode(t.slots, i).equals(expected))
+			return false;
+		beginWrite();
+		t.slots[i * SLOT_WORDS] = DELETED; // keeps probe chains through this slot intact
+		endWrite();
+		t.live--;
+		t.arenaGarbage += 4 + kb.length;
+		if (t.used - t.live > t.capacity() >> 2 || t.arenaGarbage > t.arenaUsed >> 1)
+			rebuild(t.live);
+		return true;
+	}
+
+	@Override
+	public int size() {
+		return table.live;
+	}
+
+	/** Snapshot of the matching keys; see the class comment for the cost. */
+	@Override
+	public Iterable<String> keys(String from, String to) {
+		List<String> out = new ArrayList<>();
+		Table t = table;
+		for (int i = 0; i <= t.mask; i++) {
+			String k = liveKeyAt(t, i);
+			if (k != null && k.compareTo(from) >= 0 && k.compareTo(to) <= 0)
+				out.add(k);
+		}
+		Collections.sort(out);
+		return out;
+	}
+
+	/** Key of a non-tombstone entry in slot {@code i}, read consistently, or null. */
+	private String liveKeyAt(Table t, int i) {
+		for (;;) {
+			// once a newer table is installed this one is never written again
+			boolean frozen = table != t;
+			long s = seq;
+			if (!frozen && (s & 1) != 0) {
+				Thread.onSpinWait();
+				continue;
+			}
+			String k = null;
+			long w0 = t.slots[i * SLOT_WORDS];
+			int ref = (int) w0;
+			if (ref >= ARENA_START && (t.slots[i * SLOT_WORDS + 1] & TOMBSTONE_BIT) == 0) {
+				byte[] arena = t.arena;
+				int len = keyLen(arena, ref);
+				if (len >= 0)
+					k = new String(arena, ref + 4, len, StandardCharsets.UTF_8);
+			}
+			VarHandle.acquireFence();
+			if (frozen || seq == s)
+				return k;
+		}
+	}
+
+	/**
+	 * Probe for {@code kb}. Safe against a concurrent writer: every arena access
+	 * is bounds-checked, and callers validate the result against {@link #seq}.
+	 *
+	 * @return slot index, or -1
+	 */
+	private static int find(Table t, byte[] arena, byte[] kb, int h) {
+		long[] slots = t.slots;
+		int slot = h & t.mask;
+		for (int n = 0; n <= t.mask; n++) {
+			long w0 = slots[slot * SLOT_WORDS];
+			int ref = (int) w0;
+			if (ref == EMPTY)
+				return -1;
+			if (ref != DELETED && (int) (w0 >>> 32) == h && keyEquals(arena, ref, kb))
+				return slot;
+			slot = (slot + 1) & t.mask;
+		}
+		return -1;
+	}
+
+	private static boolean keyEquals(byte[] arena, int ref, byte[] kb) {
+		int len = keyLen(arena, ref);
+		return len == kb.length && Arrays.equals(arena, ref + 4, ref + 4 + len, kb, 0, len);
+	}
+
+	/** @return length of the key stored at {@code ref}, or -1 if it is out of bounds (torn read) */
+	private static int keyLen(byte[] arena, int ref) {
+		if (ref < ARENA_START || ref > arena.length - 4)
+			return -1;
+		int len = (arena[ref] & 0xFF) | (arena[ref + 1] & 0xFF) << 8 | (arena[ref + 2] & 0xFF) << 16
+				| (arena[ref + 3] & 0xFF) << 24;
+		return len < 0 || len > arena.length - ref - 4 ? -1 : len;
+	}
+
+	private static int appendKey(Table t, byte[] kb) {
+		int need = 4 + kb.length;
+		if (need > MAX_ARENA - t.arenaUsed)
+			throw new IllegalStateException("packed index key arena is full (" + t.arenaUsed + " bytes)");
+		if (t.arenaUsed + need > t.arena.length) {
+			long grown = Math.max((long) t.arenaUsed + need, 2L * t.arena.length);
+			// readers still holding the old array only follow refs that already existed in it
+			t.arena = Arrays.copyOf(t.arena, (int) Math.min(grown, MAX_ARENA));
+		}
+		int ref = t.arenaUsed;
+		byte[] a = t.arena;
+		a[ref] = (byte) kb.length;
+		a[ref + 1] = (byte) (kb.length >>> 8);
+		a[ref + 2] = (byte) (kb.length >>> 16);
+		a[ref + 3] = (byte) (kb.length >>> 24);
+		System.arraycopy(kb, 0, a, ref + 4, kb.length);
+		t.arenaUsed += need;
+		return ref;
+	}
+
+	/**
+	 * Copy the live entries into a fresh table sized for {@code entries} at a load
+	 * of at most 0.5, dropping deleted markers and arena garbage, then swap it in.
+	 */
+	private Table rebuild(int entries) {
+		Table old = table;
+		int cap = MIN_CAPACITY;
+		while (cap < entries * 2L)
+			cap <<= 1;
+		Table t = new Table(cap, old.arenaUsed - old.arenaGarbage);
+		long[] src = old.slots;
+		for (int i = 0; i <= old.mask; i++) {
+			int ref = (int) src[i * SLOT_WORDS];
+			if (ref < ARENA_START)
+				continue;
+			int len = keyLen(old.arena, ref);
+			byte[] kb = Arrays.copyOfRange(old.arena, ref + 4, ref + 4 + len);
+			int h = (int) (src[i * SLOT_WORDS] >>> 32);
+			int nref = appendKey(t, kb);
+			int slot = h & t.mask;
+			while ((int) t.slots[slot * SLOT_WORDS] != EMPTY)
+				slot = (slot + 1) & t.mask;
+			t.slots[slot * SLOT_WORDS] = ((long) h << 32) | (nref & 0xFFFFFFFFL);
+			t.slots[slot * SLOT_WORDS + 1] = src[i * SLOT_WORDS + 1];
+			t.slots[slot * SLOT_WORDS + 2] = src[i * SLOT_WORDS + 2];
+			t.slots[slot * SLOT_WORDS + 3] = src[i * SLOT_WORDS + 3];
+			t.live++;
+			t.used++;
+		}
+		beginWrite();
+		table = t;
+		endWrite();
+		return t;
+	}
+
+	private void beginWrite() {
+		seq = seq + 1; // single writer
+		VarHandle.storeStoreFence(); // slot writes must not become visible before the odd seq
+	}
+
+	private void endWrite() {
+		seq = seq + 1;
+	}
+
+	private static long meta(Position p) {
+		return ((long) p.fileId << 32) | (p.tombstone ? TOMBSTONE_BIT : 0) | (p.valueLen & 0x7FFFFFFFL);
+	}
+
+	private static Position decode(long[] slots, int i) {
+		long m = slots[i * SLOT_WORDS + 1];
+		return new Position((int) (m >>> 32), slots[i * SLOT_WORDS + 2], (int) (m & 0x7FFFFFFFL),
+				(m & TOMBSTONE_BIT) != 0, slots[i * SLOT_WORDS + 3]);
+	}
+
+	/** FNV-1a with a final avalanche, so linear probing sees well-spread low bits. */
+	private static int hash(byte[] kb) {
+		int h = 0x811C9DC5;
+		for (byte b : kb)
+			h = (h ^ (b & 0xFF)) * 0x01000193;
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		return h;
+	}
+}
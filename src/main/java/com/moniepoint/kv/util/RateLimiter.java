@@ -0,0 +1,37 @@
+package com.moniepoint.kv.util;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Minimal bytes-per-second throttle for background I/O (compaction). Not
+ * thread-safe: one instance per background job.
+ */
+final class RateLimiter {
+
+	private final long bytesPerSec;
+	private final long startNanos = System.nanoTime();
+	private long consumed;
+
+	/** @param bytesPerSec {@code <= 0} means unlimited */
+	RateLimiter(long bytesPerSec) {
+		this.bytesPerSec = bytesPerSec;
+	}
+
+	/** Account for {@code bytes} and sleep if we are ahead of the allowed rate. */
+	void acquire(long bytes) throws InterruptedIOException {
+		if (bytesPerSec <= 0)
+			return;
+		consumed += bytes;
+		long dueNanos = (long) (consumed * (1_000_000_000.0 / bytesPerSec));
+		long aheadNanos = dueNanos - (System.nanoTime() - startNanos);
+		if (aheadNanos < TimeUnit.MILLISECONDS.toNanos(1))
+			return;
+		try {
+			TimeUnit.NANOSECONDS.sleep(aheadNanos);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("throttled I/O interrupted");
+		}
+	}
+}
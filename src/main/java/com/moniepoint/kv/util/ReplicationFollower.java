@@ -0,0 +1,292 @@
+package com.moniepoint.kv.util;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Checksum;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.moniepoint.kv.model.KvPair;
+import com.moniepoint.kv.model.Position;
+
+/**
+ * Keeps a local store in sync with a leader by tailing the leader's log
+ * ({@link BitcaskStore#readLog}) and applying its records as puts and deletes. The
+ * local store stays an ordinary store with its own segments and compaction;
+ * only the cursor into the leader's log is replication state. It is saved in
+ * a small file after each applied chunk. Replaying a chunk twice after a crash
+ * is harmless, since puts and deletes applied in log order give the same end
+ * state. The reverse is not: a cursor saved past writes the store has not
+ * fsynced yet skips them for good after a crash, so the store must sync every
+ * write (ALWAYS or GROUP); KvConfig refuses the other modes.
+ *
+ * When the leader answers with a reset, the follower replays the leader's
+ * whole log (the segment snapshot) and, once caught up, deletes the local keys
+ * that did not appear in it.
+ */
+public final class ReplicationFollower implements AutoCloseable {
+
+	private static final Logger log = LoggerFactory.getLogger(ReplicationFollower.class);
+
+	/** Response headers of the {@code replication/log} endpoint, one per {@link LogChunk} field. */
+	public static final String GENERATION_HEADER = "X-Repl-Generation";
+	public static final String FILE_ID_HEADER = "X-Repl-File-Id";
+	public static final String OFFSET_HEADER = "X-Repl-Offset";
+	public static final String RESET_HEADER = "X-Repl-Reset";
+	public static final String LAG_BYTES_HEADER = "X-Repl-Lag-Bytes";
+
+	static final int CHUNK_BYTES = 4 * 1024 * 1024;
+	private static final int HEADER_SIZE = SegmentFile.HEADER_SIZE;
+	private static final byte FLAG_TOMBSTONE = 0x1;
+	private static final long MAX_BACKOFF_MS = 5_000;
+
+	/** Where chunks come from: a leader's {@link BitcaskStore#readLog}, locally or over HTTP. */
+	@FunctionalInterface
+	public interface LogSource {
+		LogChunk fetch(long generation, int fileId, long offset, int maxBytes) throws IOException;
+	}
+
+	private final KvStore store;
+	private final LogSource source;
+	private final Path cursorFile;
+	private final long pollIntervalMs;
+	private ScheduledThreadPoolExecutor poller;
+
+	// cursor into the leader's log; only the poller thread writes it
+	private long generation = LogChunk.NO_GENERATION;
+	private int fileId;
+	private long offset;
+	private Set<String> resyncSeen; // non-null while replaying the whole log after a reset
+
+	private volatile long lagBytes = -1; // unknown until the first poll
+	private volatile long caughtUpAtMillis = System.currentTimeMillis();
+	private final LongAdder appliedRecords = new LongAdder();
+
+	public ReplicationFollower(KvStore store, LogSource source, Path cursorFile, long pollIntervalMs)
+			throws IOException {
+		this.store = Objects.requireNonNull(store, "store");
+		this.source = Objects.requireNonNull(source, "source");
+		this.cursorFile = Objects.requireNonNull(cursorFile, "cursorFile");
+		this.pollIntervalMs = pollIntervalMs;
+		loadCursor();
+	}
+
+	/** A {@link LogSource} reading the {@code replication/log} endpoint under {@code leader}. */
+	public static LogSource http(URI leader) {
+		HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+		return (gen, fid, off, maxBytes) -> {
+			URI uri = leader.resolve("replication/log?generation=" + gen + "&fileId=" + fid + "&offset=" + off
+					+ "&maxBytes=" + maxBytes);
+			HttpRequest req = HttpRequest.newBuilder(uri).timeout(Duration.ofSeconds(30)).GET().build();
+			HttpResponse<byte[]> rsp;
+			try {
+				rsp = client.send(req, HttpResponse.BodyHandlers.ofByteArray());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("interrupted while polling " + uri, e);
+			}
+			if (rsp.statusCode() != 200)
+				throw new IOException("leader answered " + rsp.statusCode() + " for " + uri);
+			return new LogChunk(Long.parseLong(header(rsp, GENERATION_HEADER)),
+					Integer.parseInt(header(rsp, FILE_ID_HEADER)), Long.parseLong(header(rsp, OFFSET_HEADER)),
+					Boolean.parseBoolean(header(rsp, RESET_HEADER)), rsp.body(),
+					Long.parseLong(header(rsp, LAG_BYTES_HEADER)));
+		};
+	}
+
+	private static String header(HttpResponse<?> rsp, String name) throws IOException {
+		return rsp.headers().firstValue(name).orElseThrow(() -> new IOException("leader response lacks " + name));
+	}
+
+	/** Poll in the background until closed: back to back while behind, every pollIntervalMs once caught up. */
+	public synchronized void start() {
+		if (poller != null)
+			return;
+		poller = new ScheduledThreadPoolExecutor(1, r -> {
+			Thread t = new Thread(r, "kv-replica");
+			t.setDaemon(true);
+			return t;
+		});
+		poller.execute(new Runnable() {
+			long backoffMs = pollIntervalMs;
+
+			@Override
+			public void run() {
+				long delay;
+				try {
+					delay = pollOnce() ? pollIntervalMs : 0;
+					backoffMs = pollIntervalMs;
+				} catch (IOException | RuntimeException e) {
+					log.warn("[REPLICA] poll failed, retrying in {} ms: {}", backoffMs, e.toString());
+					delay = backoffMs;
+					backoffMs = Math.min(MAX_BACKOFF_MS, Math.max(1, backoffMs * 2));
+				}
+				if (!poller.isShutdown())
+					poller.schedule(this, delay, TimeUnit.MILLISECONDS);
+			}
+		});
+		log.info("[REPLICA] following from generation={} fileId={} offset={}", generation, fileId, offset);
+	}
+
+	/**
+	 * Fetch and apply one chunk.
+	 *
+	 * @return true if the follower has caught up with the leader
+	 */
+	public boolean pollOnce() throws IOException {
+		LogChunk c = source.fetch(generation, fileId, offset, CHUNK_BYTES);
+		if (c.reset) {
+			log.info("[REPLICA] leader reset the cursor (generation {} -> {}), replaying its log", generation,
+					c.generation);
+			resyncSeen = new HashSet<>();
+		}
+		apply(c);
+		generation = c.generation;
+		fileId = c.fileId;
+		offset = c.offset + c.bytes.length;
+		lagBytes = c.lagBytes;
+
+		boolean moved = c.bytes.length > 0 || c.reset;
+		boolean caughtUp = c.bytes.length == 0 && c.lagBytes == 0;
+		if (caughtUp) {
+			if (resyncSeen != null) {
+				dropUnseen();
+				moved = true;
+			}
+			caughtUpAtMillis = System.currentTimeMillis();
+		}
+		if (moved)
+			saveCursor();
+		return caughtUp;
+	}
+
+	/** Replay records (CRC-checked) as store writes; puts between deletes go in one batch. */
+	private void apply(LogChunk c) throws IOException {
+		byte[] bytes = c.bytes;
+		ByteBuffer b = ByteBuffer.wrap(bytes).order(LITTLE_ENDIAN);
+		List<KvPair> batch = new ArrayList<>();
+		int pos = 0;
+		while (pos < bytes.length) {
+			int keyLen = b.getInt(pos);
+			int valLen = b.getInt(pos + 4);
+			byte flags = b.get(pos + 8);
+			int keyAt = pos + SegmentFile.keyOffset(flags);
+			Checksum crc = SegmentFile.checksumFor(flags);
+			crc.update(bytes, pos + HEADER_SIZE, keyAt - pos - HEADER_SIZE + keyLen + valLen);
+			if ((int) crc.getValue() != b.getInt(pos + 9))
+				throw new CorruptRecordException(c.fileId, c.offset + pos, b.getInt(pos + 9), (int) crc.getValue());
+
+			// the leader's expiry is absolute, so the follower drops the key at the same time
+			long expiresAt = keyAt > pos + HEADER_SIZE ? b.getLong(pos + HEADER_SIZE) : Position.NO_EXPIRY;
+			String key = new String(bytes, keyAt, keyLen, StandardCharsets.UTF_8);
+			if (resyncSeen != null)
+				resyncSeen.add(key);
+			if ((flags & FLAG_TOMBSTONE) != 0) {
+				flush(batch);
+				store.delete(key);
+			} else {
+				// applied raw: the follower's store compresses by its own settings
+				int v = keyAt + keyLen;
+				byte[] value = (flags & SegmentFile.FLAG_COMPRESSED) != 0
+						? ValueCodec.decode(ByteBuffer.wrap(bytes, v, valLen), StoreMetrics.NOOP)
+						: Arrays.copyOfRange(bytes, v, v + valLen);
+				batch.add(new KvPair(key, value, expiresAt));
+			}
+			pos = keyAt + keyLen + valLen;
+			appliedRecords.increment();
+		}
+		flush(batch);
+	}
+
+	private void flush(List<KvPair> batch) throws IOException {
+		if (!batch.isEmpty()) {
+			store.batchPut(batch);
+			batch.clear();
+		}
+	}
+
+	/** End of a full replay: whatever the leader's log no longer mentions is gone there. */
+	private void dropUnseen() throws IOException {
+		List<String> stale = new ArrayList<>();
+		store.scanRange("", String.valueOf(Character.MAX_VALUE), (k, v) -> {
+			if (!resyncSeen.contains(k))
+				stale.add(k);
+			return true;
+		});
+		for (String k : stale)
+			store.delete(k);
+		log.info("[REPLICA] replay done, keys={} dropped={}", resyncSeen.size(), stale.size());
+		resyncSeen = null;
+	}
+
+	private void loadCursor() throws IOException {
+		if (!Files.exists(cursorFile))
+			return;
+		String[] f = Files.readString(cursorFile, StandardCharsets.UTF_8).trim().split(" ");
+		try {
+			generation = Long.parseLong(f[0]);
+			fileId = Integer.parseInt(f[1]);
+			offset = Long.parseLong(f[2]);
+		} catch (RuntimeException e) {
+			log.warn("[REPLICA] unreadable cursor in {}, starting over", cursorFile);
+			generation = LogChunk.NO_GENERATION;
+		}
+	}
+
+	/** Mid-replay the cursor is not saved as such: a restart must replay (and diff) again. */
+	private void saveCursor() throws IOException {
+		long gen = resyncSeen != null ? LogChunk.NO_GENERATION : generation;
+		Path tmp = cursorFile.resolveSibling(cursorFile.getFileName() + ".tmp");
+		Files.writeString(tmp, gen + " " + fileId + " " + offset, StandardCharsets.UTF_8);
+		Files.move(tmp, cursorFile, REPLACE_EXISTING, ATOMIC_MOVE);
+	}
+
+	/** Shippable leader bytes not yet applied; -1 before the first poll. */
+	public long lagBytes() {
+		return lagBytes;
+	}
+
+	/** Time since the follower last saw the end of the leader's log. */
+	public long lagMillis() {
+		return lagBytes == 0 ? 0 : System.currentTimeMillis() - caughtUpAtMillis;
+	}
+
+	public long appliedRecords() {
+		return appliedRecords.sum();
+	}
+
+	@Override
+	public synchronized void close() {
+		if (poller != null) {
+			poller.shutdown();
+			try {
+				if (!poller.awaitTermination(10, TimeUnit.SECONDS))
+					poller.shutdownNow();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
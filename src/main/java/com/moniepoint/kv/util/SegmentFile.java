@@ -5,30 +5,68 @@ import static java.nio.ByteOrder.LITTLE_ENDIAN;
 import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.OpenOption;
 import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.moniepoint.kv.model.Crc32s;
+import com.moniepoint.kv.model.Position;
 
 final class SegmentFile implements AutoCloseable {
 
 	private static final Logger log = LoggerFactory.getLogger(SegmentFile.class);
 	private static final byte FLAG_TOMBSTONE = 0x1;
+	// checksum is CRC32C; records without it (written by older versions) carry CRC32
+	static final byte FLAG_CRC32C = 0x2;
+	// record has a TTL: a long expiresAt (epoch millis) follows the header and is
+	// covered by the checksum; records without the flag go straight on to the key
+	static final byte FLAG_EXPIRES = 0x4;
+	// value is stored compressed, in the format of ValueCodec; readers decode it
+	static final byte FLAG_COMPRESSED = 0x8;
+	static final int HEADER_SIZE = 13; // 4 + 4 + 1 + 4
+	static final int EXPIRY_SIZE = 8;
+	private static final int WRITE_BUF_SIZE = 64 * 1024;
 
 	private final int fileId;
 	private final Path path;
 	private final FileChannel ch;
-	private long writePos;
+	private final StoreMetrics metrics;
+	private volatile long writePos;
+	// writePos covered by the last completed force(); only moves forward, whichever force finishes last
+	private final AtomicLong syncedPos = new AtomicLong();
+	private volatile boolean sealed; // read-only once rotated out
+	private final AtomicLong deadBytes = new AtomicLong(); // bytes of superseded records and tombstones
+	private final AtomicInteger refs = new AtomicInteger(1); // owner + in-flight readers
+	private final AtomicBoolean closed = new AtomicBoolean();
+	// read-only mapping of a sealed segment; null = read through the channel
+	private volatile MappedByteBuffer mapped;
+	// append-side scratch state, guarded by this (appends are synchronized; a
+	// store only appends from its writer thread, so the monitor is uncontended)
+	private ByteBuffer writeBuf; // direct, allocated on first append
+	private final CRC32C crc = new CRC32C();
+	private final byte[] expiryBytes = new byte[EXPIRY_SIZE];
 
 	SegmentFile(int fileId, Path path, OpenOption... opts) throws IOException {
+		this(fileId, path, StoreMetrics.NOOP, opts);
+	}
+
+	SegmentFile(int fileId, Path path, StoreMetrics metrics, OpenOption... opts) throws IOException {
 		this.fileId = fileId;
 		this.path = path;
+		this.metrics = metrics;
 		this.ch = FileChannel.open(path, opts);
 		this.writePos = ch.size(); // append at EOF
+		this.syncedPos.set(writePos);
 		log.debug("[SEG.open] fileId={} path={}", fileId, path);
 	}
 
@@ -40,41 +78,112 @@ final class SegmentFile implements AutoCloseable {
 		return path;
 	}
 
+	/** Current size in bytes (= next append offset). */
+	long size() {
+		return writePos;
+	}
+
+	boolean isSealed() {
+		return sealed;
+	}
+
+	/** Flag a segment that was opened read-only during recovery. */
+	void markSealed() {
+		this.sealed = true;
+	}
+
+	/**
+	 * Make the segment immutable: fsync what was written and reject any further
+	 * append. Reads are unaffected.
+	 */
+	void seal() throws IOException {
+		force();
+		this.sealed = true;
+		log.debug("[SEG.seal] fileId={} size={}", fileId, writePos);
+	}
+
+	long deadBytes() {
+		return deadBytes.get();
+	}
+
+	void addDeadBytes(long n) {
+		deadBytes.addAndGet(n);
+	}
+
+	/** Cut off a torn tail found during recovery (active segment only). */
+	synchronized void truncate(long size) throws IOException {
+		ch.truncate(size);
+		ch.force(true);
+		writePos = size;
+		syncedPos.set(size);
+	}
+
 	/**
-	 * Append record with CRC32(key||value).
+	 * Map a sealed segment into memory so reads become a bounds-checked copy
+	 * with no syscalls. Segments above 2 GiB (a single MappedByteBuffer's limit)
+	 * keep using the channel.
+	 *
+	 * @return true if the segment is now mapped
+	 */
+	boolean mapReadOnly() throws IOException {
+		if (!sealed)
+			throw new IllegalStateException("segment " + fileId + " is not sealed");
+		long size = writePos;
+		if (size == 0 || size > Integer.MAX_VALUE)
+			return false;
+		MappedByteBuffer mb = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		mb.order(LITTLE_ENDIAN);
+		this.mapped = mb;
+		log.debug("[SEG.mmap] fileId={} bytes={}", fileId, size);
+		return true;
+	}
+
+	boolean isMapped() {
+		return mapped != null;
+	}
+
+	/** Bytes covered by the last completed {@link #force()}. */
+	long syncedSize() {
+		return syncedPos.get();
+	}
+
+	/** true if bytes were appended since the last completed {@link #force()}. */
+	boolean isDirty() {
+		return syncedPos.get() != writePos;
+	}
+
+	/**
+	 * Append record with CRC32C([expiry||]key||value). The whole record is staged in a
+	 * reusable direct buffer and written with a single positional write; records
+	 * larger than the buffer go out as one gathering write of header, key and
+	 * value. Records that fit the buffer need no allocation at all.
 	 * 
 	 * @return offset at which header begins
 	 */
-	synchronized long append(byte[] key, byte[] value, boolean tombstone) throws IOException {
-		int keyLen = key.length;
-		int valLen = value.length;
-		byte flags = tombstone ? FLAG_TOMBSTONE : 0;
-		int crc32 = Crc32s.of(key, value);
+	long append(byte[] key, byte[] value, boolean tombstone) throws IOException {
+		return append(key, value, tombstone, Position.NO_EXPIRY, false);
+	}
 
-		// header: 4 + 4 + 1 + 4 = 13 bytes
-		ByteBuffer hdr = ByteBuffer.allocate(13).order(LITTLE_ENDIAN);
-		hdr.putInt(keyLen);
-		hdr.putInt(valLen);
-		hdr.put(flags);
-		hdr.putInt(crc32);
-		hdr.flip();
+	/**
+	 * {@link #append(byte[], byte[], boolean)} for a record that expires at
+	 * {@code expiresAt} and whose {@code value} may already be compressed.
+	 */
+	synchronized long append(byte[] key, byte[] value, boolean tombstone, long expiresAt, boolean compressed)
+			throws IOException {
+		if (sealed)
+			throw new IllegalStateException("segment " + fileId + " is sealed");
 
+		long t0 = System.nanoTime();
 		long off = writePos;
-
-		// write header
-		while (hdr.hasRemaining()) {
-			writePos += ch.write(hdr, writePos);
-		}
-		// write key
-		ByteBuffer kb = ByteBuffer.wrap(key);
-		while (kb.hasRemaining()) {
-			writePos += ch.write(kb, writePos);
-		}
-		// write value
-		ByteBuffer vb = ByteBuffer.wrap(value);
-		while (vb.hasRemaining()) {
-			writePos += ch.write(vb, writePos);
+		ByteBuffer buf = writeBuffer();
+		buf.clear();
+		if (keyOffset(expiresAt) + (long) key.length + value.length <= buf.capacity()) {
+			putRecord(buf, key, value, tombstone, expiresAt, compressed);
+			flush(buf);
+		} else {
+			writeLarge(buf, key, value, tombstone, expiresAt, compressed);
 		}
+		metrics.recordAppend(System.nanoTime() - t0, writePos - off);
 
 		if (log.isDebugEnabled()) {
 			log.debug("[SEG.append] fileId={} off={} keyLen={} valLen={} tombstone={}", this.fileId, off, key.length,
@@ -84,33 +193,233 @@ final class SegmentFile implements AutoCloseable {
 	}
 
 	/**
-	 * Read only the value at a record offset (start of header).
+	 * Append {@code recs[from, to)} packed back to back into the write buffer, so
+	 * a batch costs one write per buffer-full instead of one (or three) per record.
+	 *
+	 * @return header offsets, one per appended record
+	 */
+	synchronized long[] appendBatch(List<Mutation> recs, int from, int to) throws IOException {
+		if (sealed)
+			throw new IllegalStateException("segment " + fileId + " is sealed");
+
+		long t0 = System.nanoTime();
+		long start = writePos;
+		long[] offsets = new long[to - from];
+		ByteBuffer buf = writeBuffer();
+		buf.clear();
+		for (int i = from; i < to; i++) {
+			Mutation m = recs.get(i);
+			int size = m.recordSize();
+			if (size > buf.remaining())
+				flush(buf);
+			offsets[i - from] = writePos + buf.position();
+			if (size <= buf.capacity()) {
+				putRecord(buf, m.keyBytes, m.value, m.tombstone, m.expiresAt, m.compressed);
+			} else {
+				writeLarge(buf, m.keyBytes, m.value, m.tombstone, m.expiresAt, m.compressed);
+			}
+		}
+		flush(buf);
+		metrics.recordAppend(System.nanoTime() - t0, writePos - start);
+
+		if (log.isDebugEnabled()) {
+			log.debug("[SEG.appendBatch] fileId={} records={} endOff={}", this.fileId, offsets.length, writePos);
+		}
+		return offsets;
+	}
+
+	private ByteBuffer writeBuffer() {
+		if (writeBuf == null)
+			writeBuf = ByteBuffer.allocateDirect(WRITE_BUF_SIZE).order(LITTLE_ENDIAN);
+		return writeBuf;
+	}
+
+	/** Header, plus the expiry of a TTL record. */
+	private void putHeader(ByteBuffer buf, byte[] key, byte[] value, boolean tombstone, long expiresAt,
+			boolean compressed) {
+		boolean expires = expiresAt != Position.NO_EXPIRY;
+		crc.reset();
+		if (expires) {
+			ByteBuffer.wrap(expiryBytes).order(LITTLE_ENDIAN).putLong(0, expiresAt);
+			crc.update(expiryBytes, 0, EXPIRY_SIZE);
+		}
+		crc.update(key, 0, key.length);
+		crc.update(value, 0, value.length);
+
+		// header: 4 + 4 + 1 + 4 = 13 bytes
+		buf.putInt(key.length);
+		buf.putInt(value.length);
+		buf.put((byte) ((tombstone ? FLAG_TOMBSTONE : 0) | FLAG_CRC32C | (expires ? FLAG_EXPIRES : 0)
+				| (compressed ? FLAG_COMPRESSED : 0)));
+		buf.putInt((int) crc.getValue());
+		if (expires)
+			buf.putLong(expiresAt);
+	}
+
+	private void putRecord(ByteBuffer buf, byte[] key, byte[] value, boolean tombstone, long expiresAt,
+			boolean compressed) {
+		putHeader(buf, key, value, tombstone, expiresAt, compressed);
+		buf.put(key);
+		buf.put(value);
+	}
+
+	/** Write out whatever is staged in {@code buf} at writePos and clear it. */
+	private void flush(ByteBuffer buf) throws IOException {
+		buf.flip();
+		while (buf.hasRemaining()) {
+			writePos += ch.write(buf, writePos);
+		}
+		buf.clear();
+	}
+
+	/** Record bigger than the write buffer: one gathering write of header, key and value. */
+	private void writeLarge(ByteBuffer buf, byte[] key, byte[] value, boolean tombstone, long expiresAt,
+			boolean compressed) throws IOException {
+		putHeader(buf, key, value, tombstone, expiresAt, compressed);
+		buf.flip();
+		ByteBuffer[] srcs = { buf, ByteBuffer.wrap(key), ByteBuffer.wrap(value) };
+		long remaining = keyOffset(expiresAt) + (long) key.length + value.length;
+		ch.position(writePos); // gathering writes use the channel position; positional reads never move it
+		while (remaining > 0) {
+			long n = ch.write(srcs);
+			remaining -= n;
+			writePos += n;
+		}
+		buf.clear();
+	}
+
+	/** Offset of the key from the start of a record with these flags. */
+	static int keyOffset(byte flags) {
+		return (flags & FLAG_EXPIRES) != 0 ? HEADER_SIZE + EXPIRY_SIZE : HEADER_SIZE;
+	}
+
+	static int keyOffset(long expiresAt) {
+		return expiresAt != Position.NO_EXPIRY ? HEADER_SIZE + EXPIRY_SIZE : HEADER_SIZE;
+	}
+
+	/** The checksum a record with these flags was written with. */
+	static Checksum checksumFor(byte flags) {
+		return (flags & FLAG_CRC32C) != 0 ? new CRC32C() : new CRC32();
+	}
+
+	byte[] readValueAt(long offset) throws IOException {
+		return readValueAt(offset, false);
+	}
+
+	/**
+	 * Read only the value at a record offset (start of header). Not synchronized:
+	 * positional FileChannel reads are thread-safe and never move the channel
+	 * position, so concurrent GETs proceed in parallel with each other and with
+	 * appends. Callers hold a reference ({@link #tryAcquire()}) so the channel
+	 * cannot be closed underneath them.
+	 *
+	 * With {@code verify}, the stored checksum is recomputed over key and value
+	 * as they are read (the key costs one extra small read on the channel path;
+	 * a mapped segment is checked in place) and a mismatch throws
+	 * {@link CorruptRecordException} instead of returning the value. The checksum
+	 * covers the stored bytes, so a compressed value is verified before it is
+	 * decompressed.
 	 */
-	synchronized byte[] readValueAt(long offset) throws IOException {
+	byte[] readValueAt(long offset, boolean verify) throws IOException {
+		long t0 = System.nanoTime();
+		MappedByteBuffer mb = mapped;
+		if (mb != null) {
+			byte[] v = readMapped(mb, offset, verify);
+			metrics.recordRead(System.nanoTime() - t0, true);
+			return v;
+		}
+
 		// read header
-		ByteBuffer hdr = ByteBuffer.allocate(13).order(LITTLE_ENDIAN);
+		ByteBuffer hdr = ByteBuffer.allocate(HEADER_SIZE).order(LITTLE_ENDIAN);
 		readFully(ch, hdr, offset);
 		hdr.flip();
 
 		int keyLen = hdr.getInt();
 		int valLen = hdr.getInt();
 		byte flags = hdr.get();
-		/* int crc = */ hdr.getInt(); // not used on random read
+		int stored = hdr.getInt();
 
-		long keyPos = offset + 13;
-		long valPos = keyPos + keyLen;
+		long valPos = offset + keyOffset(flags) + keyLen;
 
 		if ((flags & FLAG_TOMBSTONE) != 0)
 			return null;
 
-		ByteBuffer vb = ByteBuffer.allocate(valLen);
-		readFully(ch, vb, valPos);
-		vb.flip();
 		byte[] value = new byte[valLen];
-		vb.get(value);
+		readFully(ch, ByteBuffer.wrap(value), valPos);
+		if (verify) {
+			// everything between header and value: the expiry, if any, and the key
+			ByteBuffer middle = ByteBuffer.allocate((int) (valPos - offset - HEADER_SIZE));
+			readFully(ch, middle, offset + HEADER_SIZE);
+			Checksum crc = checksumFor(flags);
+			crc.update(middle.array(), 0, middle.capacity());
+			crc.update(value, 0, valLen);
+			check(offset, stored, crc);
+		}
+		if ((flags & FLAG_COMPRESSED) != 0)
+			value = ValueCodec.decode(ByteBuffer.wrap(value), metrics);
+		metrics.recordRead(System.nanoTime() - t0, false);
 		return value;
 	}
 
+	/**
+	 * Read {@code len} raw bytes starting at {@code offset}: a run of whole
+	 * records, for callers that decode several values out of one read. Same
+	 * locking rules as {@link #readValueAt(long, boolean)}.
+	 */
+	byte[] readBytes(long offset, int len) throws IOException {
+		long t0 = System.nanoTime();
+		byte[] out = new byte[len];
+		MappedByteBuffer mb = mapped;
+		if (mb != null) {
+			if (offset < 0 || offset + len > mb.limit())
+				throw new EOFException("span " + offset + "+" + len + " beyond segment " + fileId);
+			mb.get((int) offset, out);
+		} else {
+			readFully(ch, ByteBuffer.wrap(out), offset);
+		}
+		metrics.recordRead(System.nanoTime() - t0, mb != null);
+		return out;
+	}
+
+	/** Same as the channel path, using absolute (thread-safe) buffer accessors. */
+	private byte[] readMapped(MappedByteBuffer mb, long offset, boolean verify) throws IOException {
+		if (offset < 0 || offset + HEADER_SIZE > mb.limit())
+			throw new EOFException("offset " + offset + " beyond segment " + fileId);
+		int off = (int) offset;
+		int keyLen = mb.getInt(off);
+		int valLen = mb.getInt(off + 4);
+		byte flags = mb.get(off + 8);
+
+		if ((flags & FLAG_TOMBSTONE) != 0)
+			return null;
+
+		long valPos = offset + keyOffset(flags) + keyLen;
+		if (keyLen < 0 || valLen < 0 || valPos + valLen > mb.limit())
+			throw new EOFException("record at " + offset + " overruns segment " + fileId);
+		if (verify) {
+			Checksum crc = checksumFor(flags);
+			int covered = (int) (valPos - offset - HEADER_SIZE) + valLen; // expiry, key, value
+			crc.update(mb.slice(off + HEADER_SIZE, covered)); // straight from the mapping
+			check(offset, mb.getInt(off + 9), crc);
+		}
+		if ((flags & FLAG_COMPRESSED) != 0)
+			return ValueCodec.decode(mb.slice((int) valPos, valLen), metrics); // inflated straight from the mapping
+		byte[] value = new byte[valLen];
+		mb.get((int) valPos, value);
+		return value;
+	}
+
+	/** Fail the read of the record at {@code offset} if {@code crc} is not what was stored. */
+	void check(long offset, int stored, Checksum crc) throws CorruptRecordException {
+		int got = (int) crc.getValue();
+		if (got != stored) {
+			metrics.recordChecksumFailure();
+			log.error("[SEG.read] checksum mismatch fileId={} off={} stored={} computed={}", fileId, offset, stored,
+					got);
+			throw new CorruptRecordException(fileId, offset, stored, got);
+		}
+	}
+
 	static void readFully(FileChannel ch, ByteBuffer dst, long pos) throws IOException {
 		long p = pos;
 		while (dst.hasRemaining()) {
@@ -121,9 +430,17 @@ final class SegmentFile implements AutoCloseable {
 		}
 	}
 
-	synchronized void force() throws IOException {
+	/**
+	 * fsync the channel. Deliberately not synchronized: FileChannel.force is
+	 * thread-safe, and a slow fsync must not block appends on this segment.
+	 */
+	void force() throws IOException {
+		long pos = writePos;
 		try {
+			long t0 = System.nanoTime();
 			ch.force(true);
+			metrics.recordFsync(System.nanoTime() - t0);
+			syncedPos.accumulateAndGet(pos, Math::max);
 			if (log.isTraceEnabled())
 				log.trace("[SEG.fsync] fileId={}", this.fileId);
 		} catch (IOException ioe) {
@@ -132,8 +449,45 @@ final class SegmentFile implements AutoCloseable {
 		}
 	}
 
+	/**
+	 * Pin the segment for a read. Fails once the segment has been closed and all
+	 * in-flight readers are gone, in which case the caller re-resolves its
+	 * position (the segment was merged away or the store shut down).
+	 */
+	boolean tryAcquire() {
+		for (;;) {
+			int r = refs.get();
+			if (r <= 0)
+				return false;
+			if (refs.compareAndSet(r, r + 1))
+				return true;
+		}
+	}
+
+	/** Unpin; the last reader of a closed segment closes the channel. */
+	void release() {
+		if (refs.decrementAndGet() == 0) {
+			try {
+				closeChannel();
+			} catch (IOException ioe) {
+				// already logged
+			}
+		}
+	}
+
+	/**
+	 * Drop the owner reference. The channel is closed right away if nobody is
+	 * reading, otherwise by the last in-flight reader.
+	 */
 	@Override
-	public synchronized void close() throws IOException {
+	public void close() throws IOException {
+		if (!closed.compareAndSet(false, true))
+			return;
+		if (refs.decrementAndGet() == 0)
+			closeChannel();
+	}
+
+	private void closeChannel() throws IOException {
 		try {
 			ch.force(true);
 			ch.close();
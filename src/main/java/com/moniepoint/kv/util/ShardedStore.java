@@ -0,0 +1,432 @@
+package com.moniepoint.kv.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.PriorityQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.moniepoint.kv.model.KvPair;
+
+/**
+ * Keys hashed over N independent {@link BitcaskStore}s, one per
+ * {@code shard-NNN} subdirectory of the data directory. Each shard has its own
+ * active segment, writer thread and compactor, so writes to
+ * different shards never contend. Point operations touch one shard; ranges
+ * merge the shards' sorted key sets.
+ *
+ * The shard count is recorded in a {@code SHARDS} file on first start and must
+ * not change afterwards, since it decides which shard owns a key.
+ */
+public final class ShardedStore implements KvStore {
+
+	private static final Logger log = LoggerFactory.getLogger(ShardedStore.class);
+
+	static final String SHARDS_FILE = "SHARDS";
+
+	private final BitcaskStore[] shards;
+	private final StoreMetrics metrics;
+
+	public ShardedStore(Path dataDir, StoreOptions opts) throws IOException {
+		Objects.requireNonNull(dataDir, "dataDir");
+		Objects.requireNonNull(opts, "opts");
+		int n = opts.shards();
+		if (n < 2)
+			throw new IllegalArgumentException("a sharded store needs at least 2 shards, got " + n);
+		this.metrics = opts.metrics();
+		checkLayout(dataDir, n);
+		log.info("[SHARDS] opening {} shards in {}", n, dataDir.toAbsolutePath());
+
+		// shards report into the same sink; only the gauges are bound once, here
+		StoreOptions shardOpts = opts.copy().metrics(new ShardMetrics(metrics));
+		this.shards = new BitcaskStore[n];
+		try {
+			for (int i = 0; i < n; i++)
+				shards[i] = new BitcaskStore(shardDir(dataDir, i), shardOpts);
+		} catch (IOException | RuntimeException e) {
+			for (BitcaskStore s : shards) {
+				if (s == null)
+					break;
+				try {
+					s.close();
+				} catch (IOException suppressed) {
+					e.addSuppressed(suppressed);
+				}
+			}
+			throw e;
+		}
+		metrics.bind(this);
+	}
+
+	/**
+	 * Refuse to open {@code dataDir} with a shard count other than the one it was
+	 * created with; 1 stands for an unsharded store, whose segments sit directly
+	 * in the directory.
+	 */
+	static void checkLayout(Path dataDir, int n) throws IOException {
+		Path marker = dataDir.resolve(SHARDS_FILE);
+		if (Files.exists(marker)) {
+			int recorded;
+			try {
+				recorded = Integer.parseInt(Files.readString(marker, StandardCharsets.UTF_8).trim());
+			} catch (NumberFormatException e) {
+				throw new IllegalStateException("unreadable shard count in " + marker, e);
+			}
+			if (recorded != n)
+				throw new IllegalStateException(
+						"data dir " + dataDir + " holds " + recorded + " shards, configured " + n);
+			return;
+		}
+		if (n == 1)
+			return;
+		if (Files.isDirectory(dataDir)) {
+			try (DirectoryStream<Path> ds = Files.newDirectoryStream(dataDir, "segment-*.log")) {
+				if (ds.iterator().hasNext())
+					throw new IllegalStateException(
+							"data dir " + dataDir + " holds an unsharded store, configured " + n + " shards");
+			}
+		}
+		Files.createDirectories(dataDir);
+		Files.writeString(marker, Integer.toString(n), StandardCharsets.UTF_8);
+	}
+
+	static Path shardDir(Path dataDir, int shard) {
+		return dataDir.resolve(String.format("shard-%03d", shard));
+	}
+
+	/** Stable across JVMs: String.hashCode is specified, the mix spreads its low bits. */
+	private int shardOf(String key) {
+		int h = key.hashCode() * 0x9E3779B9;
+		return Math.floorMod(h ^ (h >>> 16), shards.length);
+	}
+
+	private BitcaskStore shardFor(String key) {
+		return shards[shardOf(key)];
+	}
+
+	// --- Point operations ---
+
+	@Override
+	public void put(String key, byte[] value) throws IOException {
+		Objects.requireNonNull(key, "key");
+		shardFor(key).put(key, value);
+	}
+
+	@Override
+	public void put(String key, byte[] value, long expiresAt) throws IOException {
+		Objects.requireNonNull(key, "key");
+		shardFor(key).put(key, value, expiresAt);
+	}
+
+	@Override
+	public Optional<byte[]> get(String key) throws IOException {
+		Objects.requireNonNull(key, "key");
+		return shardFor(key).get(key);
+	}
+
+	@Override
+	public void delete(String key) throws IOException {
+		Objects.requireNonNull(key, "key");
+		shardFor(key).delete(key);
+	}
+
+	/**
+	 * Split the batch by shard and write each part as one batch. Each part is
+	 * atomic on its own; the batch as a whole is not.
+	 */
+	@Override
+	public void batchPut(List<KvPair> items) throws IOException {
+		Objects.requireNonNull(items, "items");
+		List<List<KvPair>> parts = new ArrayList<>(Collections.nCopies(shards.length, null));
+		for (KvPair kv : items) {
+			Objects.requireNonNull(kv, "item");
+			Objects.requireNonNull(kv.key(), "key");
+			int i = shardOf(kv.key());
+			if (parts.get(i) == null)
+				parts.set(i, new ArrayList<>());
+			parts.get(i).add(kv);
+		}
+		for (int i = 0; i < shards.length; i++) {
+			if (parts.get(i) != null)
+				shards[i].batchPut(parts.get(i));
+		}
+	}
+
+	/** Split the keys by shard; each shard reads its part in its own disk order. */
+	@Override
+	public long multiGet(Collection<String> keys, RangeVisitor visitor) throws IOException {
+		Objects.requireNonNull(keys, "keys");
+		Objects.requireNonNull(visitor, "visitor");
+		List<List<String>> parts = new ArrayList<>(Collections.nCopies(shards.length, null));
+		for (String k : keys) {
+			int i = shardOf(k);
+			if (parts.get(i) == null)
+				parts.set(i, new ArrayList<>());
+			parts.get(i).add(k);
+		}
+		boolean[] stopped = new boolean[1];
+		RangeVisitor v = (k, val) -> {
+			if (visitor.accept(k, val))
+				return true;
+			stopped[0] = true;
+			return false;
+		};
+		long n = 0;
+		for (int i = 0; i < shards.length && !stopped[0]; i++) {
+			if (parts.get(i) != null)
+				n += shards[i].multiGet(parts.get(i), v);
+		}
+		return n;
+	}
+
+	// --- Ranges ---
+
+	@Override
+	public List<KvPair> getRange(String start, String end) throws IOException {
+		List<KvPair> out = new ArrayList<>();
+		scanRange(start, end, (k, v) -> out.add(new KvPair(k, v)));
+		return out;
+	}
+
+	@Override
+	public long scanRange(String start, String end, RangeVisitor visitor) throws IOException {
+		Objects.requireNonNull(start, "start");
+		Objects.requireNonNull(end, "end");
+		Objects.requireNonNull(visitor, "visitor");
+		if (start.compareTo(end) > 0) {
+			String t = start;
+			start = end;
+			end = t;
+		}
+		log.debug("[SHARDS.range] start='{}' end='{}'", start, end);
+
+		long t0 = System.nanoTime();
+		long n = 0;
+		try {
+			PriorityQueue<Cursor> merge = cursors(start, end);
+			while (!merge.isEmpty()) {
+				Cursor c = merge.poll();
+				String k = c.key;
+				if (c.advance())
+					merge.add(c);
+				byte[] v = c.shard.read(k);
+				if (v == null)
+					continue; // tombstone, or deleted since the key was listed
+				n++;
+				if (!visitor.accept(k, v))
+					break;
+			}
+		} finally {
+			metrics.recordOp(StoreMetrics.Op.RANGE, System.nanoTime() - t0);
+		}
+		return n;
+	}
+
+	@Override
+	public String rangePageEnd(String start, String end, int limit) {
+		if (limit <= 0)
+			throw new IllegalArgumentException("limit must be > 0");
+		if (start.compareTo(end) > 0) {
+			String t = start;
+			start = end;
+			end = t;
+		}
+		PriorityQueue<Cursor> merge = cursors(start, end);
+		int n = 0;
+		String last = null;
+		while (!merge.isEmpty()) {
+			if (n == limit)
+				return last; // at least one more key follows
+			Cursor c = merge.poll();
+			last = c.key;
+			n++;
+			if (c.advance())
+				merge.add(c);
+		}
+		return null;
+	}
+
+	private PriorityQueue<Cursor> cursors(String start, String end) {
+		PriorityQueue<Cursor> merge = new PriorityQueue<>(shards.length, (a, b) -> a.key.compareTo(b.key));
+		for (BitcaskStore s : shards) {
+			Cursor c = new Cursor(s, s.keyIterator(start, end));
+			if (c.advance())
+				merge.add(c);
+		}
+		return merge;
+	}
+
+	/** Head of one shard's sorted key iterator; a key lives in exactly one shard. */
+	private static final class Cursor {
+		final BitcaskStore shard;
+		final Iterator<String> keys;
+		String key;
+
+		Cursor(BitcaskStore shard, Iterator<String> keys) {
+			this.shard = shard;
+			this.keys = keys;
+		}
+
+		boolean advance() {
+			if (!keys.hasNext())
+				return false;
+			key = keys.next();
+			return true;
+		}
+	}
+
+	// --- Maintenance and stats ---
+
+	@Override
+	public long compact() throws IOException {
+		long reclaimed = 0;
+		for (BitcaskStore s : shards)
+			reclaimed += s.compact();
+		return reclaimed;
+	}
+
+	@Override
+	public int segmentCount() {
+		int n = 0;
+		for (BitcaskStore s : shards)
+			n += s.segmentCount();
+		return n;
+	}
+
+	@Override
+	public long indexSize() {
+		long n = 0;
+		for (BitcaskStore s : shards)
+			n += s.indexSize();
+		return n;
+	}
+
+	@Override
+	public long tombstoneCount() {
+		long n = 0;
+		for (BitcaskStore s : shards)
+			n += s.tombstoneCount();
+		return n;
+	}
+
+	@Override
+	public long cacheBytes() {
+		long n = 0;
+		for (BitcaskStore s : shards)
+			n += s.cacheBytes();
+		return n;
+	}
+
+	@Override
+	public long totalBytes() {
+		long n = 0;
+		for (BitcaskStore s : shards)
+			n += s.totalBytes();
+		return n;
+	}
+
+	@Override
+	public long deadBytes() {
+		long n = 0;
+		for (BitcaskStore s : shards)
+			n += s.deadBytes();
+		return n;
+	}
+
+	public int shardCount() {
+		return shards.length;
+	}
+
+	/** Closes every shard, even if some fail; the first failure is rethrown. */
+	@Override
+	public void close() throws IOException {
+		IOException first = null;
+		for (BitcaskStore s : shards) {
+			try {
+				s.close();
+			} catch (IOException e) {
+				if (first == null)
+					first = e;
+				else
+					first.addSuppressed(e);
+			}
+		}
+		if (first != null)
+			throw first;
+	}
+
+	/** Forwards to the store's sink but leaves gauge binding to the sharded store. */
+	private static final class ShardMetrics implements StoreMetrics {
+		private final StoreMetrics delegate;
+
+		ShardMetrics(StoreMetrics delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public void recordOp(Op op, long nanos) {
+			delegate.recordOp(op, nanos);
+		}
+
+		@Override
+		public void recordAppend(long nanos, long bytes) {
+			delegate.recordAppend(nanos, bytes);
+		}
+
+		@Override
+		public void recordFsync(long nanos) {
+			delegate.recordFsync(nanos);
+		}
+
+		@Override
+		public void recordRead(long nanos, boolean mapped) {
+			delegate.recordRead(nanos, mapped);
+		}
+
+		@Override
+		public void recordCacheAccess(boolean hit) {
+			delegate.recordCacheAccess(hit);
+		}
+
+		@Override
+		public void recordCacheEviction() {
+			delegate.recordCacheEviction();
+		}
+
+		@Override
+		public void recordChecksumFailure() {
+			delegate.recordChecksumFailure();
+		}
+
+		@Override
+		public void recordCompression(int rawBytes, int storedBytes, long nanos) {
+			delegate.recordCompression(rawBytes, storedBytes, nanos);
+		}
+
+		@Override
+		public void recordDecompression(long nanos) {
+			delegate.recordDecompression(nanos);
+		}
+
+		@Override
+		public void recordExpired(int keys) {
+			delegate.recordExpired(keys);
+		}
+
+		@Override
+		public void recordRecovery(long nanos) {
+			delegate.recordRecovery(nanos);
+		}
+	}
+}
@@ -0,0 +1,216 @@
+package com.moniepoint.kv.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The store's only writer. Callers enqueue their mutations on a lock-free
+ * queue and block; one writer thread drains whatever is queued, hands the
+ * whole group to the {@link Sink} (one append pass, the sync policy, then the
+ * index updates) and releases every waiter of that group. Maintenance that
+ * changes the layout (the compaction swap) runs on the same thread through
+ * {@link #call}, so nothing on the write side ever needs a lock and readers
+ * never wait for one.
+ */
+final class SingleWriter implements AutoCloseable {
+
+	private static final Logger log = LoggerFactory.getLogger(SingleWriter.class);
+
+	/** Upper bound of requests drained into a single group. */
+	static final int MAX_GROUP_REQUESTS = 1024;
+
+	/** Receives one group of mutations; returns once they are written as the sync mode requires. */
+	interface Sink {
+		void commit(List<Mutation> group) throws IOException;
+	}
+
+	/** Work run on the writer thread between two groups. */
+	interface Task<T> {
+		T run() throws IOException;
+	}
+
+	private static final class Request {
+		final List<Mutation> mutations;
+		final Task<?> task;
+		final CompletableFuture<Object> done = new CompletableFuture<>();
+
+		Request(List<Mutation> mutations, Task<?> task) {
+			this.mutations = mutations;
+			this.task = task;
+		}
+	}
+
+	// poison pill used to stop the writer after the queue is drained
+	private static final Request STOP = new Request(List.of(), null);
+
+	private final Sink sink;
+	private final int maxGroupRequests;
+	private final ConcurrentLinkedQueue<Request> queue = new ConcurrentLinkedQueue<>();
+	private final Thread thread;
+	// set by the writer before it parks on an empty queue; producers only unpark it then
+	private volatile boolean idle;
+	private volatile boolean closed;
+
+	/**
+	 * @param maxGroupRequests requests drained into one group; 1 gives every
+	 *                         request its own sink call (and fsync)
+	 */
+	SingleWriter(String name, int maxGroupRequests, Sink sink) {
+		if (maxGroupRequests < 1)
+			throw new IllegalArgumentException("maxGroupRequests must be >= 1");
+		this.sink = Objects.requireNonNull(sink, "sink");
+		this.maxGroupRequests = maxGroupRequests;
+		this.thread = new Thread(this::run, name);
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/** Enqueue mutations as one unit and wait until the group containing them is committed. */
+	void submit(List<Mutation> mutations) throws IOException {
+		await(enqueue(new Request(mutations, null)));
+	}
+
+	/** Run {@code task} on the writer thread, after everything queued before it. */
+	@SuppressWarnings("unchecked")
+	<T> T call(Task<T> task) throws IOException {
+		return (T) await(enqueue(new Request(null, task)));
+	}
+
+	private Request enqueue(Request r) throws IOException {
+		if (closed)
+			throw new IOException("store is closed");
+		queue.offer(r);
+		if (idle)
+			LockSupport.unpark(thread);
+		if (closed) {
+			// raced with close(): once the writer is gone, nobody will take r
+			join();
+			if (queue.remove(r))
+				throw new IOException("store is closed");
+		}
+		return r;
+	}
+
+	private static Object await(Request r) throws IOException {
+		try {
+			return r.done.get();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting for the writer");
+		} catch (ExecutionException ee) {
+			Throwable c = ee.getCause();
+			if (c instanceof IOException ioe)
+				throw ioe;
+			throw new IOException("write failed", c);
+		}
+	}
+
+	private Request take() {
+		Request r;
+		while ((r = queue.poll()) == null) {
+			idle = true;
+			// re-check after publishing idle: a producer that missed it has enqueued by now
+			if ((r = queue.poll()) != null) {
+				idle = false;
+				return r;
+			}
+			LockSupport.park(this);
+			idle = false;
+		}
+		return r;
+	}
+
+	private void run() {
+		List<Request> group = new ArrayList<>();
+		List<Mutation> records = new ArrayList<>();
+		boolean stopping = false;
+
+		while (!stopping) {
+			group.add(take());
+			Request r;
+			while (group.size() < maxGroupRequests && (r = queue.poll()) != null)
+				group.add(r);
+
+			// requests run in queue order: mutations ahead of a task are committed first
+			int from = 0;
+			for (int i = 0; i < group.size(); i++) {
+				r = group.get(i);
+				if (r == STOP) {
+					stopping = true;
+				} else if (r.task != null) {
+					commit(group, from, i, records);
+					from = i + 1;
+					runTask(r);
+				} else {
+					records.addAll(r.mutations);
+				}
+			}
+			commit(group, from, group.size(), records);
+			group.clear();
+		}
+
+		// anything that raced with close() is failed rather than left hanging
+		Request r;
+		while ((r = queue.poll()) != null) {
+			r.done.completeExceptionally(new IOException("store is closed"));
+		}
+	}
+
+	/** Commit the mutations of {@code group[from, to)}, gathered in {@code records}. */
+	private void commit(List<Request> group, int from, int to, List<Mutation> records) {
+		if (records.isEmpty()) {
+			for (int i = from; i < to; i++)
+				group.get(i).done.complete(null);
+			return;
+		}
+		try {
+			sink.commit(records);
+			for (int i = from; i < to; i++)
+				group.get(i).done.complete(null);
+			if (log.isTraceEnabled())
+				log.trace("[WRITER] committed requests={} records={}", to - from, records.size());
+		} catch (Throwable t) {
+			log.error("[WRITER] commit failed requests={} records={}", to - from, records.size(), t);
+			for (int i = from; i < to; i++)
+				group.get(i).done.completeExceptionally(t);
+		}
+		records.clear();
+	}
+
+	private static void runTask(Request r) {
+		try {
+			r.done.complete(r.task.run());
+		} catch (Throwable t) {
+			r.done.completeExceptionally(t);
+		}
+	}
+
+	private void join() {
+		try {
+			thread.join();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/** Stops accepting new work, lets queued requests finish and joins the thread. */
+	@Override
+	public void close() {
+		if (closed)
+			return;
+		closed = true;
+		queue.offer(STOP);
+		LockSupport.unpark(thread);
+		join();
+	}
+}
@@ -0,0 +1,244 @@
+package com.moniepoint.kv.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Predicate;
+
+/**
+ * Range side of kv.range-index=disk: the keys of every segment as one sorted
+ * run per segment. A sealed segment's run is its {@link KeyFile}. The active
+ * segment, and a sealed one whose key file is not built yet, keep their keys
+ * in a sorted set on heap. A range merges the runs, so the heap only holds
+ * recent keys plus one fence per key-file block.
+ *
+ * A run lists every key put in its segment, so a key may show up in several
+ * runs and some of them may be stale. The merge hands each key out once and
+ * leaves liveness to the caller's index.
+ */
+final class SortedKeys {
+
+	// fileId -> key file; copy-on-write, so a range starts from one consistent set of files
+	private volatile NavigableMap<Integer, KeyFile> files = Collections.emptyNavigableMap();
+	// fileId -> keys of a segment without a key file
+	private final ConcurrentHashMap<Integer, ConcurrentSkipListSet<String>> pending = new ConcurrentHashMap<>();
+
+	/** Collect the keys of segment {@code fileId} on heap until its key file is published. */
+	void track(int fileId) {
+		pending.putIfAbsent(fileId, new ConcurrentSkipListSet<>());
+	}
+
+	/** A put was appended to segment {@code fileId}; ignored once the segment has a key file. */
+	void added(int fileId, String key) {
+		ConcurrentSkipListSet<String> keys = pending.get(fileId);
+		if (keys != null)
+			keys.add(key);
+	}
+
+	/** Keys of a segment still collected on heap, or null if it has a key file. */
+	NavigableSet<String> pending(int fileId) {
+		return pending.get(fileId);
+	}
+
+	/**
+	 * Make a built key file the segment's run. The file goes in before the heap
+	 * keys go out, and a range reads the heap keys before the files, so it always
+	 * finds the segment's keys in one or the other.
+	 */
+	synchronized void publish(KeyFile kf) {
+		NavigableMap<Integer, KeyFile> next = new TreeMap<>(files);
+		KeyFile old = next.put(kf.fileId(), kf);
+		files = Collections.unmodifiableNavigableMap(next);
+		pending.remove(kf.fileId());
+		if (old != null)
+			old.close();
+	}
+
+	/**
+	 * Compaction swap: the runs of {@code inputs} make way for the key files of
+	 * the merge outputs. Replaced files are closed; a range still reading one
+	 * notices and restarts from its last key on the new files.
+	 */
+	synchronized void replace(Collection<Integer> inputs, List<KeyFile> outputs) {
+		NavigableMap<Integer, KeyFile> next = new TreeMap<>(files);
+		List<KeyFile> old = new ArrayList<>();
+		for (int id : inputs) {
+			KeyFile kf = next.remove(id);
+			if (kf != null)
+				old.add(kf);
+		}
+		for (KeyFile kf : outputs)
+			next.put(kf.fileId(), kf);
+		files = Collections.unmodifiableNavigableMap(next);
+		for (int id : inputs)
+			pending.remove(id);
+		for (KeyFile kf : old)
+			kf.close();
+	}
+
+	synchronized void close() {
+		for (KeyFile kf : files.values())
+			kf.close();
+		files = Collections.emptyNavigableMap();
+		pending.clear();
+	}
+
+	/**
+	 * Keys of {@code [from, to]} that pass {@code live}, ascending and each once.
+	 * Weakly consistent like the index. Block reads that fail surface as
+	 * {@link UncheckedIOException}.
+	 */
+	Iterator<String> keys(String from, String to, Predicate<String> live) {
+		return new Merge(from, to, live);
+	}
+
+	/** Head of one run while merging. */
+	private abstract static class Run {
+		String head;
+
+		/** Move to the next key of the run within the bounds; false once it is exhausted. */
+		abstract boolean advance() throws IOException;
+	}
+
+	private static final class SetRun extends Run {
+		private final Iterator<String> it;
+
+		SetRun(NavigableSet<String> keys, String from, boolean inclusive, String to) {
+			this.it = keys.subSet(from, inclusive, to, true).iterator();
+		}
+
+		@Override
+		boolean advance() {
+			if (!it.hasNext())
+				return false;
+			head = it.next();
+			return true;
+		}
+	}
+
+	private static final class FileRun extends Run {
+		private final KeyFile file;
+		private final String from;
+		private final boolean inclusive;
+		private final String to;
+		private String[] block = new String[0];
+		private int b;
+		private int i;
+		boolean retired; // the file was closed under us
+
+		FileRun(KeyFile file, String from, boolean inclusive, String to) {
+			this.file = file;
+			this.from = from;
+			this.inclusive = inclusive;
+			this.to = to;
+			this.b = file.blockOf(from) - 1;
+		}
+
+		@Override
+		boolean advance() throws IOException {
+			for (;;) {
+				while (i == block.length) {
+					if (++b >= file.blocks())
+						return false;
+					block = file.readBlock(b);
+					if (block == null) {
+						retired = true;
+						return false;
+					}
+					i = 0;
+				}
+				String k = block[i++];
+				int c = k.compareTo(from);
+				if (c < 0 || (c == 0 && !inclusive))
+					continue;
+				if (k.compareTo(to) > 0)
+					return false;
+				head = k;
+				return true;
+			}
+		}
+	}
+
+	private final class Merge implements Iterator<String> {
+		private final String from;
+		private final String to;
+		private final Predicate<String> live;
+		private final PriorityQueue<Run> heap = new PriorityQueue<>((a, b) -> a.head.compareTo(b.head));
+		private String last; // last key taken off the runs, handed out or not
+		private String next;
+
+		Merge(String from, String to, Predicate<String> live) {
+			this.from = from;
+			this.to = to;
+			this.live = live;
+			open();
+		}
+
+		/** (Re)build the runs, past {@link #last} if a key was already taken. */
+		private void open() {
+			for (;;) {
+				heap.clear();
+				String lo = last == null ? from : last;
+				boolean inclusive = last == null;
+				boolean retired = false;
+				for (ConcurrentSkipListSet<String> keys : pending.values())
+					push(new SetRun(keys, lo, inclusive, to));
+				for (KeyFile kf : files.values()) {
+					FileRun r = new FileRun(kf, lo, inclusive, to);
+					push(r);
+					retired |= r.retired;
+				}
+				if (!retired)
+					return;
+			}
+		}
+
+		private void push(Run r) {
+			try {
+				if (r.advance())
+					heap.add(r);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (next == null) {
+				Run r = heap.poll();
+				if (r == null)
+					return false;
+				String k = r.head;
+				push(r);
+				if (last == null || k.compareTo(last) > 0) { // else another run had it already
+					last = k;
+					if (live.test(k))
+						next = k;
+				}
+				if (r instanceof FileRun f && f.retired)
+					open(); // merged away: resume past last on the current files
+			}
+			return true;
+		}
+
+		@Override
+		public String next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			String k = next;
+			next = null;
+			return k;
+		}
+	}
+}
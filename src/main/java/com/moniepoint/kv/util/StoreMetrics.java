@@ -0,0 +1,69 @@
+package com.moniepoint.kv.util;
+
+/**
+ * Instrumentation hooks of the store. Implementations are called on the hot
+ * path with plain primitives and must not allocate or block; everything
+ * defaults to a no-op so the store has no metrics dependency of its own.
+ */
+public interface StoreMetrics {
+
+	/** Public store operations that are timed. */
+	enum Op {
+		PUT, GET, DELETE, BATCH_PUT, RANGE, MULTI_GET
+	}
+
+	StoreMetrics NOOP = new StoreMetrics() {
+	};
+
+	/** Called once the store is open, e.g. to register gauges over its state. */
+	default void bind(KvStore store) {
+	}
+
+	/** One public operation, end to end (including lock waits and, if synchronous, fsync). */
+	default void recordOp(Op op, long nanos) {
+	}
+
+	/** One {@code SegmentFile} append (single record or packed batch). */
+	default void recordAppend(long nanos, long bytes) {
+	}
+
+	/** One fsync of a segment. */
+	default void recordFsync(long nanos) {
+	}
+
+	/** One value read from a segment. */
+	default void recordRead(long nanos, boolean mapped) {
+	}
+
+	/** One point read that consulted the value cache. */
+	default void recordCacheAccess(boolean hit) {
+	}
+
+	/** One value pushed out of the cache by its byte budget. */
+	default void recordCacheEviction() {
+	}
+
+	/** One value read whose checksum did not match; the read failed. */
+	default void recordChecksumFailure() {
+	}
+
+	/**
+	 * One value offered to the codec on the write path. {@code storedBytes}
+	 * equals {@code rawBytes} when compressing did not pay and the value was
+	 * stored raw.
+	 */
+	default void recordCompression(int rawBytes, int storedBytes, long nanos) {
+	}
+
+	/** One compressed value inflated on the read path. */
+	default void recordDecompression(long nanos) {
+	}
+
+	/** Keys dropped by the expiry sweep because their TTL ran out. */
+	default void recordExpired(int keys) {
+	}
+
+	/** Startup: index rebuild from hints and segment scans. */
+	default void recordRecovery(long nanos) {
+	}
+}
@@ -0,0 +1,289 @@
+package com.moniepoint.kv.util;
+
+import java.util.Objects;
+
+/**
+ * Tuning knobs for {@link BitcaskStore}. Accessors follow the record style
+ * ({@code syncMode()} / {@code syncMode(SyncMode)}); setters return
+ * {@code this} so options can be chained.
+ */
+public final class StoreOptions {
+
+	public static final long DEFAULT_MAX_SEGMENT_BYTES = 128L * 1024 * 1024;
+
+	private BitcaskStore.SyncMode syncMode = BitcaskStore.SyncMode.ALWAYS;
+	private int batchSyncEvery = 100;
+	private long syncIntervalMs = 50L;
+	private long compactThresholdBytes = 0L;
+	private long maxSegmentBytes = DEFAULT_MAX_SEGMENT_BYTES;
+	private long compactRateBytesPerSec = 32L * 1024 * 1024;
+	private long compactIntervalMs = 60_000L;
+	private boolean mmapSealedSegments = false;
+	private BitcaskStore.IndexType indexType = BitcaskStore.IndexType.HASH;
+	private BitcaskStore.RangeIndex rangeIndex = BitcaskStore.RangeIndex.MEMORY;
+	private int shards = 1;
+	private long valueCacheBytes = 0L;
+	private int recoveryThreads = Runtime.getRuntime().availableProcessors();
+	private BitcaskStore.ReadVerify readVerify = BitcaskStore.ReadVerify.SAMPLED;
+	private double readVerifySampleRate = 0.01;
+	private long expirySweepIntervalMs = 1_000L;
+	private BitcaskStore.Compression compression = BitcaskStore.Compression.NONE;
+	private int compressMinBytes = 256;
+	private StoreMetrics metrics = StoreMetrics.NOOP;
+	private FileMover fileMover = FileMover.ATOMIC;
+
+	public BitcaskStore.SyncMode syncMode() {
+		return syncMode;
+	}
+
+	public StoreOptions syncMode(BitcaskStore.SyncMode syncMode) {
+		this.syncMode = Objects.requireNonNull(syncMode, "syncMode");
+		return this;
+	}
+
+	public int batchSyncEvery() {
+		return batchSyncEvery;
+	}
+
+	public StoreOptions batchSyncEvery(int batchSyncEvery) {
+		this.batchSyncEvery = batchSyncEvery <= 0 ? 100 : batchSyncEvery;
+		return this;
+	}
+
+	public long syncIntervalMs() {
+		return syncIntervalMs;
+	}
+
+	public StoreOptions syncIntervalMs(long syncIntervalMs) {
+		this.syncIntervalMs = syncIntervalMs < 0 ? 0 : syncIntervalMs;
+		return this;
+	}
+
+	public long compactThresholdBytes() {
+		return compactThresholdBytes;
+	}
+
+	public StoreOptions compactThresholdBytes(long compactThresholdBytes) {
+		this.compactThresholdBytes = Math.max(0, compactThresholdBytes);
+		return this;
+	}
+
+	public long maxSegmentBytes() {
+		return maxSegmentBytes;
+	}
+
+	/** Active segment is sealed and rolled over once it reaches this size. */
+	public StoreOptions maxSegmentBytes(long maxSegmentBytes) {
+		this.maxSegmentBytes = maxSegmentBytes <= 0 ? DEFAULT_MAX_SEGMENT_BYTES : maxSegmentBytes;
+		return this;
+	}
+
+	public long compactRateBytesPerSec() {
+		return compactRateBytesPerSec;
+	}
+
+	/** I/O budget of the background compactor; {@code <= 0} means unthrottled. */
+	public StoreOptions compactRateBytesPerSec(long compactRateBytesPerSec) {
+		this.compactRateBytesPerSec = Math.max(0, compactRateBytesPerSec);
+		return this;
+	}
+
+	public long compactIntervalMs() {
+		return compactIntervalMs;
+	}
+
+	/** How often the compactor checks the dead-byte threshold. */
+	public StoreOptions compactIntervalMs(long compactIntervalMs) {
+		this.compactIntervalMs = compactIntervalMs <= 0 ? 60_000L : compactIntervalMs;
+		return this;
+	}
+
+	public boolean mmapSealedSegments() {
+		return mmapSealedSegments;
+	}
+
+	/**
+	 * Serve reads of sealed segments from a read-only memory mapping. Costs
+	 * virtual address space equal to the sealed data size, so it is opt-in.
+	 */
+	public StoreOptions mmapSealedSegments(boolean mmapSealedSegments) {
+		this.mmapSealedSegments = mmapSealedSegments;
+		return this;
+	}
+
+	public BitcaskStore.IndexType indexType() {
+		return indexType;
+	}
+
+	/**
+	 * In-memory index layout. {@code PACKED} keeps keys and positions in
+	 * primitive arrays (far less heap and GC work per key) but answers range
+	 * queries by scanning the whole index.
+	 */
+	public StoreOptions indexType(BitcaskStore.IndexType indexType) {
+		this.indexType = Objects.requireNonNull(indexType, "indexType");
+		return this;
+	}
+
+	public BitcaskStore.RangeIndex rangeIndex() {
+		return rangeIndex;
+	}
+
+	/**
+	 * Where ranges find their keys. {@code DISK} writes a sorted key file per
+	 * sealed segment and lays merged segments out in key order, so only recent
+	 * keys and sparse fences stay on heap and a range reads mostly sequentially;
+	 * compaction pays for it with a second, key-ordered pass over its inputs.
+	 */
+	public StoreOptions rangeIndex(BitcaskStore.RangeIndex rangeIndex) {
+		this.rangeIndex = Objects.requireNonNull(rangeIndex, "rangeIndex");
+		return this;
+	}
+
+	public int shards() {
+		return shards;
+	}
+
+	/**
+	 * Number of independent partitions keys are hashed over, each a full store
+	 * with its own segments, writer thread and compactor (see
+	 * {@link KvStore#open}). Sync and compaction settings apply per shard.
+	 */
+	public StoreOptions shards(int shards) {
+		if (shards < 1)
+			throw new IllegalArgumentException("shards must be >= 1");
+		this.shards = shards;
+		return this;
+	}
+
+	public long valueCacheBytes() {
+		return valueCacheBytes;
+	}
+
+	/**
+	 * Heap budget of the hot-value cache in front of point reads; {@code 0}
+	 * (the default) turns it off. Per shard when sharded.
+	 */
+	public StoreOptions valueCacheBytes(long valueCacheBytes) {
+		this.valueCacheBytes = Math.max(0, valueCacheBytes);
+		return this;
+	}
+
+	public int recoveryThreads() {
+		return recoveryThreads;
+	}
+
+	/** Segments read in parallel at startup; {@code <= 0} means one per core. */
+	public StoreOptions recoveryThreads(int recoveryThreads) {
+		this.recoveryThreads = recoveryThreads <= 0 ? Runtime.getRuntime().availableProcessors() : recoveryThreads;
+		return this;
+	}
+
+	public BitcaskStore.ReadVerify readVerify() {
+		return readVerify;
+	}
+
+	/**
+	 * Whether value reads check the record's checksum: never, for a
+	 * {@link #readVerifySampleRate} fraction of reads, or always. Recovery and
+	 * compaction always verify.
+	 */
+	public StoreOptions readVerify(BitcaskStore.ReadVerify readVerify) {
+		this.readVerify = Objects.requireNonNull(readVerify, "readVerify");
+		return this;
+	}
+
+	public double readVerifySampleRate() {
+		return readVerifySampleRate;
+	}
+
+	/** Fraction of reads verified under {@code SAMPLED}, 0 to 1. */
+	public StoreOptions readVerifySampleRate(double readVerifySampleRate) {
+		if (!(readVerifySampleRate >= 0 && readVerifySampleRate <= 1))
+			throw new IllegalArgumentException("readVerifySampleRate must be in [0, 1]");
+		this.readVerifySampleRate = readVerifySampleRate;
+		return this;
+	}
+
+	public long expirySweepIntervalMs() {
+		return expirySweepIntervalMs;
+	}
+
+	/**
+	 * How often keys whose TTL ran out are dropped from the index (0 = only
+	 * compaction drops them). Reads treat them as missing either way.
+	 */
+	public StoreOptions expirySweepIntervalMs(long expirySweepIntervalMs) {
+		if (expirySweepIntervalMs < 0)
+			throw new IllegalArgumentException("expirySweepIntervalMs must be >= 0");
+		this.expirySweepIntervalMs = expirySweepIntervalMs;
+		return this;
+	}
+
+	public BitcaskStore.Compression compression() {
+		return compression;
+	}
+
+	/**
+	 * Codec for values of at least {@link #compressMinBytes}. A value is only
+	 * stored compressed if that saves an eighth of it; reads decode any record
+	 * whatever this is set to.
+	 */
+	public StoreOptions compression(BitcaskStore.Compression compression) {
+		this.compression = Objects.requireNonNull(compression, "compression");
+		return this;
+	}
+
+	public int compressMinBytes() {
+		return compressMinBytes;
+	}
+
+	/** Values shorter than this are stored raw; compressing them costs more than it saves. */
+	public StoreOptions compressMinBytes(int compressMinBytes) {
+		if (compressMinBytes < 0)
+			throw new IllegalArgumentException("compressMinBytes must be >= 0");
+		this.compressMinBytes = compressMinBytes;
+		return this;
+	}
+
+	public StoreMetrics metrics() {
+		return metrics;
+	}
+
+	/** Instrumentation sink; {@link StoreMetrics#NOOP} by default. */
+	public StoreOptions metrics(StoreMetrics metrics) {
+		this.metrics = Objects.requireNonNull(metrics, "metrics");
+		return this;
+	}
+
+	FileMover fileMover() {
+		return fileMover;
+	}
+
+	/** Moves merge outputs into place; tests inject failures here. */
+	StoreOptions fileMover(FileMover fileMover) {
+		this.fileMover = Objects.requireNonNull(fileMover, "fileMover");
+		return this;
+	}
+
+	StoreOptions copy() {
+		return new StoreOptions().syncMode(syncMode).batchSyncEvery(batchSyncEvery).syncIntervalMs(syncIntervalMs)
+				.compactThresholdBytes(compactThresholdBytes).maxSegmentBytes(maxSegmentBytes)
+				.compactRateBytesPerSec(compactRateBytesPerSec).compactIntervalMs(compactIntervalMs)
+				.mmapSealedSegments(mmapSealedSegments).indexType(indexType).rangeIndex(rangeIndex).shards(shards)
+				.valueCacheBytes(valueCacheBytes).recoveryThreads(recoveryThreads).readVerify(readVerify)
+				.readVerifySampleRate(readVerifySampleRate).expirySweepIntervalMs(expirySweepIntervalMs)
+				.compression(compression).compressMinBytes(compressMinBytes).metrics(metrics).fileMover(fileMover);
+	}
+
+	@Override
+	public String toString() {
+		return "StoreOptions{syncMode=" + syncMode + ", batchSyncEvery=" + batchSyncEvery + ", syncIntervalMs="
+				+ syncIntervalMs + ", compactThresholdBytes=" + compactThresholdBytes + ", compactRateBytesPerSec="
+				+ compactRateBytesPerSec + ", compactIntervalMs=" + compactIntervalMs + ", maxSegmentBytes="
+				+ maxSegmentBytes + ", mmapSealedSegments=" + mmapSealedSegments + ", indexType=" + indexType
+				+ ", rangeIndex=" + rangeIndex + ", shards=" + shards + ", valueCacheBytes=" + valueCacheBytes + ", recoveryThreads=" + recoveryThreads + ", readVerify="
+				+ readVerify + ", readVerifySampleRate=" + readVerifySampleRate + ", expirySweepIntervalMs="
+				+ expirySweepIntervalMs + ", compression=" + compression + ", compressMinBytes=" + compressMinBytes + "}";
+	}
+}
@@ -0,0 +1,195 @@
+package com.moniepoint.kv.util;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.moniepoint.kv.model.Position;
+
+/**
+ * Size-bounded cache of hot values with S3-FIFO eviction. An entry is keyed
+ * by the key and remembers the {@link Position} its value was read from, so a
+ * lookup only hits while the index still points at that record; an overwrite
+ * can never be served stale, only evicted late.
+ *
+ * New values enter a small FIFO (a tenth of the budget). Those read again
+ * before they reach its tail move to the main FIFO; the rest are evicted and
+ * remembered in a ghost list of keys, so a quick comeback goes straight to
+ * main. The main FIFO gives every entry that was read since its last pass one
+ * more round. One-off reads therefore only ever churn the small queue.
+ *
+ * Hits are lock-free (a map lookup and a racy frequency bump); admissions,
+ * evictions and {@link #clear()} serialize on one lock.
+ */
+final class ValueCache {
+
+	private static final int MAX_FREQ = 3;
+	// rough heap cost of an entry besides the value and the key's chars
+	private static final long ENTRY_OVERHEAD = 96;
+
+	private static final class Entry {
+		final String key;
+		final Position pos;
+		final byte[] value;
+		final long bytes;
+		volatile int freq;
+		volatile boolean removed;
+
+		Entry(String key, Position pos, byte[] value) {
+			this.key = key;
+			this.pos = pos;
+			this.value = value;
+			this.bytes = ENTRY_OVERHEAD + 2L * key.length() + value.length;
+		}
+	}
+
+	private final long maxBytes;
+	private final long smallMaxBytes;
+	private final StoreMetrics metrics;
+	private final ConcurrentHashMap<String, Entry> map = new ConcurrentHashMap<>();
+	private final ReentrantLock lock = new ReentrantLock();
+	// guarded by lock
+	private final ArrayDeque<Entry> small = new ArrayDeque<>();
+	private final ArrayDeque<Entry> main = new ArrayDeque<>();
+	private final LinkedHashSet<String> ghost = new LinkedHashSet<>();
+	private long smallBytes;
+	private long mainBytes;
+	// bumped by clear() under the lock; admissions from an older epoch are dropped
+	private volatile long epoch;
+
+	ValueCache(long maxBytes, StoreMetrics metrics) {
+		if (maxBytes <= 0)
+			throw new IllegalArgumentException("maxBytes must be > 0");
+		this.maxBytes = maxBytes;
+		this.smallMaxBytes = Math.max(1, maxBytes / 10);
+		this.metrics = metrics;
+	}
+
+	/** Cached value of {@code key} if it was read from {@code pos}, else null. */
+	byte[] get(String key, Position pos) {
+		Entry e = map.get(key);
+		if (e != null && e.pos.equals(pos)) {
+			if (e.freq < MAX_FREQ)
+				e.freq++;
+			metrics.recordCacheAccess(true);
+			return e.value;
+		}
+		metrics.recordCacheAccess(false);
+		return null;
+	}
+
+	/** Token for {@link #admit}; read it before resolving the position. */
+	long epoch() {
+		return epoch;
+	}
+
+	/**
+	 * Offer a value just read from disk. Dropped if the cache was cleared since
+	 * {@code epoch} was taken, or if the value is too big to be worth a slot.
+	 */
+	void admit(String key, Position pos, byte[] value, long epoch) {
+		Entry e = new Entry(key, pos, value);
+		if (e.bytes > smallMaxBytes)
+			return;
+		lock.lock();
+		try {
+			if (epoch != this.epoch)
+				return;
+			Entry old = map.put(key, e);
+			if (old != null)
+				old.removed = true;
+			if (ghost.remove(key)) {
+				main.addLast(e);
+				mainBytes += e.bytes;
+			} else {
+				small.addLast(e);
+				smallBytes += e.bytes;
+			}
+			evict();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** Forget the key's entry; it is stale once the key is rewritten. */
+	void invalidate(String key) {
+		Entry e = map.remove(key);
+		if (e != null)
+			e.removed = true; // freed when its queue reaches it
+	}
+
+	/** Drop everything, e.g. after a compaction reassigned positions. */
+	void clear() {
+		lock.lock();
+		try {
+			epoch++;
+			map.clear();
+			small.clear();
+			main.clear();
+			ghost.clear();
+			smallBytes = 0;
+			mainBytes = 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** Bytes held, including entries invalidated but not yet dequeued. */
+	long bytes() {
+		return smallBytes + mainBytes;
+	}
+
+	private void evict() {
+		while (smallBytes + mainBytes > maxBytes) {
+			if (smallBytes > smallMaxBytes || main.isEmpty())
+				evictSmall();
+			else
+				evictMain();
+		}
+	}
+
+	private void evictSmall() {
+		Entry e = small.pollFirst();
+		smallBytes -= e.bytes;
+		if (e.removed)
+			return;
+		if (e.freq > 0) {
+			e.freq = 0;
+			main.addLast(e);
+			mainBytes += e.bytes;
+			return;
+		}
+		drop(e);
+		ghost.add(e.key);
+		if (ghost.size() > map.size() + 16) {
+			Iterator<String> it = ghost.iterator();
+			it.next();
+			it.remove();
+		}
+	}
+
+	private void evictMain() {
+		for (;;) {
+			Entry e = main.pollFirst();
+			mainBytes -= e.bytes;
+			if (e.removed)
+				return;
+			if (e.freq > 0) {
+				e.freq--;
+				main.addLast(e);
+				mainBytes += e.bytes;
+				continue;
+			}
+			drop(e);
+			return;
+		}
+	}
+
+	private void drop(Entry e) {
+		e.removed = true;
+		map.remove(e.key, e);
+		metrics.recordCacheEviction();
+	}
+}
@@ -0,0 +1,129 @@
+package com.moniepoint.kv.util;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Per-record value compression. A value at least {@code minBytes} long is
+ * compressed if that saves an eighth of it or more; anything else is stored as
+ * is. A compressed record carries {@link SegmentFile#FLAG_COMPRESSED} and its
+ * stored value is
+ *
+ * byte codecId int rawLen (little-endian) byte[] payload
+ *
+ * so a reader decodes whatever codec wrote the record, whatever the store is
+ * configured with now. The record checksum covers the stored bytes, like any
+ * other value.
+ *
+ * Deflaters and inflaters hold native zlib state. They are pooled rather than
+ * kept per thread, since every request may run on a fresh virtual thread.
+ */
+final class ValueCodec {
+
+	static final int PREFIX_SIZE = 5; // codec id + raw length
+	private static final byte DEFLATE_ID = 1;
+	private static final int SAMPLE_BYTES = 8 * 1024;
+	private static final int POOL_SIZE = 2 * Runtime.getRuntime().availableProcessors();
+	private static final ArrayBlockingQueue<Inflater> INFLATERS = new ArrayBlockingQueue<>(POOL_SIZE);
+
+	private final BitcaskStore.Compression compression;
+	private final int minBytes;
+	private final StoreMetrics metrics;
+	private final ArrayBlockingQueue<Deflater> deflaters = new ArrayBlockingQueue<>(POOL_SIZE);
+
+	ValueCodec(BitcaskStore.Compression compression, int minBytes, StoreMetrics metrics) {
+		this.compression = Objects.requireNonNull(compression, "compression");
+		this.minBytes = minBytes;
+		this.metrics = Objects.requireNonNull(metrics, "metrics");
+	}
+
+	/** Stored form of {@code value}, or null if it is kept raw. */
+	byte[] encode(byte[] value) {
+		if (compression == BitcaskStore.Compression.NONE || value.length < minBytes)
+			return null;
+		long t0 = System.nanoTime();
+		Deflater d = deflaters.poll();
+		if (d == null)
+			d = new Deflater(Deflater.BEST_SPEED, true); // raw deflate: the record CRC replaces zlib's
+		try {
+			// give up as soon as the output would not save an eighth
+			byte[] out = new byte[value.length - value.length / 8];
+			int n = PREFIX_SIZE;
+			int from = 0;
+			if (value.length > 2 * SAMPLE_BYTES) {
+				// flush a sample first: data that does not compress shows there, at a fraction of the cost
+				// (a flush that fills all of out is cut short, but then the value is stored raw anyway)
+				d.setInput(value, 0, SAMPLE_BYTES);
+				n += d.deflate(out, n, out.length - n, Deflater.SYNC_FLUSH);
+				from = SAMPLE_BYTES;
+			}
+			if (n - PREFIX_SIZE <= from - from / 8) {
+				d.setInput(value, from, value.length - from);
+				d.finish();
+				while (!d.finished() && n < out.length)
+					n += d.deflate(out, n, out.length - n);
+			}
+			if (!d.finished()) {
+				metrics.recordCompression(value.length, value.length, System.nanoTime() - t0);
+				return null;
+			}
+			out[0] = DEFLATE_ID;
+			ByteBuffer.wrap(out).order(LITTLE_ENDIAN).putInt(1, value.length);
+			byte[] stored = Arrays.copyOf(out, n);
+			metrics.recordCompression(value.length, stored.length, System.nanoTime() - t0);
+			return stored;
+		} finally {
+			d.reset();
+			if (!deflaters.offer(d))
+				d.end();
+		}
+	}
+
+	/**
+	 * Raw value of a record flagged {@link SegmentFile#FLAG_COMPRESSED}, whose
+	 * stored value is {@code stored} from its position to its limit.
+	 */
+	static byte[] decode(ByteBuffer stored, StoreMetrics metrics) throws IOException {
+		long t0 = System.nanoTime();
+		ByteBuffer b = stored.slice().order(LITTLE_ENDIAN);
+		if (b.remaining() < PREFIX_SIZE)
+			throw new IOException("compressed value of " + b.remaining() + " bytes has no codec prefix");
+		byte id = b.get(0);
+		int rawLen = b.getInt(1);
+		if (id != DEFLATE_ID)
+			throw new IOException("unknown value codec " + id);
+		if (rawLen < 0)
+			throw new IOException("compressed value claims " + rawLen + " bytes");
+
+		Inflater inf = INFLATERS.poll();
+		if (inf == null)
+			inf = new Inflater(true);
+		try {
+			inf.setInput(b.position(PREFIX_SIZE));
+			byte[] out = new byte[rawLen];
+			int n = 0;
+			while (n < rawLen) {
+				int k = inf.inflate(out, n, rawLen - n);
+				if (k == 0 && (inf.finished() || inf.needsInput() || inf.needsDictionary()))
+					throw new IOException("compressed value ends after " + n + " of " + rawLen + " bytes");
+				n += k;
+			}
+			metrics.recordDecompression(System.nanoTime() - t0);
+			return out;
+		} catch (DataFormatException e) {
+			throw new IOException("undecodable compressed value", e);
+		} finally {
+			inf.reset();
+			if (!INFLATERS.offer(inf))
+				inf.end();
+		}
+	}
+}
@@ -1,19 +1,54 @@
 package com.moniepoint.kv;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 import org.junit.jupiter.api.DisplayName;
+import org.slf4j.LoggerFactory;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import com.moniepoint.kv.config.KvConfig;
+import com.moniepoint.kv.config.KvProperties;
+import com.moniepoint.kv.service.KvService;
+import com.moniepoint.kv.util.BitcaskStore;
+import com.moniepoint.kv.util.ReplicationFollower;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 
+import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.matchesPattern;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
-@SpringBootTest
+@SpringBootTest(properties = "app.api.logging.sample-rate=1")
 @AutoConfigureMockMvc
+@AutoConfigureObservability
 class KvApiIntegrationTests {
 
 	@Autowired
@@ -57,13 +92,113 @@ class KvApiIntegrationTests {
 		mvc.perform(post("/kv/v1/batchPut").contentType(MediaType.APPLICATION_JSON).content(jsonBody))
 				.andExpect(status().isNoContent());
 
-		// Range query
-		mvc.perform(get("/kv/v1/range").param("start", "k1").param("end", "k9")).andExpect(status().isOk())
+		// Range query (streamed body)
+		MvcResult range = mvc.perform(get("/kv/v1/range").param("start", "k1").param("end", "k9"))
+				.andExpect(request().asyncStarted()).andReturn();
+		mvc.perform(asyncDispatch(range)).andExpect(status().isOk())
 				.andExpect(content().string(containsString("k1=v1")))
 				.andExpect(content().string(containsString("k2=v2")))
 				.andExpect(content().string(containsString("k3=v3")));
 	}
 
+	@Test
+	@DisplayName("TTL: keys written with ttlSeconds expire, a non-positive or oversized TTL -> 400")
+	void ttl() throws Exception {
+		mvc.perform(put("/kv/v1/short").param("ttlSeconds", "1").contentType(MediaType.TEXT_PLAIN)
+				.content("s".getBytes())).andExpect(status().isNoContent());
+		mvc.perform(post("/kv/v1/batchPut").contentType(MediaType.APPLICATION_JSON)
+				.content("[{\"key\":\"long\",\"value\":\"l\",\"ttlSeconds\":3600}]"))
+				.andExpect(status().isNoContent());
+		mvc.perform(get("/kv/v1/short")).andExpect(status().isOk()).andExpect(content().bytes("s".getBytes()));
+
+		mvc.perform(put("/kv/v1/bad").param("ttlSeconds", "0").contentType(MediaType.TEXT_PLAIN)
+				.content("b".getBytes())).andExpect(status().isBadRequest());
+		mvc.perform(post("/kv/v1/batchPut").contentType(MediaType.APPLICATION_JSON)
+				.content("[{\"key\":\"bad\",\"value\":\"b\",\"ttlSeconds\":-1}]"))
+				.andExpect(status().isBadRequest());
+		// past the cap the absolute expiry would overflow, or the key would expire at once
+		for (long ttl : new long[] { KvService.MAX_TTL_SECONDS + 1, Long.MAX_VALUE / 1000, Long.MAX_VALUE }) {
+			mvc.perform(put("/kv/v1/bad").param("ttlSeconds", Long.toString(ttl)).contentType(MediaType.TEXT_PLAIN)
+					.content("b".getBytes())).andExpect(status().isBadRequest());
+			mvc.perform(post("/kv/v1/batchPut").contentType(MediaType.APPLICATION_JSON)
+					.content("[{\"key\":\"bad\",\"value\":\"b\",\"ttlSeconds\":" + ttl + "}]"))
+					.andExpect(status().isBadRequest());
+		}
+		mvc.perform(put("/kv/v1/forever").param("ttlSeconds", Long.toString(KvService.MAX_TTL_SECONDS))
+				.contentType(MediaType.TEXT_PLAIN).content("f".getBytes())).andExpect(status().isNoContent());
+		mvc.perform(get("/kv/v1/forever")).andExpect(status().isOk());
+		mvc.perform(get("/kv/v1/bad")).andExpect(status().isNotFound());
+
+		Thread.sleep(1_100);
+		mvc.perform(get("/kv/v1/short")).andExpect(status().isNotFound());
+		mvc.perform(get("/kv/v1/long")).andExpect(status().isOk()).andExpect(content().bytes("l".getBytes()));
+	}
+
+	@Test
+	@DisplayName("Range pages follow the continuation token until the range is exhausted")
+	void rangePagination() throws Exception {
+		for (String k : new String[] { "page-a", "page-b", "page-c", "page-d", "page-e" }) {
+			mvc.perform(put("/kv/v1/" + k).contentType(MediaType.TEXT_PLAIN).content(k.getBytes()))
+					.andExpect(status().isNoContent());
+		}
+
+		StringBuilder all = new StringBuilder();
+		String token = null;
+		int pages = 0;
+		do {
+			var req = get("/kv/v1/range").param("start", "page-").param("end", "page-z").param("limit", "2");
+			if (token != null)
+				req.param("continuationToken", token);
+			MvcResult page = mvc.perform(req).andExpect(request().asyncStarted()).andReturn();
+			MvcResult done = mvc.perform(asyncDispatch(page)).andExpect(status().isOk()).andReturn();
+			all.append(done.getResponse().getContentAsString());
+			token = done.getResponse().getHeader(KvService.CONTINUATION_HEADER);
+			pages++;
+		} while (token != null);
+
+		assertEquals(3, pages);
+		assertEquals("page-a=page-a\npage-b=page-b\npage-c=page-c\npage-d=page-d\npage-e=page-e\n", all.toString());
+
+		mvc.perform(get("/kv/v1/range").param("start", "page-").param("end", "page-z").param("limit", "0"))
+				.andExpect(status().isBadRequest());
+		mvc.perform(get("/kv/v1/range").param("start", "page-").param("end", "page-z").param("continuationToken",
+				"not*a*token")).andExpect(status().isBadRequest());
+	}
+
+	@Test
+	@DisplayName("Store timers and gauges are exported on the Prometheus endpoint")
+	void prometheusMetrics() throws Exception {
+		mvc.perform(put("/kv/v1/metrics-key").contentType(MediaType.TEXT_PLAIN).content("v".getBytes()))
+				.andExpect(status().isNoContent());
+		mvc.perform(get("/kv/v1/metrics-key")).andExpect(status().isOk());
+
+		mvc.perform(get("/actuator/prometheus")).andExpect(status().isOk())
+				.andExpect(content().string(matchesPattern("(?s).*kv_store_op_seconds_count\\{[^}]*op=\"put\".*")))
+				.andExpect(content().string(matchesPattern("(?s).*kv_store_op_seconds_bucket\\{[^}]*op=\"get\".*")))
+				.andExpect(content().string(containsString("kv_segment_fsync_seconds_count")))
+				.andExpect(content().string(containsString("kv_index_entries")))
+				.andExpect(content().string(containsString("kv_recovery_seconds_count")));
+	}
+
+	@Test
+	@DisplayName("Sampled access log writes one logfmt line per request")
+	void accessLog() throws Exception {
+		Logger access = (Logger) LoggerFactory.getLogger("kv.access");
+		ListAppender<ILoggingEvent> captured = new ListAppender<>();
+		captured.start();
+		access.addAppender(captured);
+		try {
+			mvc.perform(put("/kv/v1/logged").contentType(MediaType.TEXT_PLAIN).content("abc".getBytes()))
+					.andExpect(status().isNoContent());
+		} finally {
+			access.detachAppender(captured);
+		}
+
+		assertEquals(1, captured.list.size());
+		assertThat(captured.list.get(0).getFormattedMessage(),
+				matchesPattern("method=PUT path=/kv/v1/logged status=204 ms=\\d+\\.\\d{3} bytesIn=3"));
+	}
+
 	@Test
 	@DisplayName("Empty value is allowed (zero-length body)")
 	void emptyValue() throws Exception {
@@ -72,4 +207,122 @@ class KvApiIntegrationTests {
 
 		mvc.perform(get("/kv/v1/empty")).andExpect(status().isOk()).andExpect(content().bytes(new byte[0]));
 	}
+
+	@Test
+	@DisplayName("Binary bulk load: arbitrary bytes round-trip, malformed frame or invalid key -> 400 with stored count")
+	void bulkBinary() throws Exception {
+		byte[] binary = new byte[256];
+		for (int i = 0; i < binary.length; i++)
+			binary[i] = (byte) i;
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(body);
+		for (int i = 0; i < 100; i++)
+			frame(out, "bulk" + i, i == 42 ? binary : ("v" + i).getBytes());
+		frame(out, "bulk-empty", new byte[0]);
+
+		mvc.perform(post("/kv/v1/bulk").contentType(MediaType.APPLICATION_OCTET_STREAM).content(body.toByteArray()))
+				.andExpect(status().isNoContent()).andExpect(header().string(KvService.STORED_COUNT_HEADER, "101"));
+		mvc.perform(get("/kv/v1/bulk42")).andExpect(status().isOk()).andExpect(content().bytes(binary));
+		mvc.perform(get("/kv/v1/bulk99")).andExpect(status().isOk()).andExpect(content().bytes("v99".getBytes()));
+		mvc.perform(get("/kv/v1/bulk-empty")).andExpect(status().isOk()).andExpect(content().bytes(new byte[0]));
+
+		body.reset();
+		frame(out, "bulk-ok", "fine".getBytes());
+		out.writeInt(10); // key length, then the body ends
+		out.write("trunc".getBytes());
+		mvc.perform(post("/kv/v1/bulk").contentType(MediaType.APPLICATION_OCTET_STREAM).content(body.toByteArray()))
+				.andExpect(status().isBadRequest()).andExpect(header().string(KvService.STORED_COUNT_HEADER, "1"));
+		mvc.perform(get("/kv/v1/bulk-ok")).andExpect(status().isOk()).andExpect(content().bytes("fine".getBytes()));
+
+		body.reset();
+		frame(out, "bulk-before", "kept".getBytes());
+		frame(out, "", "no key".getBytes()); // rejected like PUT with an empty key
+		frame(out, "bulk-after", "never".getBytes());
+		mvc.perform(post("/kv/v1/bulk").contentType(MediaType.APPLICATION_OCTET_STREAM).content(body.toByteArray()))
+				.andExpect(status().isBadRequest()).andExpect(header().string(KvService.STORED_COUNT_HEADER, "1"));
+		mvc.perform(get("/kv/v1/bulk-before")).andExpect(status().isOk()).andExpect(content().bytes("kept".getBytes()));
+		mvc.perform(get("/kv/v1/bulk-after")).andExpect(status().isNotFound());
+	}
+
+	@Test
+	@DisplayName("multiGet streams one frame per distinct key, missing keys last with length -1")
+	void multiGet() throws Exception {
+		for (int i = 0; i < 5; i++)
+			mvc.perform(put("/kv/v1/mg" + i).contentType(MediaType.TEXT_PLAIN).content(("val" + i).getBytes()))
+					.andExpect(status().isNoContent());
+
+		MvcResult started = mvc
+				.perform(post("/kv/v1/multiGet").contentType(MediaType.APPLICATION_JSON)
+						.content("[\"mg3\", \"mg-missing\", \"mg0\", \"mg3\", \"mg4\"]"))
+				.andExpect(request().asyncStarted()).andReturn();
+		byte[] body = mvc.perform(asyncDispatch(started)).andExpect(status().isOk()).andReturn().getResponse()
+				.getContentAsByteArray();
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+		Map<String, String> frames = new LinkedHashMap<>();
+		while (in.available() > 0) {
+			String key = new String(in.readNBytes(in.readInt()), StandardCharsets.UTF_8);
+			int len = in.readInt();
+			frames.put(key, len < 0 ? null : new String(in.readNBytes(len), StandardCharsets.UTF_8));
+		}
+		assertEquals(4, frames.size());
+		assertEquals("val0", frames.get("mg0"));
+		assertEquals("val3", frames.get("mg3"));
+		assertEquals("val4", frames.get("mg4"));
+		assertTrue(frames.containsKey("mg-missing"));
+		assertEquals("mg-missing", List.copyOf(frames.keySet()).get(3));
+
+		mvc.perform(post("/kv/v1/multiGet").contentType(MediaType.APPLICATION_JSON).content("[]"))
+				.andExpect(status().isBadRequest());
+	}
+
+	@Test
+	@DisplayName("Replication log: a fresh follower gets a reset chunk of raw records, then resumes from its cursor")
+	void replicationLog() throws Exception {
+		mvc.perform(put("/kv/v1/repl1").contentType(MediaType.TEXT_PLAIN).content("r".getBytes()))
+				.andExpect(status().isNoContent());
+
+		MvcResult first = mvc.perform(get("/kv/v1/replication/log").param("generation", "-1"))
+				.andExpect(status().isOk()).andExpect(header().string(ReplicationFollower.RESET_HEADER, "true"))
+				.andReturn();
+		assertTrue(first.getResponse().getContentAsByteArray().length > 0);
+
+		// follow the cursor to the end of the log
+		MvcResult last = first;
+		do {
+			String gen = last.getResponse().getHeader(ReplicationFollower.GENERATION_HEADER);
+			String fileId = last.getResponse().getHeader(ReplicationFollower.FILE_ID_HEADER);
+			long next = Long.parseLong(last.getResponse().getHeader(ReplicationFollower.OFFSET_HEADER))
+					+ last.getResponse().getContentAsByteArray().length;
+			last = mvc.perform(get("/kv/v1/replication/log").param("generation", gen).param("fileId", fileId)
+					.param("offset", Long.toString(next))).andExpect(status().isOk())
+					.andExpect(header().string(ReplicationFollower.RESET_HEADER, "false")).andReturn();
+		} while (last.getResponse().getContentAsByteArray().length > 0);
+		assertEquals("0", last.getResponse().getHeader(ReplicationFollower.LAG_BYTES_HEADER));
+	}
+
+	@Test
+	@DisplayName("Replication: a sharded or unsynced follower does not start")
+	void followerRefusesShardsAndLazySync(@TempDir Path dir) throws Exception {
+		KvProperties props = new KvProperties();
+		props.setDataDir(dir.resolve("follower").toString());
+		props.setShards(2);
+		props.setReplicaOf("http://localhost:8080/kv/v1/");
+		assertThrows(IllegalStateException.class, () -> new KvConfig(props).store(new SimpleMeterRegistry()));
+		assertFalse(Files.exists(dir.resolve("follower")));
+
+		// a cursor saved ahead of unsynced writes would skip them after a crash
+		props.setShards(1);
+		props.setSyncMode(BitcaskStore.SyncMode.INTERVAL);
+		assertThrows(IllegalStateException.class, () -> new KvConfig(props).store(new SimpleMeterRegistry()));
+		assertFalse(Files.exists(dir.resolve("follower")));
+	}
+
+	private static void frame(DataOutputStream out, String key, byte[] value) throws IOException {
+		byte[] k = key.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(k.length);
+		out.write(k);
+		out.writeInt(value.length);
+		out.write(value);
+	}
 }
@@ -0,0 +1,44 @@
+package com.moniepoint.kv;
+
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+/** The API over a store with kv.shards > 1, in a context of its own. */
+@SpringBootTest(properties = "kv.shards=2")
+@AutoConfigureMockMvc
+class ShardedApiTests {
+
+	@TempDir
+	static Path dataDir;
+
+	@DynamicPropertySource
+	static void kvProperties(DynamicPropertyRegistry registry) {
+		registry.add("kv.data-dir", () -> dataDir.toString());
+	}
+
+	@Autowired
+	MockMvc mvc;
+
+	@Test
+	@DisplayName("A sharded store serves keys but answers the replication log with 501")
+	void replicationLogNotImplemented() throws Exception {
+		mvc.perform(put("/kv/v1/sharded").contentType(MediaType.TEXT_PLAIN).content("s".getBytes()))
+				.andExpect(status().isNoContent());
+		mvc.perform(get("/kv/v1/sharded")).andExpect(status().isOk()).andExpect(content().bytes("s".getBytes()));
+
+		mvc.perform(get("/kv/v1/replication/log").param("generation", "-1")).andExpect(status().isNotImplemented());
+	}
+}
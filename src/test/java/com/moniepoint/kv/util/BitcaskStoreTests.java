@@ -0,0 +1,1043 @@
+package com.moniepoint.kv.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.moniepoint.kv.model.KvPair;
+
+class BitcaskStoreTests {
+
+	@TempDir
+	Path dir;
+
+	private static byte[] utf8(String s) {
+		return s.getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Test
+	@DisplayName("GROUP mode: concurrent writers are committed and survive reopen")
+	void groupCommitConcurrentWriters() throws Exception {
+		int threads = 8, perThread = 200;
+		try (BitcaskStore s = new BitcaskStore(dir, BitcaskStore.SyncMode.GROUP, 100, 50L, 0L)) {
+			ExecutorService pool = Executors.newFixedThreadPool(threads);
+			List<Future<?>> fs = new ArrayList<>();
+			for (int t = 0; t < threads; t++) {
+				int id = t;
+				fs.add(pool.submit(() -> {
+					for (int i = 0; i < perThread; i++) {
+						s.put("t" + id + "-" + i, utf8("v" + i));
+					}
+					s.delete("t" + id + "-0");
+					s.batchPut(List.of(new KvPair("b" + id, utf8("batch"))));
+					return null;
+				}));
+			}
+			for (Future<?> f : fs)
+				f.get();
+			pool.shutdown();
+		}
+
+		try (BitcaskStore s = new BitcaskStore(dir)) {
+			for (int t = 0; t < threads; t++) {
+				assertTrue(s.get("t" + t + "-0").isEmpty());
+				assertArrayEquals(utf8("v" + (perThread - 1)), s.get("t" + t + "-" + (perThread - 1)).orElseThrow());
+				assertArrayEquals(utf8("batch"), s.get("b" + t).orElseThrow());
+			}
+		}
+	}
+
+	@Test
+	@DisplayName("Single writer: every sync mode reads its own writes under contention and compaction, then refuses writes once closed")
+	void singleWriter() throws Exception {
+		int threads = 6, perThread = 300;
+		for (BitcaskStore.SyncMode mode : BitcaskStore.SyncMode.values()) {
+			Path d = dir.resolve(mode.name());
+			StoreOptions opts = new StoreOptions().syncMode(mode).batchSyncEvery(50).maxSegmentBytes(16 * 1024)
+					.compactRateBytesPerSec(0);
+			BitcaskStore s = new BitcaskStore(d, opts);
+			ExecutorService pool = Executors.newFixedThreadPool(threads + 1);
+			AtomicBoolean stop = new AtomicBoolean();
+			List<Future<?>> fs = new ArrayList<>();
+			for (int t = 0; t < threads; t++) {
+				int id = t;
+				fs.add(pool.submit(() -> {
+					for (int i = 0; i < perThread; i++) {
+						String k = "t" + id + "-" + (i % 50);
+						s.put(k, utf8("v" + i));
+						// acknowledged means published: the very next read sees it
+						assertArrayEquals(utf8("v" + i), s.get(k).orElseThrow());
+					}
+					s.delete("t" + id + "-0");
+					assertTrue(s.get("t" + id + "-0").isEmpty());
+					return null;
+				}));
+			}
+			Future<?> compactor = pool.submit(() -> {
+				while (!stop.get())
+					s.compact();
+				return null;
+			});
+			for (Future<?> f : fs)
+				f.get();
+			stop.set(true);
+			compactor.get();
+			pool.shutdown();
+			s.close();
+			assertThrows(IOException.class, () -> s.put("late", utf8("x")));
+
+			try (BitcaskStore r = new BitcaskStore(d, opts)) {
+				assertEquals(threads * 49L, r.indexSize() - r.tombstoneCount());
+				for (int t = 0; t < threads; t++) {
+					assertTrue(r.get("t" + t + "-0").isEmpty(), mode.name());
+					assertArrayEquals(utf8("v" + (perThread - 1)), r.get("t" + t + "-49").orElseThrow(), mode.name());
+				}
+			}
+		}
+	}
+
+	@Test
+	@DisplayName("INTERVAL mode: background flusher keeps writes durable")
+	void intervalModeFlushesInBackground() throws Exception {
+		try (BitcaskStore s = new BitcaskStore(dir, BitcaskStore.SyncMode.INTERVAL, 100, 5L, 0L)) {
+			for (int i = 0; i < 100; i++) {
+				s.put("k" + i, utf8("v" + i));
+			}
+			s.delete("k0");
+			// nothing but the flusher fsyncs in this mode, so the segment only catches up through it
+			SegmentFile active = s.activeSegment();
+			assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+				while (active.isDirty())
+					Thread.sleep(5);
+			});
+			assertEquals(active.size(), active.syncedSize());
+		}
+
+		try (BitcaskStore s = new BitcaskStore(dir)) {
+			assertTrue(s.get("k0").isEmpty());
+			assertArrayEquals(utf8("v99"), s.get("k99").orElseThrow());
+		}
+	}
+
+	@Test
+	@DisplayName("Active segment rolls over at maxSegmentBytes and all segments recover")
+	void segmentRotation() throws Exception {
+		StoreOptions opts = new StoreOptions().maxSegmentBytes(1024);
+		try (BitcaskStore s = new BitcaskStore(dir, opts)) {
+			for (int i = 0; i < 200; i++) {
+				s.put("k" + i, utf8("value-" + i));
+			}
+			s.delete("k7");
+		}
+
+		try (Stream<Path> files = Files.list(dir)) {
+			assertTrue(files.filter(p -> p.getFileName().toString().endsWith(".log")).count() > 1);
+		}
+
+		try (BitcaskStore s = new BitcaskStore(dir, opts)) {
+			assertTrue(s.get("k7").isEmpty());
+			for (int i = 0; i < 200; i++) {
+				if (i != 7)
+					assertArrayEquals(utf8("value-" + i), s.get("k" + i).orElseThrow());
+			}
+			s.put("after", utf8("reopen"));
+			assertArrayEquals(utf8("reopen"), s.get("after").orElseThrow());
+		}
+	}
+
+	@Test
+	@DisplayName("Compaction drops dead records, keeps live ones and survives reopen")
+	void compactionReclaimsDeadBytes() throws Exception {
+		StoreOptions opts = new StoreOptions().maxSegmentBytes(2048).compactRateBytesPerSec(0);
+		try (BitcaskStore s = new BitcaskStore(dir, opts)) {
+			for (int round = 0; round < 5; round++) {
+				for (int i = 0; i < 100; i++) {
+					s.put("k" + i, utf8("value-" + round + "-" + i));
+				}
+			}
+			for (int i = 0; i < 10; i++) {
+				s.delete("k" + i);
+			}
+			s.put("tail", utf8("x".repeat(4096))); // push everything above into sealed segments
+
+			long deadBefore = s.deadBytes();
+			assertTrue(s.deadByteRatio() > 0.5);
+			long reclaimed = s.compact();
+			assertTrue(reclaimed > 0);
+			assertTrue(s.deadBytes() < deadBefore);
+
+			for (int i = 0; i < 100; i++) {
+				if (i < 10)
+					assertTrue(s.get("k" + i).isEmpty());
+				else
+					assertArrayEquals(utf8("value-4-" + i), s.get("k" + i).orElseThrow());
+			}
+			s.put("k50", utf8("after-compaction"));
+		}
+
+		try (BitcaskStore s = new BitcaskStore(dir, opts)) {
+			assertTrue(s.get("k3").isEmpty());
+			assertArrayEquals(utf8("after-compaction"), s.get("k50").orElseThrow());
+			assertArrayEquals(utf8("value-4-99"), s.get("k99").orElseThrow());
+		}
+	}
+
+	@Test
+	@DisplayName("Compaction: a crash part-way through the install is finished on the next start")
+	void compactionInstallCrash() throws Exception {
+		StoreOptions opts = new StoreOptions().maxSegmentBytes(1024).compactRateBytesPerSec(0);
+		for (int crashAt = 1; crashAt <= 4; crashAt++) {
+			Path d = dir.resolve("crash-" + crashAt);
+			Map<String, String> expected = new HashMap<>();
+			try (BitcaskStore s = new BitcaskStore(d, opts.copy().fileMover(crashAfterMoves(crashAt)))) {
+				for (int round = 0; round < 3; round++) {
+					for (int i = 0; i < 60; i++) {
+						s.put("k" + i, utf8("value-" + round + "-" + i));
+						expected.put("k" + i, "value-" + round + "-" + i);
+					}
+				}
+				s.put("big", utf8("b".repeat(3000))); // an input larger than maxSegmentBytes
+				expected.put("big", "b".repeat(3000));
+				for (int i = 0; i < 60; i += 3) {
+					s.delete("k" + i);
+					expected.remove("k" + i);
+				}
+				s.put("tail", utf8("x".repeat(2048)));
+				expected.put("tail", "x".repeat(2048));
+
+				assertThrows(IOException.class, s::compact);
+				assertTrue(Files.exists(d.resolve(MergeManifest.FILE)));
+			}
+
+			try (BitcaskStore s = new BitcaskStore(d, opts)) {
+				assertFalse(Files.exists(d.resolve(MergeManifest.FILE)));
+				try (Stream<Path> files = Files.list(d)) {
+					assertTrue(files.noneMatch(p -> p.toString().endsWith(".compact")));
+				}
+				for (int i = 0; i < 60; i++)
+					assertEquals(expected.get("k" + i), s.get("k" + i).map(String::new).orElse(null), "k" + i);
+				assertArrayEquals(utf8(expected.get("big")), s.get("big").orElseThrow());
+				s.put("after", utf8("restart"));
+				s.put("tail2", utf8("x".repeat(2048)));
+				s.compact(); // throws if a manifest were left behind
+			}
+			try (BitcaskStore s = new BitcaskStore(d, opts)) {
+				for (int i = 0; i < 60; i++)
+					assertEquals(expected.get("k" + i), s.get("k" + i).map(String::new).orElse(null), "k" + i);
+				assertArrayEquals(utf8("restart"), s.get("after").orElseThrow());
+			}
+		}
+	}
+
+	/** Moves like the store does, but fails the {@code n}th move as a crash there would. */
+	private static FileMover crashAfterMoves(int n) {
+		AtomicInteger moves = new AtomicInteger();
+		return (from, to) -> {
+			if (moves.incrementAndGet() == n)
+				throw new IOException("simulated crash after a partial install");
+			FileMover.ATOMIC.move(from, to);
+		};
+	}
+
+	@Test
+	@DisplayName("Sealed segments get hint files; a corrupt hint falls back to a full scan")
+	void hintFiles() throws Exception {
+		StoreOptions opts = new StoreOptions().maxSegmentBytes(1024);
+		try (BitcaskStore s = new BitcaskStore(dir, opts)) {
+			for (int i = 0; i < 100; i++) {
+				s.put("k" + i, utf8("value-" + i));
+			}
+			s.delete("k1");
+		}
+
+		Path hint = dir.resolve("segment-000001.hint");
+		assertTrue(Files.exists(hint));
+		try (BitcaskStore s = new BitcaskStore(dir, opts)) {
+			assertTrue(s.get("k1").isEmpty());
+			assertArrayEquals(utf8("value-0"), s.get("k0").orElseThrow());
+			assertArrayEquals(utf8("value-99"), s.get("k99").orElseThrow());
+		}
+
+		byte[] bytes = Files.readAllBytes(hint);
+		bytes[bytes.length / 2] ^= 0x5A;
+		Files.write(hint, bytes);
+		try (BitcaskStore s = new BitcaskStore(dir, opts)) {
+			assertArrayEquals(utf8("value-0"), s.get("k0").orElseThrow());
+			assertTrue(s.get("k1").isEmpty());
+		}
+	}
+
+	@Test
+	@DisplayName("GETs, multiGets and ranges complete while the writer thread is stalled mid-append")
+	void readsDoNotWaitForWriter() throws Exception {
+		int keys = 5_000;
+		AtomicBoolean stall = new AtomicBoolean();
+		CountDownLatch stalled = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		StoreMetrics stalling = new StoreMetrics() {
+			@Override
+			public void recordAppend(long nanos, long bytes) {
+				if (stall.compareAndSet(true, false)) {
+					stalled.countDown();
+					try {
+						release.await(); // runs on the writer thread, which now stands still
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+		};
+		StoreOptions opts = new StoreOptions().syncMode(BitcaskStore.SyncMode.EVERY_N).maxSegmentBytes(64 * 1024)
+				.compactRateBytesPerSec(0).metrics(stalling);
+		try (BitcaskStore s = new BitcaskStore(dir, opts)) {
+			for (int i = 0; i < keys; i++) {
+				s.put("k" + i, utf8("value-" + i));
+			}
+			s.compact(); // reads below cover merged, sealed and active segments
+
+			ExecutorService pool = Executors.newFixedThreadPool(5);
+			try {
+				stall.set(true);
+				Future<?> put = pool.submit(() -> {
+					s.put("k0", utf8("stalled"));
+					return null;
+				});
+				assertTrue(stalled.await(5, TimeUnit.SECONDS));
+
+				assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+					List<Future<?>> readers = new ArrayList<>();
+					for (int t = 0; t < 4; t++) {
+						readers.add(pool.submit(() -> {
+							for (int i = 1; i < keys; i++)
+								assertArrayEquals(utf8("value-" + i), s.get("k" + i).orElseThrow());
+							return null;
+						}));
+					}
+					for (Future<?> r : readers)
+						r.get();
+					// the stalled put is not published yet
+					assertArrayEquals(utf8("value-0"), s.get("k0").orElseThrow());
+					assertEquals(3, s.multiGet(List.of("k1", "k2", "k3"), (k, v) -> true));
+					assertEquals(10, s.getRange("k4990", "k4999").size());
+				});
+				assertFalse(put.isDone());
+
+				release.countDown();
+				put.get(5, TimeUnit.SECONDS);
+				assertArrayEquals(utf8("stalled"), s.get("k0").orElseThrow());
+			} finally {
+				release.countDown();
+				pool.shutdown();
+			}
+		}
+	}
+
+	@Test
+	@DisplayName("Sealed segments are served from mmap across rotation, compaction and reopen")
+	void mmapSealedSegments() throws Exception {
+		StoreOptions opts = new StoreOptions().maxSegmentBytes(1024).compactRateBytesPerSec(0)
+				.mmapSealedSegments(true);
+		try (BitcaskStore s = new BitcaskStore(dir, opts)) {
+			for (int round = 0; round < 3; round++) {
+				for (int i = 0; i < 100; i++) {
+					s.put("k" + i, utf8("value-" + round + "-" + i));
+				}
+			}
+			s.put("empty", new byte[0]);
+			s.delete("k5");
+			s.put("tail", utf8("x".repeat(2048)));
+			assertArrayEquals(utf8("value-2-0"), s.get("k0").orElseThrow());
+			s.compact();
+			assertArrayEquals(utf8("value-2-42"), s.get("k42").orElseThrow());
+			assertArrayEquals(new byte[0], s.get("empty").orElseThrow());
+		}
+		try (BitcaskStore s = new BitcaskStore(dir, opts)) {
+			assertTrue(s.get("k5").isEmpty());
+			assertArrayEquals(utf8("value-2-99"), s.get("k99").orElseThrow());
+			assertArrayEquals(new byte[0], s.get("empty").orElseThrow());
+		}
+	}
+
+	@Test
+	@DisplayName("PACKED index: growth, overwrites, deletes, ranges, compaction and reopen")
+	void packedIndex() throws Exception {
+		StoreOptions opts = new StoreOptions().indexType(BitcaskStore.IndexType.PACKED).maxSegmentBytes(64 * 1024)
+				.compactRateBytesPerSec(0);
+		int n = 5000; // several table rebuilds
+		try (BitcaskStore s = new BitcaskStore(dir, opts)) {
+			for (int round = 0; round < 2; round++) {
+				for (int i = 0; i < n; i++) {
+					s.put(String.format("k%05d", i), utf8("v" + round + "-" + i));
+				}
+			}
+			for (int i = 0; i < n; i += 2) {
+				s.delete(String.format("k%05d", i));
+			}
+			s.put("kå€", utf8("unicode"));
+			s.put("tail", utf8("x".repeat(128 * 1024)));
+			s.compact(); // drops the tombstones from the index
+
+			assertTrue(s.get("k00000").isEmpty());
+			assertArrayEquals(utf8("v1-1"), s.get("k00001").orElseThrow());
+			assertArrayEquals(utf8("unicode"), s.get("kå€").orElseThrow());
+			List<KvPair> range = s.getRange("k00010", "k00020");
+			assertEquals(List.of("k00011", "k00013", "k00015", "k00017", "k00019"),
+					range.stream().map(KvPair::key).toList());
+		}
+		try (BitcaskStore s = new BitcaskStore(dir, opts)) {
+			assertTrue(s.get("k04998").isEmpty());
+			assertArrayEquals(utf8("v1-4999"), s.get("k04999").orElseThrow());
+			assertEquals(n / 2, s.getRange("k", "kz").size()); // odd keys only
+		}
+	}
+
+	@Test
+	@DisplayName("PACKED index: writers, readers and back-to-back compactions race without losing a write")
+	void packedIndexUnderCompaction() throws Exception {
+		int writers = 4, perWriter = 2_000, keysPerWriter = 50;
+		StoreOptions opts = new StoreOptions().indexType(BitcaskStore.IndexType.PACKED).maxSegmentBytes(4096)
+				.compactRateBytesPerSec(0).mmapSealedSegments(true);
+		Map<String, String> expected = new ConcurrentHashMap<>();
+		try (BitcaskStore s = new BitcaskStore(dir, opts)) {
+			ExecutorService pool = Executors.newFixedThreadPool(writers + 2);
+			AtomicBoolean stop = new AtomicBoolean();
+			List<Future<?>> fs = new ArrayList<>();
+			for (int t = 0; t < writers; t++) {
+				int id = t;
+				fs.add(pool.submit(() -> {
+					for (int i = 0; i < perWriter; i++) {
+						String k = "t" + id + "-" + (i % keysPerWriter);
+						if (i % 7 == 0) {
+							s.delete(k);
+							expected.remove(k);
+						} else {
+							s.put(k, utf8("v" + i));
+							expected.put(k, "v" + i);
+						}
+					}
+					return null;
+				}));
+			}
+			Future<?> reader = pool.submit(() -> {
+				while (!stop.get()) {
+					for (int i = 0; i < keysPerWriter; i++)
+						s.get("t0-" + i).ifPresent(v -> assertEquals('v', (char) v[0]));
+				}
+				return null;
+			});
+			Future<?> compactor = pool.submit(() -> {
+				while (!stop.get())
+					s.compact();
+				return null;
+			});
+			for (Future<?> f : fs)
+				f.get(30, TimeUnit.SECONDS);
+			stop.set(true);
+			reader.get(30, TimeUnit.SECONDS);
+			compactor.get(30, TimeUnit.SECONDS);
+			pool.shutdown();
+
+			s.compact();
+			assertPacked(expected, s, writers, keysPerWriter);
+		}
+		try (BitcaskStore s = new BitcaskStore(dir, opts)) {
+			assertPacked(expected, s, writers, keysPerWriter);
+		}
+	}
+
+	private static void assertPacked(Map<String, String> expected, BitcaskStore s, int writers, int keysPerWriter)
+			throws IOException {
+		for (int t = 0; t < writers; t++) {
+			for (int i = 0; i < keysPerWriter; i++) {
+				String k = "t" + t + "-" + i;
+				assertEquals(expected.get(k), s.get(k).map(String::new).orElse(null), k);
+			}
+		}
+		assertEquals(expected.size(), s.getRange("t", "u").size());
+	}
+
+	@Test
+	@DisplayName("Sharded store: routing, batches, merged ranges, reopen and a fixed shard count")
+	void shardedStore() throws Exception {
+		StoreOptions opts = new StoreOptions().syncMode(BitcaskStore.SyncMode.GROUP).shards(4);
+		try (KvStore s = KvStore.open(dir, opts)) {
+			assertTrue(s instanceof ShardedStore);
+			List<KvPair> batch = new ArrayList<>();
+			for (int i = 0; i < 200; i++) {
+				batch.add(new KvPair(String.format("k%03d", i), utf8("v" + i)));
+			}
+			s.batchPut(batch);
+			s.put("k007", utf8("seven"));
+			for (int i = 0; i < 200; i += 3) {
+				s.delete(String.format("k%03d", i));
+			}
+
+			assertArrayEquals(utf8("seven"), s.get("k007").orElseThrow());
+			assertTrue(s.get("k000").isEmpty());
+			List<String> keys = s.getRange("k010", "k020").stream().map(KvPair::key).toList();
+			assertEquals(List.of("k010", "k011", "k013", "k014", "k016", "k017", "k019", "k020"), keys);
+			assertEquals("k011", s.rangePageEnd("k010", "k020", 2));
+			assertEquals(133, s.getRange("k", "kz").size());
+		}
+		for (int i = 0; i < 4; i++) {
+			assertTrue(Files.isDirectory(ShardedStore.shardDir(dir, i)));
+		}
+		try (KvStore s = KvStore.open(dir, opts)) {
+			assertArrayEquals(utf8("v199"), s.get("k199").orElseThrow());
+			assertTrue(s.get("k198").isEmpty());
+			assertEquals(133, s.indexSize() - s.tombstoneCount());
+		}
+		assertThrows(IllegalStateException.class, () -> KvStore.open(dir, opts.copy().shards(2)));
+		assertThrows(IllegalStateException.class, () -> KvStore.open(dir, opts.copy().shards(1)));
+	}
+
+	@Test
+	@DisplayName("multiGet: disk-ordered coalesced reads across segments, mmap, deletes and compaction")
+	void multiGet() throws Exception {
+		for (boolean mmap : new boolean[] { false, true }) {
+			Path d = dir.resolve("mmap-" + mmap);
+			StoreOptions opts = new StoreOptions().maxSegmentBytes(8 * 1024).compactRateBytesPerSec(0)
+					.mmapSealedSegments(mmap);
+			try (BitcaskStore s = new BitcaskStore(d, opts)) {
+				for (int i = 0; i < 500; i++) {
+					s.put(String.format("m%03d", i), utf8("value-" + i));
+				}
+				s.put("m007", utf8("x".repeat(2 * 1024 * 1024))); // larger than one coalesced read
+				s.delete("m100");
+				if (mmap)
+					s.compact();
+
+				List<String> keys = new ArrayList<>();
+				for (int i = 499; i >= 0; i -= 3) {
+					keys.add(String.format("m%03d", i));
+				}
+				keys.add("m100"); // deleted
+				keys.add("nope");
+				keys.add("m499"); // duplicate
+				keys.add("m007");
+
+				List<String> visited = new ArrayList<>();
+				long n = s.multiGet(keys, (k, v) -> {
+					visited.add(k);
+					int i = Integer.parseInt(k.substring(1));
+					assertArrayEquals(i == 7 ? utf8("x".repeat(2 * 1024 * 1024)) : utf8("value-" + i), v);
+					return true;
+				});
+				assertEquals(166, n); // 167 in the stride, m100 deleted; m007 and m499 repeat
+				assertEquals(166, visited.stream().distinct().count());
+				assertTrue(!visited.contains("m100") && !visited.contains("nope"));
+
+				List<String> firstTwo = new ArrayList<>();
+				assertEquals(2, s.multiGet(keys, (k, v) -> firstTwo.add(k) && firstTwo.size() < 2));
+			}
+		}
+	}
+
+	@Test
+	@DisplayName("Value cache: hits, invalidation on write, compaction, no range pollution, scan resistance")
+	void valueCache() throws Exception {
+		LongAdder hits = new LongAdder();
+		StoreMetrics counting = new StoreMetrics() {
+			@Override
+			public void recordCacheAccess(boolean hit) {
+				if (hit)
+					hits.increment();
+			}
+		};
+		StoreOptions opts = new StoreOptions().maxSegmentBytes(16 * 1024).compactRateBytesPerSec(0)
+				.valueCacheBytes(64 * 1024).metrics(counting);
+		try (BitcaskStore s = new BitcaskStore(dir, opts)) {
+			for (int i = 0; i < 2000; i++) {
+				s.put(String.format("c%04d", i), utf8("value-" + i));
+			}
+			s.getRange("c0000", "c1999");
+			assertEquals(0, s.cacheBytes()); // ranges read past the cache
+
+			s.get("hot");
+			s.put("hot", utf8("v1"));
+			for (int i = 0; i < 3; i++)
+				assertArrayEquals(utf8("v1"), s.get("hot").orElseThrow());
+			assertEquals(2, hits.sum());
+			s.put("hot", utf8("v2"));
+			assertArrayEquals(utf8("v2"), s.get("hot").orElseThrow()); // rewritten: a miss, never stale
+
+			// a one-pass scan of every key through get() must not evict the hot key
+			for (int i = 0; i < 2000; i++) {
+				s.get(String.format("c%04d", i));
+				if (i % 50 == 0)
+					s.get("hot");
+			}
+			assertTrue(s.cacheBytes() <= 64 * 1024);
+			long before = hits.sum();
+			assertArrayEquals(utf8("v2"), s.get("hot").orElseThrow());
+			assertEquals(before + 1, hits.sum());
+
+			s.delete("hot");
+			assertTrue(s.get("hot").isEmpty());
+			for (int i = 0; i < 2000; i += 2) {
+				s.delete(String.format("c%04d", i));
+			}
+			s.put("tail", utf8("x".repeat(32 * 1024)));
+			assertArrayEquals(utf8("value-1"), s.get("c0001").orElseThrow());
+			s.compact();
+			assertArrayEquals(utf8("value-1"), s.get("c0001").orElseThrow());
+			assertArrayEquals(utf8("value-1999"), s.get("c1999").orElseThrow());
+			assertTrue(s.get("c1998").isEmpty());
+		}
+	}
+
+	@Test
+	@DisplayName("Parallel recovery: same index and dead bytes as a serial scan, with or without hints")
+	void parallelRecovery() throws Exception {
+		StoreOptions opts = new StoreOptions().maxSegmentBytes(8 * 1024).recoveryThreads(1);
+		byte[] big = utf8("b".repeat(1536 * 1024)); // larger than the scan buffer
+		try (BitcaskStore s = new BitcaskStore(dir, opts)) {
+			for (int round = 0; round < 3; round++) {
+				for (int i = 0; i < 300; i++) {
+					s.put("p" + i, utf8("value-" + i + "-r" + round));
+				}
+				s.put("big", big);
+			}
+			for (int i = 0; i < 300; i += 3) {
+				s.delete("p" + i);
+			}
+			s.put("p3", utf8("back"));
+		}
+		try (Stream<Path> files = Files.list(dir)) {
+			for (Path p : files.filter(p -> p.getFileName().toString().endsWith(".hint")).toList())
+				Files.delete(p);
+		}
+
+		long[] serial = null;
+		for (int threads : new int[] { 1, 4, 4 }) { // the second 4 replays the hints written meanwhile
+			try (BitcaskStore s = new BitcaskStore(dir, opts.copy().recoveryThreads(threads))) {
+				long[] stats = { s.indexSize(), s.tombstoneCount(), s.deadBytes(), s.totalBytes() };
+				if (serial == null)
+					serial = stats;
+				assertArrayEquals(serial, stats);
+				assertArrayEquals(utf8("back"), s.get("p3").orElseThrow());
+				assertTrue(s.get("p6").isEmpty());
+				assertArrayEquals(utf8("value-7-r2"), s.get("p7").orElseThrow());
+				assertArrayEquals(big, s.get("big").orElseThrow());
+			}
+		}
+	}
+
+	@Test
+	@DisplayName("Read verification: bit rot is rejected and counted, legacy CRC32 records still verify")
+	void readVerification() throws Exception {
+		LongAdder failures = new LongAdder();
+		StoreMetrics counting = new StoreMetrics() {
+			@Override
+			public void recordChecksumFailure() {
+				failures.increment();
+			}
+		};
+		// a record as older versions wrote it: CRC32, no CRC32C flag
+		byte[] k = utf8("legacy"), v = utf8("old-format");
+		ByteBuffer rec = ByteBuffer.allocate(SegmentFile.HEADER_SIZE + k.length + v.length)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		CRC32 crc32 = new CRC32();
+		crc32.update(k);
+		crc32.update(v);
+		rec.putInt(k.length).putInt(v.length).put((byte) 0).putInt((int) crc32.getValue()).put(k).put(v);
+		Files.write(dir.resolve("segment-000001.log"), rec.array());
+
+		StoreOptions opts = new StoreOptions().maxSegmentBytes(1024).metrics(counting);
+		try (BitcaskStore s = new BitcaskStore(dir, opts)) {
+			assertArrayEquals(v, s.get("legacy").orElseThrow());
+			s.put("victim", utf8("precious-value"));
+			for (int i = 0; i < 100; i++) {
+				s.put("pad" + i, utf8("filler-" + i)); // seal the victim's segment
+			}
+		}
+		// flip one value byte of the victim on disk
+		Path seg = dir.resolve("segment-000001.log");
+		byte[] raw = Files.readAllBytes(seg);
+		int at = new String(raw, StandardCharsets.ISO_8859_1).indexOf("precious-value");
+		raw[at] ^= 0x20;
+		Files.write(seg, raw);
+
+		for (boolean mmap : new boolean[] { false, true }) {
+			StoreOptions verified = opts.copy().mmapSealedSegments(mmap).readVerify(BitcaskStore.ReadVerify.ALWAYS);
+			try (BitcaskStore s = new BitcaskStore(dir, verified)) {
+				assertArrayEquals(v, s.get("legacy").orElseThrow());
+				assertThrows(CorruptRecordException.class, () -> s.get("victim"));
+				assertThrows(CorruptRecordException.class, () -> s.multiGet(List.of("victim"), (key, val) -> true));
+				assertArrayEquals(utf8("filler-7"), s.get("pad7").orElseThrow());
+			}
+		}
+		assertEquals(4, failures.sum());
+
+		try (BitcaskStore s = new BitcaskStore(dir, opts.copy().readVerify(BitcaskStore.ReadVerify.OFF))) {
+			assertArrayEquals(utf8("Precious-value"), s.get("victim").orElseThrow()); // unverified: served as is
+		}
+	}
+
+	@Test
+	@DisplayName("TTL: expired keys vanish from reads, the sweep and compaction reclaim them, reopen keeps them gone")
+	void ttl() throws Exception {
+		for (BitcaskStore.IndexType type : BitcaskStore.IndexType.values()) {
+			Path d = dir.resolve(type.name());
+			StoreOptions opts = new StoreOptions().indexType(type).maxSegmentBytes(8 * 1024).compactRateBytesPerSec(0)
+					.expirySweepIntervalMs(10);
+			long past = System.currentTimeMillis() - 1;
+			long future = System.currentTimeMillis() + 3_600_000;
+			try (BitcaskStore s = new BitcaskStore(d, opts)) {
+				s.put("gone", utf8("old")); // shadowed by the expired record below
+				s.put("gone", utf8("new"), past);
+				s.put("kept", utf8("v"), future);
+				s.batchPut(List.of(new KvPair("b-gone", utf8("x"), past), new KvPair("b-kept", utf8("y"), future)));
+				s.put("soon", utf8("s"), System.currentTimeMillis() + 200);
+
+				assertTrue(s.get("gone").isEmpty());
+				assertTrue(s.get("b-gone").isEmpty());
+				assertArrayEquals(utf8("v"), s.get("kept").orElseThrow());
+				assertArrayEquals(utf8("s"), s.get("soon").orElseThrow());
+				assertEquals(List.of("b-kept", "kept", "soon"), s.getRange("a", "z").stream().map(KvPair::key).toList());
+				List<String> seen = new ArrayList<>();
+				s.multiGet(List.of("gone", "kept", "b-gone"), (k, v) -> seen.add(k));
+				assertEquals(List.of("kept"), seen);
+
+				// the sweep drops due keys from the index and counts their bytes as dead
+				long deadline = System.currentTimeMillis() + 5_000;
+				while (s.indexSize() > 2 && System.currentTimeMillis() < deadline) {
+					Thread.sleep(10);
+				}
+				assertEquals(2, s.indexSize());
+				assertTrue(s.get("soon").isEmpty());
+				assertTrue(s.deadBytes() > 0);
+
+				// an overwrite without TTL clears the expiry
+				s.put("kept", utf8("forever"));
+				for (int i = 0; i < 200; i++) {
+					s.put("pad" + (i % 20), utf8("p".repeat(64))); // seal the TTL segments
+				}
+				s.compact();
+			}
+			// expired records and the records they shadowed stay gone, hints or not
+			for (int pass = 0; pass < 2; pass++) {
+				if (pass == 1) {
+					try (Stream<Path> hints = Files.list(d)) {
+						for (Path h : hints.filter(f -> f.toString().endsWith(".hint")).toList())
+							Files.delete(h);
+					}
+				}
+				try (BitcaskStore s = new BitcaskStore(d, opts)) {
+					assertTrue(s.get("gone").isEmpty(), type + " pass " + pass);
+					assertTrue(s.get("soon").isEmpty());
+					assertArrayEquals(utf8("forever"), s.get("kept").orElseThrow());
+					assertArrayEquals(utf8("y"), s.get("b-kept").orElseThrow());
+					assertEquals(22, s.getRange("", "~").size());
+				}
+			}
+		}
+	}
+
+	@Test
+	@DisplayName("Compression: values round-trip on every read path, incompressible ones stay raw, settings can change")
+	void compression() throws Exception {
+		LongAdder raw = new LongAdder();
+		LongAdder stored = new LongAdder();
+		LongAdder inflated = new LongAdder();
+		StoreMetrics counting = new StoreMetrics() {
+			@Override
+			public void recordCompression(int rawBytes, int storedBytes, long nanos) {
+				raw.add(rawBytes);
+				stored.add(storedBytes);
+			}
+
+			@Override
+			public void recordDecompression(long nanos) {
+				inflated.increment();
+			}
+		};
+		StoreOptions deflate = new StoreOptions().compression(BitcaskStore.Compression.DEFLATE).compressMinBytes(64)
+				.maxSegmentBytes(64 * 1024).compactRateBytesPerSec(0).readVerify(BitcaskStore.ReadVerify.ALWAYS)
+				.metrics(counting);
+		int n = 500;
+		byte[] noise = new byte[40 * 1024]; // past the codec's sample, which gives up on it
+		ThreadLocalRandom.current().nextBytes(noise);
+		byte[] big = utf8(new String(json(1), StandardCharsets.UTF_8).repeat(20));
+		try (BitcaskStore s = new BitcaskStore(dir, deflate)) {
+			for (int i = 0; i < n; i++) {
+				s.put(String.format("j%04d", i), json(i));
+			}
+			s.batchPut(List.of(new KvPair("noise", noise), new KvPair("tiny", utf8("{}")), new KvPair("big", big)));
+			assertTrue((stored.sum() - noise.length) * 5 < raw.sum() - noise.length,
+					"ratio " + raw.sum() + "/" + stored.sum());
+			assertTrue(s.totalBytes() * 3 < (long) n * json(0).length);
+
+			assertArrayEquals(json(7), s.get("j0007").orElseThrow());
+			assertArrayEquals(noise, s.get("noise").orElseThrow());
+			assertArrayEquals(utf8("{}"), s.get("tiny").orElseThrow());
+			assertArrayEquals(big, s.get("big").orElseThrow());
+			List<byte[]> got = new ArrayList<>();
+			s.multiGet(List.of("j0001", "j0002", "noise"), (k, v) -> got.add(v));
+			assertArrayEquals(json(1), got.get(0));
+			assertArrayEquals(json(2), got.get(1));
+			assertArrayEquals(noise, got.get(2));
+			assertEquals(n, s.getRange("j", "k").size());
+			assertTrue(inflated.sum() > 0);
+		}
+		// records written raw are compressed by a later compaction; compressed ones read back with compression off
+		try (BitcaskStore s = new BitcaskStore(dir, new StoreOptions().maxSegmentBytes(64 * 1024))) {
+			for (int i = 0; i < n; i += 2) {
+				s.put(String.format("j%04d", i), json(i + 1)); // raw now
+			}
+			assertArrayEquals(json(3), s.get("j0003").orElseThrow());
+			assertArrayEquals(json(5), s.get("j0004").orElseThrow());
+		}
+		try (BitcaskStore s = new BitcaskStore(dir, deflate.copy().mmapSealedSegments(true))) {
+			long before = s.totalBytes();
+			s.put("seal", utf8("x".repeat(64 * 1024)));
+			s.compact();
+			assertTrue(s.totalBytes() < before);
+			for (int i = 0; i < n; i++) {
+				assertArrayEquals(json(i % 2 == 0 ? i + 1 : i), s.get(String.format("j%04d", i)).orElseThrow());
+			}
+			assertArrayEquals(noise, s.get("noise").orElseThrow());
+
+			// a follower gets raw values and stores them by its own settings
+			try (BitcaskStore follower = new BitcaskStore(dir.resolve("follower"), new StoreOptions())) {
+				ReplicationFollower f = new ReplicationFollower(follower, s::readLog, dir.resolve("REPLICA"), 10);
+				catchUp(f);
+				assertEquals(s.getRange("", "~"), follower.getRange("", "~"));
+			}
+		}
+	}
+
+	/** Poll until the follower reports it caught up; bounded, so a cursor that never advances fails the test. */
+	private static void catchUp(ReplicationFollower f) throws IOException {
+		for (int i = 0; i < 1_000; i++) {
+			if (f.pollOnce())
+				return;
+		}
+		fail("follower did not catch up within 1000 polls");
+	}
+
+	/** A few KB of JSON that compresses the way real documents do. */
+	private static byte[] json(int i) {
+		StringBuilder sb = new StringBuilder("{\"id\":" + i + ",\"name\":\"customer-" + i + "\",\"orders\":[");
+		for (int o = 0; o < 20; o++) {
+			sb.append(o == 0 ? "" : ",").append("{\"orderId\":").append(i * 100 + o)
+					.append(",\"status\":\"SETTLED\",\"channel\":\"pos\",\"currency\":\"NGN\",\"amount\":")
+					.append((i * 31 + o * 7) % 10_000).append(",\"merchant\":{\"city\":\"Lagos\",\"country\":\"NG\"}}");
+		}
+		return utf8(sb.append("]}").toString());
+	}
+
+	@Test
+	@DisplayName("Replication: follower tails the leader, survives a restart and resyncs after a compaction")
+	void replication() throws Exception {
+		StoreOptions opts = new StoreOptions().maxSegmentBytes(4 * 1024).compactRateBytesPerSec(0);
+		Path cursor = dir.resolve("follower-REPLICA");
+		try (BitcaskStore leader = new BitcaskStore(dir.resolve("leader"), opts);
+				BitcaskStore follower = new BitcaskStore(dir.resolve("follower"), opts)) {
+			follower.put("stray", utf8("only-on-follower")); // dropped by the first full replay
+			for (int i = 0; i < 300; i++) {
+				leader.put("r" + i, utf8("v" + i));
+			}
+			leader.delete("r5");
+			leader.put("ttl", utf8("t"), System.currentTimeMillis() + 3_600_000);
+			leader.put("expired", utf8("e"), System.currentTimeMillis() - 1);
+
+			ReplicationFollower f = new ReplicationFollower(follower, leader::readLog, cursor, 10);
+			catchUp(f);
+			assertEquals(leader.getRange("", "~"), follower.getRange("", "~"));
+			assertTrue(follower.get("stray").isEmpty());
+			assertArrayEquals(utf8("t"), follower.get("ttl").orElseThrow());
+			assertTrue(follower.get("expired").isEmpty()); // shipped with its absolute expiry
+			assertEquals(0, f.lagBytes());
+
+			// restart: the saved cursor resumes where it left off
+			leader.put("r6", utf8("changed"));
+			f = new ReplicationFollower(follower, leader::readLog, cursor, 10);
+			catchUp(f);
+			assertEquals(1, f.appliedRecords());
+			assertArrayEquals(utf8("changed"), follower.get("r6").orElseThrow());
+
+			// a compaction rewrites the follower's segment and drops the tombstones it never saw
+			follower.put("stray", utf8("again")); // only a full replay removes it
+			for (int i = 0; i < 300; i += 2) {
+				leader.delete("r" + i);
+			}
+			for (int i = 0; i < 100; i++) {
+				leader.put("pad" + i, utf8("p" + i));
+			}
+			leader.compact();
+			catchUp(f);
+			assertEquals(leader.getRange("", "~"), follower.getRange("", "~"));
+			assertTrue(follower.get("r2").isEmpty());
+			assertTrue(follower.get("stray").isEmpty());
+			assertEquals(149 + 100 + 1, follower.getRange("", "~").size()); // odd keys but r5, the pads and ttl
+		}
+	}
+
+	@Test
+	@DisplayName("DISK range index: key files, key-ordered merges, rebuilt files and shards give the same ranges")
+	void diskRangeIndex() throws Exception {
+		StoreOptions opts = new StoreOptions().rangeIndex(BitcaskStore.RangeIndex.DISK).maxSegmentBytes(4 * 1024)
+				.compactRateBytesPerSec(0);
+		TreeMap<String, String> expected = new TreeMap<>();
+		Random r = new Random(42);
+		try (BitcaskStore s = new BitcaskStore(dir, opts)) {
+			for (int i = 0; i < 3000; i++) {
+				String k = String.format("k%04d", r.nextInt(1000));
+				if (r.nextInt(5) == 0) {
+					s.delete(k);
+					expected.remove(k);
+				} else {
+					s.put(k, utf8("v" + i));
+					expected.put(k, "v" + i);
+				}
+			}
+			s.put("kå€", utf8("unicode"));
+			expected.put("kå€", "unicode");
+			assertRanges(expected, s);
+
+			s.compact();
+			assertRanges(expected, s);
+			// the merged segment holds its records in key order
+			LogChunk c = s.readLog(LogChunk.NO_GENERATION, 0, 0, 1 << 20);
+			ByteBuffer b = ByteBuffer.wrap(c.bytes).order(ByteOrder.LITTLE_ENDIAN);
+			String prev = "";
+			for (int pos = 0; pos < c.bytes.length;) {
+				int keyLen = b.getInt(pos);
+				int keyAt = pos + SegmentFile.keyOffset(b.get(pos + 8));
+				String k = new String(c.bytes, keyAt, keyLen, StandardCharsets.UTF_8);
+				assertTrue(k.compareTo(prev) > 0, k + " after " + prev);
+				prev = k;
+				pos = keyAt + keyLen + b.getInt(pos + 4);
+			}
+		}
+
+		Path first = dir.resolve("segment-000001.keys");
+		Path second = dir.resolve("segment-000002.keys");
+		assertTrue(Files.exists(first));
+		assertTrue(Files.exists(second));
+		try (BitcaskStore s = new BitcaskStore(dir, opts)) {
+			assertRanges(expected, s);
+		}
+
+		byte[] bytes = Files.readAllBytes(first);
+		bytes[bytes.length / 2] ^= 0x5A;
+		Files.write(first, bytes);
+		Files.delete(second);
+		try (BitcaskStore s = new BitcaskStore(dir, opts)) {
+			assertRanges(expected, s); // both segments' keys come from the heap until rebuilt
+		}
+		assertTrue(Files.exists(second));
+		assertTrue(KeyFile.open(first, 1, Files.size(dir.resolve("segment-000001.log"))) != null);
+
+		// MEMORY mode reads the same data; merging there drops the key files it would leave stale
+		try (BitcaskStore s = new BitcaskStore(dir, opts.copy().rangeIndex(BitcaskStore.RangeIndex.MEMORY))) {
+			assertRanges(expected, s);
+			s.compact();
+		}
+		assertTrue(Files.notExists(first));
+
+		try (KvStore s = KvStore.open(dir.resolve("sharded"), opts.copy().shards(3))) {
+			for (Map.Entry<String, String> e : expected.entrySet())
+				s.put(e.getKey(), utf8(e.getValue()));
+			s.compact();
+			List<String> keys = s.getRange("k0100", "k0199").stream().map(KvPair::key).toList();
+			assertEquals(List.copyOf(expected.subMap("k0100", true, "k0199", true).keySet()), keys);
+			assertEquals(expected.size(), s.getRange("", "~").size());
+		}
+	}
+
+	@Test
+	@DisplayName("DISK range index: a crash between the renames of a key-ordered merge is completed on restart")
+	void diskRangeIndexInstallCrash() throws Exception {
+		StoreOptions opts = new StoreOptions().rangeIndex(BitcaskStore.RangeIndex.DISK).maxSegmentBytes(4 * 1024)
+				.compactRateBytesPerSec(0);
+		// each output moves its segment, hint and key file in turn
+		for (int crashAt = 1; crashAt <= 3; crashAt++) {
+			Path d = dir.resolve("crash-" + crashAt);
+			TreeMap<String, String> expected = new TreeMap<>();
+			Random r = new Random(crashAt);
+			try (BitcaskStore s = new BitcaskStore(d, opts.copy().fileMover(crashAfterMoves(crashAt)))) {
+				for (int i = 0; i < 3000; i++) {
+					String k = String.format("k%04d", r.nextInt(1000));
+					if (r.nextInt(5) == 0) {
+						s.delete(k);
+						expected.remove(k);
+					} else {
+						s.put(k, utf8("v" + i));
+						expected.put(k, "v" + i);
+					}
+				}
+				assertThrows(IOException.class, s::compact);
+				assertTrue(Files.exists(d.resolve(MergeManifest.FILE)));
+			}
+
+			try (BitcaskStore s = new BitcaskStore(d, opts)) {
+				assertFalse(Files.exists(d.resolve(MergeManifest.FILE)));
+				try (Stream<Path> files = Files.list(d)) {
+					assertTrue(files.noneMatch(p -> p.toString().endsWith(".compact")));
+				}
+				assertRanges(expected, s);
+				// the installed output is the key-ordered one, key file and all
+				Path keys = d.resolve("segment-000001.keys");
+				KeyFile kf = KeyFile.open(keys, 1, Files.size(d.resolve("segment-000001.log")));
+				assertTrue(kf != null);
+				kf.close();
+				s.put("k9999", utf8("after"));
+				expected.put("k9999", "after");
+				s.compact(); // throws if a manifest were left behind
+				assertRanges(expected, s);
+			}
+			try (BitcaskStore s = new BitcaskStore(d, opts)) {
+				assertRanges(expected, s);
+			}
+		}
+	}
+
+	private static void assertRanges(TreeMap<String, String> expected, KvStore s) throws IOException {
+		String[][] ranges = { { "k0100", "k0199" }, { "", String.valueOf(Character.MAX_VALUE) },
+				{ "k0500", "k0500" }, { "k0990", "l" }, { "a", "b" } };
+		for (String[] r : ranges) {
+			List<String> want = List.copyOf(expected.subMap(r[0], true, r[1], true).keySet());
+			List<KvPair> got = s.getRange(r[0], r[1]);
+			assertEquals(want, got.stream().map(KvPair::key).toList());
+			for (KvPair kv : got)
+				assertArrayEquals(utf8(expected.get(kv.key())), kv.value());
+			assertEquals(want.size() > 10 ? want.get(9) : null, s.rangePageEnd(r[0], r[1], 10));
+		}
+	}
+}